@@ -0,0 +1,108 @@
+package ru.itmo.mit.git;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+    private static final String FEATURE = "branch-0";
+
+    /*
+     * fileCount файлов на глубине depth, historyLength коммитов в master
+     * и по одному собственному коммиту в master и ветке branch-0.
+     */
+    @State(Scope.Benchmark)
+    public static class Repository {
+        @Param({"10", "100", "1000"})
+        public int fileCount;
+
+        @Param({"1", "4"})
+        public int depth;
+
+        @Param({"1", "50"})
+        public int historyLength;
+
+        RepositoryGenerator generator;
+        RepositoryGenerator.GeneratedRepository repository;
+        RepositoryManager repositoryManager;
+        String masterHead;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, GitException, ClassNotFoundException {
+            generator = new RepositoryGenerator(fileCount).fileCount(fileCount).depth(depth).fileSize(256)
+                    .commitCount(historyLength).branches(1, 1, false);
+            repository = generator.generate(Files.createTempDirectory("mygit-bench"));
+            repositoryManager = repository.getRepositoryManager();
+            generator.commitChanges(repository, GitConstants.MASTER);
+            masterHead = repositoryManager.getRelativeRevisionFromHead(0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            RepositoryGenerator.delete(repository.getRoot());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class StagedChange {
+        @Setup(Level.Invocation)
+        public void setUp(Repository repository) throws IOException, GitException, ClassNotFoundException {
+            repository.generator.stageChanges(repository.repository);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MasterBeforeMerge {
+        @Setup(Level.Invocation)
+        public void setUp(Repository repository) throws IOException, ClassNotFoundException, GitException {
+            repository.repositoryManager.reset(repository.masterHead);
+        }
+    }
+
+    @Benchmark
+    public void add(Repository repository) throws IOException, GitException, ClassNotFoundException {
+        for (Path file : repository.repository.getFiles()) {
+            repository.repositoryManager.add(file);
+        }
+    }
+
+    // все файлы одним вызовом: параллельное хеширование и одна запись индекса
+    @Benchmark
+    public void addAll(Repository repository) throws IOException, GitException, ClassNotFoundException {
+        repository.repositoryManager.add(repository.repository.getFiles());
+    }
+
+    @Benchmark
+    public void commit(Repository repository, StagedChange change) throws IOException, ClassNotFoundException {
+        repository.repositoryManager.commit("Benchmark commit");
+    }
+
+    @Benchmark
+    public Status status(Repository repository) throws IOException, ClassNotFoundException {
+        return repository.repositoryManager.getStatus();
+    }
+
+    @Benchmark
+    public void checkout(Repository repository) throws IOException, GitException, ClassNotFoundException {
+        repository.repositoryManager.checkout(FEATURE);
+        repository.repositoryManager.checkout(GitConstants.MASTER);
+    }
+
+    @Benchmark
+    public void merge(Repository repository, MasterBeforeMerge master) throws IOException, GitException, ClassNotFoundException {
+        repository.repositoryManager.merge(FEATURE);
+    }
+
+    @Benchmark
+    public Fsck fsck(Repository repository) throws IOException {
+        return repository.repositoryManager.fsck();
+    }
+}
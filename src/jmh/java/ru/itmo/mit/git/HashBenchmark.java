@@ -0,0 +1,46 @@
+package ru.itmo.mit.git;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Сравнение хеш-функций репозитория, а также переиспользуемого MessageDigest
+ * с созданием нового на каждый вызов, как это было через DigestUtils.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashBenchmark {
+    @Param({"SHA1", "SHA256"})
+    public HashAlgorithm algorithm;
+
+    @Param({"64", "4096", "1048576"})
+    public int size;
+
+    private byte[] data;
+    private String digestName;
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        digestName = algorithm == HashAlgorithm.SHA1 ? "SHA-1" : "SHA-256";
+    }
+
+    @Benchmark
+    public ObjectId reusedDigest() {
+        return algorithm.hash(data);
+    }
+
+    @Benchmark
+    public byte[] newDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(digestName).digest(data);
+    }
+}
@@ -0,0 +1,190 @@
+package ru.itmo.mit.git;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static ru.itmo.mit.git.GitConstants.objectsDirectory;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectStoreBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class BlobState {
+        @Param({"64", "4096", "262144"})
+        public int fileSize;
+
+        Path root;
+        Path file;
+        Blob blob;
+        Path blobFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, GitException, ClassNotFoundException {
+            root = Files.createTempDirectory("mygit-bench");
+            file = new RepositoryGenerator(fileSize).fileSize(fileSize).generate(root).getFiles().get(0);
+            blob = new Blob(ObjectDatabase.forRepository(root), Files.readAllBytes(file));
+            blobFile = root.resolve(objectsDirectory).resolve(blob.getHash().toString());
+            ObjectInserter.flush(root);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            RepositoryGenerator.delete(root);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class TreeState {
+        @Param({"1", "4", "16"})
+        public int depth;
+
+        // хранилище объектов: файлы .mygit/objects или память
+        @Param({"file", "memory"})
+        public String storage;
+
+        Path root;
+        Tree tree;
+        Path path;
+        ObjectId blobHash;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, GitException, ClassNotFoundException {
+            root = Files.createTempDirectory("mygit-bench");
+            List<Path> files = new RepositoryGenerator(depth).fileCount(64).depth(depth).generate(root).getFiles();
+            ObjectDatabase objects = storage.equals("memory")
+                    ? new InMemoryObjectDatabase(HashAlgorithm.DEFAULT)
+                    : new FileObjectDatabase(root);
+            tree = new Tree(objects, root.getFileName().toString(), new ArrayList<>());
+            for (Path file : files) {
+                Blob blob = new Blob(objects, Files.readAllBytes(file));
+                tree = tree.addPathToTree(root.relativize(file), blob.getHash());
+            }
+            path = root.relativize(files.get(0));
+            blobHash = new Blob(objects, "changed".getBytes()).getHash();
+            ObjectInserter.flush(root);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            // addPathToTree создает деревья, которые могут еще записываться
+            ObjectInserter.flush(root);
+            RepositoryGenerator.delete(root);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SmallObjectState {
+        private static final int OBJECTS = 10_000;
+
+        // файл на объект (.mygit/objects) или сегменты (.mygit/segments)
+        @Param({"files", "log"})
+        public String objectStore;
+
+        Path root;
+        ObjectDatabase objects;
+        List<ObjectId> hashes = new ArrayList<>();
+        List<ObjectId> missing = new ArrayList<>();
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, GitException {
+            root = Files.createTempDirectory("mygit-bench");
+            RepositoryManager.initRepository(root, HashAlgorithm.DEFAULT, objectStore);
+            objects = ObjectDatabase.forRepository(root);
+            for (int i = 0; i < OBJECTS; i++) {
+                hashes.add(new Blob(objects, ("object " + i).getBytes()).getHash());
+                missing.add(HashAlgorithm.DEFAULT.newHasher().update(("missing " + i).getBytes()).digest());
+            }
+            objects.flush();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            objects.flush();
+            RepositoryGenerator.delete(root);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class HistoryState {
+        @Param({"10", "100", "500"})
+        public int historyLength;
+
+        Path root;
+        Commit head;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, GitException, ClassNotFoundException {
+            root = Files.createTempDirectory("mygit-bench");
+            RepositoryManager repositoryManager = new RepositoryGenerator(historyLength).fileCount(16).depth(1)
+                    .commitCount(historyLength).generate(root).getRepositoryManager();
+            head = (Commit) GitObject.read(root.resolve(objectsDirectory).resolve(repositoryManager.getRelativeRevisionFromHead(0)));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            RepositoryGenerator.delete(root);
+        }
+    }
+
+    @Benchmark
+    public GitObject readObject(BlobState state) throws IOException, ClassNotFoundException {
+        return GitObject.read(state.blobFile);
+    }
+
+    @Benchmark
+    public void writeObject(BlobState state) throws IOException {
+        GitObject.write(state.blob, state.root);
+    }
+
+    // запись нового маленького объекта до конца, как в конце команды
+    @Benchmark
+    public ObjectId insertSmallObject(SmallObjectState state) throws IOException {
+        ObjectId hash = new Blob(state.objects, ("new object " + state.next++).getBytes()).getHash();
+        state.objects.flush();
+        return hash;
+    }
+
+    // проверка отсутствующего объекта, как в status файла, которого нет в хранилище
+    @Benchmark
+    public boolean containsMissingObject(SmallObjectState state) throws IOException {
+        return state.objects.contains(state.missing.get(state.next++ % state.missing.size()));
+    }
+
+    @Benchmark
+    public GitObject readSmallObject(SmallObjectState state) throws IOException, ClassNotFoundException {
+        return state.objects.read(state.hashes.get(state.next++ % state.hashes.size()));
+    }
+
+    @Benchmark
+    public ObjectId fileHash(BlobState state) throws IOException {
+        return Blob.getFileHash(HashAlgorithm.forRepository(state.root), state.file);
+    }
+
+    @Benchmark
+    public Tree addPathToTree(TreeState state) throws IOException, ClassNotFoundException {
+        return state.tree.addPathToTree(state.path, state.blobHash);
+    }
+
+    // обход всего дерева с чтением поддеревьев заранее
+    @Benchmark
+    public List<Pair> treePairs(TreeState state) throws IOException, ClassNotFoundException {
+        return state.tree.getPairs(Paths.get(""));
+    }
+
+    @Benchmark
+    public List<Commit> log(HistoryState state) throws IOException, ClassNotFoundException {
+        return state.head.getLog();
+    }
+}
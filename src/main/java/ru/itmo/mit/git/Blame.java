@@ -0,0 +1,180 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/*
+ * Для каждой строки файла находит коммит, в котором она появилась.
+ * История обходится по родителям коммитов; в каждом коммите хеш блоба находится
+ * по деревьям на пути к файлу. Строки сравниваются только там, где блоб изменился,
+ * а результат для каждой версии файла сохраняется в BlameCache, поэтому повторный
+ * blame после новых коммитов обходит только новую часть истории.
+ */
+final class Blame {
+    // больше этого числа клеток таблица LCS не строится, средняя часть считается измененной
+    private static final long MAX_DIFF_CELLS = 4_000_000L;
+
+    private final ObjectDatabase objects;
+    private final Path relativePath;
+    private final BlameCache cache;
+    private final Map<ObjectId, Optional<ObjectId>> blobHashes = new HashMap<>();
+
+    Blame(@NotNull Path root, @NotNull ObjectDatabase objects, @NotNull Path relativePath) throws IOException {
+        this.objects = objects;
+        this.relativePath = relativePath;
+        cache = new BlameCache(root, relativePath.toString().replace('\\', '/'));
+    }
+
+    // null, если в коммите нет файла
+    @Nullable List<ObjectId> blame(@NotNull Commit start) throws IOException, ClassNotFoundException {
+        ObjectId startBlob = getBlobHash(start);
+        if (startBlob == null) {
+            return null;
+        }
+        Deque<Commit> stack = new ArrayDeque<>();
+        Set<ObjectId> expanded = new HashSet<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Commit commit = stack.peek();
+            ObjectId blobHash = getBlobHash(commit);
+            if (cache.contains(blobHash)) {
+                stack.pop();
+                continue;
+            }
+            List<Commit> parents = getParents(commit);
+            if (expanded.add(commit.getHash())) {
+                for (Commit parent : parents) {
+                    ObjectId parentBlob = getBlobHash(parent);
+                    if (parentBlob != null && !cache.contains(parentBlob)) {
+                        stack.push(parent);
+                    }
+                }
+                continue;
+            }
+            stack.pop();
+            cache.put(blobHash, attribute(commit, blobHash, parents));
+        }
+        return cache.get(startBlob);
+    }
+
+    /*
+     * Строки, совпавшие со строками родителя, наследуют его авторство
+     * (родители проверяются по порядку), остальные появились в этом коммите.
+     */
+    private @NotNull List<ObjectId> attribute(@NotNull Commit commit, @NotNull ObjectId blobHash,
+                                              @NotNull List<Commit> parents) throws IOException, ClassNotFoundException {
+        List<String> lines = readLines(blobHash);
+        ObjectId[] owners = new ObjectId[lines.size()];
+        for (Commit parent : parents) {
+            ObjectId parentBlob = getBlobHash(parent);
+            List<ObjectId> parentOwners = parentBlob == null ? null : cache.get(parentBlob);
+            if (parentOwners == null) {
+                continue;
+            }
+            int[] matches = matchLines(readLines(parentBlob), lines);
+            for (int i = 0; i < owners.length; i++) {
+                if (owners[i] == null && matches[i] >= 0) {
+                    owners[i] = parentOwners.get(matches[i]);
+                }
+            }
+        }
+        for (int i = 0; i < owners.length; i++) {
+            if (owners[i] == null) {
+                owners[i] = commit.getHash();
+            }
+        }
+        return Arrays.asList(owners);
+    }
+
+    /*
+     * Для каждой строки newLines -- номер такой же строки oldLines из наибольшей
+     * общей подпоследовательности или -1. Общие начало и конец отрезаются сразу.
+     */
+    static int[] matchLines(@NotNull List<String> oldLines, @NotNull List<String> newLines) {
+        int[] matches = new int[newLines.size()];
+        Arrays.fill(matches, -1);
+        int prefix = 0;
+        while (prefix < oldLines.size() && prefix < newLines.size() && oldLines.get(prefix).equals(newLines.get(prefix))) {
+            matches[prefix] = prefix;
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldLines.size() - prefix && suffix < newLines.size() - prefix
+                && oldLines.get(oldLines.size() - 1 - suffix).equals(newLines.get(newLines.size() - 1 - suffix))) {
+            matches[newLines.size() - 1 - suffix] = oldLines.size() - 1 - suffix;
+            suffix++;
+        }
+        int n = oldLines.size() - prefix - suffix;
+        int m = newLines.size() - prefix - suffix;
+        if (n == 0 || m == 0 || (long) n * m > MAX_DIFF_CELLS) {
+            return matches;
+        }
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i][j] = oldLines.get(prefix + i).equals(newLines.get(prefix + j))
+                        ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+        int i = 0;
+        int j = 0;
+        while (i < n && j < m) {
+            if (oldLines.get(prefix + i).equals(newLines.get(prefix + j))) {
+                matches[prefix + j] = prefix + i;
+                i++;
+                j++;
+            } else if (lcs[i + 1][j] >= lcs[i][j + 1]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return matches;
+    }
+
+    static @NotNull List<String> splitLines(@NotNull byte[] content) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        if (text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split("\n", -1)));
+        if (text.endsWith("\n")) {
+            lines.remove(lines.size() - 1);
+        }
+        return lines;
+    }
+
+    @NotNull List<String> readLines(@NotNull ObjectId blobHash) throws IOException, ClassNotFoundException {
+        return splitLines(((Blob) readObject(blobHash)).getContent());
+    }
+
+    private @Nullable ObjectId getBlobHash(@NotNull Commit commit) throws IOException, ClassNotFoundException {
+        Optional<ObjectId> blobHash = blobHashes.get(commit.getHash());
+        if (blobHash == null) {
+            blobHash = Optional.ofNullable(commit.getTree().getBlobHash(relativePath));
+            blobHashes.put(commit.getHash(), blobHash);
+        }
+        return blobHash.orElse(null);
+    }
+
+    // в неглубоком клоне родителей на границе истории нет
+    private @NotNull List<Commit> getParents(@NotNull Commit commit) throws IOException, ClassNotFoundException {
+        List<Commit> parents = new ArrayList<>();
+        for (ObjectId parentHash : commit.getParents()) {
+            if (objects.contains(parentHash)) {
+                parents.add((Commit) readObject(parentHash));
+            }
+        }
+        return parents;
+    }
+
+    private @NotNull GitObject readObject(@NotNull ObjectId hash) throws IOException, ClassNotFoundException {
+        return objects.read(hash);
+    }
+}
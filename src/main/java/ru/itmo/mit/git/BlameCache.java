@@ -0,0 +1,87 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.itmo.mit.git.GitConstants.blameDirectory;
+
+/*
+ * Результаты blame одного файла: для каждой версии файла (хеша блоба) -- коммиты,
+ * в которых появились ее строки. Хранятся в .mygit/blame/<hash(path, blob)>,
+ * по одному хешу коммита на строку. Версии неизменяемы, поэтому записи не устаревают.
+ */
+final class BlameCache {
+    private final Path directory;
+    private final String path;
+    private final HashAlgorithm hashAlgorithm;
+    private final Map<ObjectId, List<ObjectId>> loaded = new HashMap<>();
+
+    BlameCache(@NotNull Path root, @NotNull String path) throws IOException {
+        directory = root.resolve(blameDirectory);
+        this.path = path;
+        hashAlgorithm = HashAlgorithm.forRepository(root);
+    }
+
+    @Nullable List<ObjectId> get(@NotNull ObjectId blobHash) throws IOException {
+        List<ObjectId> owners = loaded.get(blobHash);
+        if (owners != null) {
+            return owners;
+        }
+        Path file = getFile(blobHash);
+        if (Files.notExists(file)) {
+            Statistics.increment(Statistics.Counter.CACHE_MISSES);
+            return null;
+        }
+        owners = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                owners.add(ObjectId.fromString(line));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IOException("IOException occurred while reading the blame cache: " + file);
+        }
+        Statistics.increment(Statistics.Counter.CACHE_HITS);
+        owners = Collections.unmodifiableList(owners);
+        loaded.put(blobHash, owners);
+        return owners;
+    }
+
+    boolean contains(@NotNull ObjectId blobHash) throws IOException {
+        return get(blobHash) != null;
+    }
+
+    void put(@NotNull ObjectId blobHash, @NotNull List<ObjectId> owners) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (ObjectId owner : owners) {
+            content.append(owner).append('\n');
+        }
+        Path file = getFile(blobHash);
+        try {
+            Files.createDirectories(directory);
+            // ту же запись уже пишет другой процесс
+            try (LockFile lock = LockFile.tryAcquire(file)) {
+                if (lock != null) {
+                    lock.write(content.toString().getBytes(StandardCharsets.UTF_8));
+                    lock.commit();
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing the blame cache: " + file);
+        }
+        loaded.put(blobHash, Collections.unmodifiableList(new ArrayList<>(owners)));
+    }
+
+    private @NotNull Path getFile(@NotNull ObjectId blobHash) {
+        return directory.resolve(hashAlgorithm.newHasher().update(path).update(blobHash).digest().toString());
+    }
+}
@@ -0,0 +1,27 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+public class BlameLine {
+    private final CommitInfo commit;
+    private final int lineNumber;
+    private final String content;
+
+    BlameLine(@NotNull CommitInfo commit, int lineNumber, @NotNull String content) {
+        this.commit = commit;
+        this.lineNumber = lineNumber;
+        this.content = content;
+    }
+
+    public @NotNull CommitInfo getCommit() {
+        return commit;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public @NotNull String getContent() {
+        return content;
+    }
+}
@@ -1,23 +1,34 @@
 package ru.itmo.mit.git;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
+/*
+ * Хеш блоба зависит только от содержимого: одинаковые файлы под разными именами хранятся
+ * одним объектом, а имена есть только в записях деревьев. Блобы, записанные до этого,
+ * содержали еще и имя файла; serialVersionUID закреплен, чтобы migrate мог их прочитать
+ * (блобы первой версии, с hex-строкой вместо ObjectId, читает StringHashFormat).
+ * Имя такого блоба запоминается при чтении: migrate оставляет старые блобы в хранилище,
+ * и fsck проверяет их хеш по старому правилу.
+ */
 public class Blob implements GitObject {
-    private final String fileName;
-    private String hash;
-    private final byte[] content;
+    private static final long serialVersionUID = -3850016679732708321L;
+    private static final String LEGACY_FILE_NAME = "fileName";
 
-    public Blob(@NotNull Path root, @NotNull byte[] content, @NotNull String fileName) {
+    private ObjectId hash;
+    private byte[] content;
+    // имя файла блоба старого формата, у новых null
+    private transient String legacyFileName;
+
+    Blob(@NotNull ObjectDatabase database, @NotNull byte[] content) {
         this.content = content;
-        this.fileName = fileName;
-        updateHash();
         try {
-            GitObject.write(this, root);
+            updateHash(database.getHashAlgorithm());
+            database.insert(this);
         } catch (IOException e) {
             System.out.println(e.getMessage());
         }
@@ -29,36 +40,39 @@ public class Blob implements GitObject {
     }
 
     @Override
-    public String getHash() {
+    public ObjectId getHash() {
         return hash;
     }
 
-    public String getFileName() {
-        return fileName;
-    }
-
     public byte[] getContent() {
         return content;
     }
 
-    private void updateHash() {
-        byte[] array = new byte[content.length + fileName.getBytes().length];
-        System.arraycopy(content, 0, array, 0, content.length);
-        System.arraycopy(fileName.getBytes(), 0, array, content.length, fileName.getBytes().length);
-        hash = DigestUtils.sha1Hex(array);
+    private void updateHash(@NotNull HashAlgorithm hashAlgorithm) {
+        hash = computeHash(hashAlgorithm);
     }
 
-    public static @NotNull String getFileHash(Path path) throws IOException {
-        byte[] content = Files.readAllBytes(path);
-        String fileName = path.getFileName().toString();
-        byte[] array = new byte[content.length + fileName.getBytes().length];
-        System.arraycopy(content, 0, array, 0, content.length);
-        System.arraycopy(fileName.getBytes(), 0, array, content.length, fileName.getBytes().length);
-        return  DigestUtils.sha1Hex(array);
+    // хеш блоба старого формата зависел и от имени файла
+    @Override
+    public @NotNull ObjectId computeHash(@NotNull HashAlgorithm hashAlgorithm) {
+        if (legacyFileName != null) {
+            return hashAlgorithm.newHasher().update(content).update(legacyFileName).digest();
+        }
+        return hashAlgorithm.newHasher().update(content).digest();
     }
 
-    public static boolean exist(String hash, Path blobDir) {
-        Path blobFile = blobDir.resolve(hash);
-        return Files.exists(blobFile);
+    private void readObject(@NotNull ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = inputStream.readFields();
+        hash = (ObjectId) fields.get("hash", null);
+        content = (byte[]) fields.get("content", null);
+        if (fields.getObjectStreamClass().getField(LEGACY_FILE_NAME) != null) {
+            legacyFileName = (String) fields.get(LEGACY_FILE_NAME, null);
+        }
+    }
+
+    public static @NotNull ObjectId getFileHash(@NotNull HashAlgorithm hashAlgorithm, @NotNull Path path) throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        Statistics.add(Statistics.Counter.BYTES_READ, content.length);
+        return hashAlgorithm.newHasher().update(content).digest();
     }
 }
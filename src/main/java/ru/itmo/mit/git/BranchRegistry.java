@@ -0,0 +1,229 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static ru.itmo.mit.git.GitConstants.branchesDirectory;
+import static ru.itmo.mit.git.GitConstants.head;
+import static ru.itmo.mit.git.GitConstants.packedRefs;
+
+/*
+ * Реестр веток. Ветка ищется сначала среди отдельных файлов .mygit/branches/<name>,
+ * затем бинарным поиском в packed-refs, и запоминается в HashMap по имени.
+ * Новые значения пишутся в отдельные файлы, pack() переносит их в packed-refs.
+ * Каждый файл ветки и packed-refs меняется под своей блокировкой (LockFile).
+ * HEAD хранится в .mygit/HEAD рабочей копии: имя ветки и коммит.
+ */
+final class BranchRegistry implements RefDatabase {
+    // корень репозитория с ветками; HEAD лежит в рабочей копии worktree
+    private final Path root;
+    private final Path worktree;
+    private final Map<String, Branch> branches = new HashMap<>();
+    private final Set<String> missing = new HashSet<>();
+    private PackedRefs packed;
+
+    BranchRegistry(@NotNull Path root, @NotNull Path worktree) {
+        this.root = root;
+        this.worktree = worktree;
+    }
+
+    static void checkName(@NotNull String name) throws GitException {
+        if (name.isEmpty() || name.equals(Branch.DETACHED) || name.startsWith(".") || name.endsWith(".lock")
+                || name.chars().anyMatch(c -> Character.isWhitespace(c) || c == '/' || c == '\\')) {
+            throw new GitException("Invalid branch name '" + name + "'");
+        }
+    }
+
+    // ветки кешируются на время команды, новая команда читает их заново
+    @Override
+    public void refresh() {
+        branches.clear();
+        missing.clear();
+        packed = null;
+    }
+
+    @Override
+    public @Nullable Branch get(@NotNull String name) throws IOException {
+        Branch branch = branches.get(name);
+        if (branch != null || missing.contains(name)) {
+            Statistics.increment(Statistics.Counter.CACHE_HITS);
+            return branch;
+        }
+        Statistics.increment(Statistics.Counter.CACHE_MISSES);
+        ObjectId commit = readLoose(name);
+        if (commit == null) {
+            commit = getPacked().find(name);
+        }
+        if (commit == null) {
+            missing.add(name);
+            return null;
+        }
+        branch = new Branch(name, commit);
+        branches.put(name, branch);
+        return branch;
+    }
+
+    // expected проверяется под блокировкой файла ветки
+    @Override
+    public void update(@NotNull Branch branch, @Nullable ObjectId expected) throws IOException {
+        // ветка не должна указывать на еще не записанный коммит
+        ObjectInserter.flush(root);
+        Path file = getLooseFile(branch.getName());
+        try (LockFile lock = LockFile.acquire(file)) {
+            if (expected != null && !expected.equals(readCurrent(branch.getName()))) {
+                throw new IOException("Branch " + branch.getName() + " was updated by another process");
+            }
+            lock.write((branch.getCommitHash() + "\n").getBytes(StandardCharsets.UTF_8));
+            lock.commit();
+        }
+        branches.put(branch.getName(), branch);
+        missing.remove(branch.getName());
+    }
+
+    @Override
+    public void remove(@NotNull String name) throws IOException {
+        Path file = getLooseFile(name);
+        try (LockFile lock = LockFile.acquire(file)) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new IOException("IOException occurred while deleting the " + file);
+            }
+            try (LockFile packedLock = LockFile.acquire(root.resolve(packedRefs))) {
+                packed = PackedRefs.read(root.resolve(packedRefs));
+                if (packed.find(name) != null) {
+                    SortedMap<String, ObjectId> refs = packed.getAll();
+                    refs.remove(name);
+                    packed = PackedRefs.write(packedLock, refs);
+                }
+            }
+        }
+        branches.remove(name);
+        missing.add(name);
+    }
+
+    @Override
+    public @NotNull List<String> getNames() throws IOException {
+        SortedSet<String> names = new TreeSet<>(getPacked().getAll().keySet());
+        names.addAll(getLooseNames());
+        return new ArrayList<>(names);
+    }
+
+    @Override
+    public @NotNull SortedMap<String, ObjectId> getAll() throws IOException {
+        SortedMap<String, ObjectId> refs = getPacked().getAll();
+        for (String name : getLooseNames()) {
+            ObjectId commit = readLoose(name);
+            if (commit != null) {
+                refs.put(name, commit);
+            }
+        }
+        return refs;
+    }
+
+    @Override
+    public @NotNull Branch getHead() throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(worktree.resolve(head));
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading the head");
+        }
+        return new Branch(lines.get(0), ObjectId.fromString(lines.get(1)));
+    }
+
+    @Override
+    public void setHead(@NotNull Branch branch) throws IOException {
+        // HEAD не должен указывать на еще не записанный коммит
+        ObjectInserter.flush(root);
+        try {
+            LockFile.write(worktree.resolve(head), (branch.getName() + "\n" + branch.getCommitHash() + "\n").getBytes());
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing branch to the head: " + e.getMessage());
+        }
+    }
+
+    // записывает ветки сразу в packed-refs, например при clone
+    void putPacked(@NotNull SortedMap<String, ObjectId> refs) throws IOException {
+        ObjectInserter.flush(root);
+        try (LockFile lock = LockFile.acquire(root.resolve(packedRefs))) {
+            packed = PackedRefs.write(lock, refs);
+        }
+        branches.clear();
+        missing.clear();
+    }
+
+    /*
+     * Переносит все отдельные файлы веток в packed-refs. Файлы удаляются только
+     * после того, как новый packed-refs атомарно занял место старого, и только
+     * если под блокировкой ветка все еще указывает на упакованный коммит.
+     */
+    void pack() throws IOException {
+        SortedMap<String, ObjectId> refs;
+        try (LockFile lock = LockFile.acquire(root.resolve(packedRefs))) {
+            packed = PackedRefs.read(root.resolve(packedRefs));
+            refs = getAll();
+            packed = PackedRefs.write(lock, refs);
+        }
+        for (String name : getLooseNames()) {
+            try (LockFile lock = LockFile.tryAcquire(getLooseFile(name))) {
+                if (lock != null && refs.get(name) != null && refs.get(name).equals(readLoose(name))) {
+                    Files.deleteIfExists(getLooseFile(name));
+                }
+            }
+        }
+        branches.clear();
+        missing.clear();
+    }
+
+    // значение ветки на диске в обход закешированного
+    private @Nullable ObjectId readCurrent(@NotNull String name) throws IOException {
+        ObjectId commit = readLoose(name);
+        return commit != null ? commit : PackedRefs.read(root.resolve(packedRefs)).find(name);
+    }
+
+    private @Nullable ObjectId readLoose(@NotNull String name) throws IOException {
+        Path file = getLooseFile(name);
+        if (Files.notExists(file)) {
+            return null;
+        }
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Statistics.add(Statistics.Counter.BYTES_READ, data.length);
+            return ObjectId.fromString(new String(data, StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading the branch " + file);
+        }
+    }
+
+    private @NotNull List<String> getLooseNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root.resolve(branchesDirectory))) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(".lock")) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    private @NotNull PackedRefs getPacked() throws IOException {
+        if (packed == null) {
+            packed = PackedRefs.read(root.resolve(packedRefs));
+        }
+        return packed;
+    }
+
+    private @NotNull Path getLooseFile(@NotNull String name) {
+        return root.resolve(branchesDirectory).resolve(name);
+    }
+}
@@ -0,0 +1,207 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static ru.itmo.mit.git.GitConstants.bloomDirectory;
+
+/*
+ * Фильтр Блума путей, измененных коммитом относительно первого родителя, вместе со всеми
+ * их папками. Если фильтр не содержит путь, то хеш записи по этому пути в коммите и в первом
+ * родителе одинаковый, и коммит можно отбросить, не читая деревья. Хранится в
+ * .mygit/bloom/<хеш коммита>: первый байт -- число хеш-функций, дальше биты.
+ * Как в git: 10 бит и 7 хеш-функций на путь, для больших коммитов фильтр не строится
+ * и любой путь считается измененным.
+ */
+final class ChangedPathFilter {
+    private static final int BITS_PER_PATH = 10;
+    private static final int HASH_FUNCTIONS = 7;
+    private static final int MAX_PATHS = 512;
+    private static final int SEED1 = 0x293ae76f;
+    private static final int SEED2 = 0x7e646e2c;
+
+    private final int hashFunctions;
+    private final byte[] bits;
+
+    private ChangedPathFilter(int hashFunctions, @NotNull byte[] bits) {
+        this.hashFunctions = hashFunctions;
+        this.bits = bits;
+    }
+
+    // paths -- пути файлов относительно корня, папки добавляются автоматически
+    static @NotNull ChangedPathFilter create(@NotNull Collection<String> paths) {
+        Set<String> withDirectories = new TreeSet<>();
+        for (String path : paths) {
+            for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+                withDirectories.add(path.substring(0, i));
+            }
+            withDirectories.add(path);
+        }
+        if (withDirectories.size() > MAX_PATHS) {
+            return new ChangedPathFilter(0, new byte[0]);
+        }
+        int bitCount = Math.max(64, withDirectories.size() * BITS_PER_PATH);
+        ChangedPathFilter filter = new ChangedPathFilter(HASH_FUNCTIONS, new byte[(bitCount + 7) / 8]);
+        for (String path : withDirectories) {
+            filter.add(path);
+        }
+        return filter;
+    }
+
+    /*
+     * Пути, по которым различаются деревья. Читаются только поддеревья с разными хешами.
+     */
+    static @NotNull ChangedPathFilter compute(@NotNull Tree tree, @Nullable Tree parentTree)
+            throws IOException, ClassNotFoundException {
+        Set<String> paths = new TreeSet<>();
+        collectChangedPaths(tree, parentTree, "", paths);
+        return create(paths);
+    }
+
+    private static void collectChangedPaths(@Nullable Tree tree, @Nullable Tree parentTree, @NotNull String prefix,
+                                            @NotNull Set<String> paths) throws IOException, ClassNotFoundException {
+        Set<String> names = new TreeSet<>();
+        if (tree != null) {
+            tree.getChildren().forEach(entry -> names.add(entry.getName()));
+        }
+        if (parentTree != null) {
+            parentTree.getChildren().forEach(entry -> names.add(entry.getName()));
+        }
+        for (String name : names) {
+            TreeEntry entry = tree == null ? null : findEntry(tree, name);
+            TreeEntry parentEntry = parentTree == null ? null : findEntry(parentTree, name);
+            if (entry != null && parentEntry != null && entry.getHash().equals(parentEntry.getHash())) {
+                continue;
+            }
+            String path = prefix + name;
+            Tree subtree = entry != null && entry.isTree() ? (Tree) tree.getChild(entry.getHash()) : null;
+            Tree parentSubtree = parentEntry != null && parentEntry.isTree() ? (Tree) parentTree.getChild(parentEntry.getHash()) : null;
+            if (subtree == null && parentSubtree == null) {
+                paths.add(path);
+            } else {
+                collectChangedPaths(subtree, parentSubtree, path + "/", paths);
+                if (paths.size() > MAX_PATHS) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static @Nullable TreeEntry findEntry(@NotNull Tree tree, @NotNull String name) {
+        for (TreeEntry entry : tree.getChildren()) {
+            if (entry.getName().equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    static @Nullable ChangedPathFilter read(@NotNull Path root, @NotNull ObjectId commitHash) throws IOException {
+        Path file = root.resolve(bloomDirectory).resolve(commitHash.toString());
+        if (Files.notExists(file)) {
+            return null;
+        }
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading the changed path filter: " + file);
+        }
+        if (data.length == 0) {
+            throw new IOException("Changed path filter is corrupted: " + file);
+        }
+        byte[] bits = new byte[data.length - 1];
+        System.arraycopy(data, 1, bits, 0, bits.length);
+        return new ChangedPathFilter(data[0], bits);
+    }
+
+    void write(@NotNull Path root, @NotNull ObjectId commitHash) throws IOException {
+        Path file = root.resolve(bloomDirectory).resolve(commitHash.toString());
+        byte[] data = new byte[bits.length + 1];
+        data[0] = (byte) hashFunctions;
+        System.arraycopy(bits, 0, data, 1, bits.length);
+        try {
+            Files.createDirectories(file.getParent());
+            // тот же фильтр уже пишет другой процесс
+            try (LockFile lock = LockFile.tryAcquire(file)) {
+                if (lock != null) {
+                    lock.write(data);
+                    lock.commit();
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing the changed path filter: " + file);
+        }
+    }
+
+    // path -- путь относительно корня через '/'
+    boolean mightContain(@NotNull String path) {
+        if (hashFunctions == 0) {
+            return true;
+        }
+        byte[] data = path.getBytes(StandardCharsets.UTF_8);
+        int hash1 = murmur3(data, SEED1);
+        int hash2 = murmur3(data, SEED2);
+        int bitCount = bits.length * 8;
+        for (int i = 0; i < hashFunctions; i++) {
+            int bit = (int) (Integer.toUnsignedLong(hash1 + i * hash2) % bitCount);
+            if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(@NotNull String path) {
+        byte[] data = path.getBytes(StandardCharsets.UTF_8);
+        int hash1 = murmur3(data, SEED1);
+        int hash2 = murmur3(data, SEED2);
+        int bitCount = bits.length * 8;
+        for (int i = 0; i < hashFunctions; i++) {
+            int bit = (int) (Integer.toUnsignedLong(hash1 + i * hash2) % bitCount);
+            bits[bit >>> 3] |= 1 << (bit & 7);
+        }
+    }
+
+    // MurmurHash3 x86_32
+    private static int murmur3(@NotNull byte[] data, int seed) {
+        int hash = seed;
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i++) {
+            int k = (data[4 * i] & 0xff) | (data[4 * i + 1] & 0xff) << 8
+                    | (data[4 * i + 2] & 0xff) << 16 | (data[4 * i + 3] & 0xff) << 24;
+            hash ^= mixK(k);
+            hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+        }
+        // оставшиеся один-три байта, младший первым
+        int tail = data.length & 3;
+        if (tail > 0) {
+            int k = 0;
+            for (int i = tail - 1; i >= 0; i--) {
+                k = k << 8 | (data[4 * blocks + i] & 0xff);
+            }
+            hash ^= mixK(k);
+        }
+        hash ^= data.length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static int mixK(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+}
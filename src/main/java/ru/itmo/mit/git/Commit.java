@@ -1,47 +1,42 @@
 package ru.itmo.mit.git;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import static ru.itmo.mit.git.GitConstants.*;
-
 public class Commit implements GitObject, Comparable<Commit> {
-    private final String root;
+    // закреплен, чтобы migrate читал коммиты с ObjectId-хешами; коммиты первой версии читает StringHashFormat
+    private static final long serialVersionUID = 6555635758989539921L;
+
+    private transient ObjectDatabase database;
     private final String message;
     private final String author;
     private final Date date;
-    private final List<String> parents;
+    private final List<ObjectId> parents;
     private final Tree tree;
-    private String hash;
+    private ObjectId hash;
 
-    private Commit(@NotNull Path root, @NotNull String message, @NotNull String author, @NotNull Date date, @NotNull List<String> parents, @NotNull Tree tree) {
-        this.root = root.toString();
+    // автор и дата задаются, например, когда migrate создает коммит заново
+    Commit(@NotNull ObjectDatabase database, @NotNull String message, @NotNull String author, @NotNull Date date, @NotNull List<ObjectId> parents, @NotNull Tree tree) {
+        this.database = database;
         this.message = message;
         this.author = author;
         this.date = date;
         this.parents = parents;
         this.tree = tree;
-        updateHash();
         try {
-            GitObject.write(this, root);
+            updateHash(database.getHashAlgorithm());
+            database.insert(this);
         } catch (IOException e) {
             System.out.println(e.getMessage());
         }
     }
 
-    Commit(@NotNull Path root, @NotNull String message, @NotNull List<String> parents, @NotNull Tree tree) {
-        this(root, message, System.getProperty("user.name"), new Date(), parents, tree);
-    }
-
-    Commit(@NotNull Path root, @NotNull String message, @NotNull List<String> parents) {
-        this(root, message, System.getProperty("user.name"), new Date(), parents, new Tree(root, root.getName(root.getNameCount() - 1).toString(), new ArrayList<>()));
+    Commit(@NotNull ObjectDatabase database, @NotNull String message, @NotNull List<ObjectId> parents, @NotNull Tree tree) {
+        this(database, message, System.getProperty("user.name"), new Date(), parents, tree);
     }
 
     @Override
@@ -55,7 +50,7 @@ public class Commit implements GitObject, Comparable<Commit> {
     }
 
     @Override
-    public String getHash() {
+    public ObjectId getHash() {
         return hash;
     }
 
@@ -75,28 +70,47 @@ public class Commit implements GitObject, Comparable<Commit> {
         return tree;
     }
 
-    public List<String> getParents() {
+    public List<ObjectId> getParents() {
         return parents;
     }
 
+    // тот же коммит (автор, дата, сообщение) с другими родителями и деревом
+    @NotNull Commit rewrite(@NotNull ObjectDatabase database, @NotNull List<ObjectId> parents, @NotNull Tree tree) {
+        return new Commit(database, message, author, date, parents, tree);
+    }
+
+    @Override
+    public void bind(@NotNull ObjectDatabase database) {
+        this.database = database;
+        tree.bind(database);
+    }
+
     List<Commit> getLog() throws IOException, ClassNotFoundException {
         List<Commit> result = new ArrayList<>();
         result.add(this);
-        for (String hashParent : parents) {
-            Commit parent = (Commit) GitObject.read(Paths.get(root).resolve(objectsDirectory).resolve(hashParent));
+        for (ObjectId hashParent : parents) {
+            // в неглубоком клоне (clone --depth) родителей на границе истории нет
+            if (!database.contains(hashParent)) {
+                continue;
+            }
+            Commit parent = (Commit) database.read(hashParent);
             result.addAll(parent.getLog());
         }
         return result;
     }
 
-    private void updateHash() {
-        StringBuilder content = new StringBuilder();
-        content.append(message);
-        content.append(author);
-        content.append(date);
-        content.append(parents);
-        content.append(tree.getHash());
-        parents.forEach(content::append);
-        hash = DigestUtils.sha1Hex(content.toString().getBytes());
+    private void updateHash(@NotNull HashAlgorithm hashAlgorithm) {
+        hash = computeHash(hashAlgorithm);
+    }
+
+    @Override
+    public @NotNull ObjectId computeHash(@NotNull HashAlgorithm hashAlgorithm) {
+        HashAlgorithm.Hasher hasher = hashAlgorithm.newHasher()
+                .update(message)
+                .update(author)
+                .update(date.toString())
+                .update(tree.getHash());
+        parents.forEach(hasher::update);
+        return hasher.digest();
     }
 }
@@ -7,7 +7,7 @@ public class CommitInfo {
     private final String date;
 
     CommitInfo(Commit commit) {
-        hash = commit.getHash();
+        hash = commit.getHash().toString();
         message = commit.getMessage();
         author = commit.getAuthor();
         date = commit.getDate().toString();
@@ -0,0 +1,82 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ru.itmo.mit.git.GitConstants.index;
+
+/*
+ * Индекс в .mygit/index рабочей копии: строки "путь хеш". Блокировка -- index.lock,
+ * новое содержимое атомарно переименовывается из него (см. LockFile).
+ */
+final class FileIndexStore implements IndexStore {
+    private final Path file;
+
+    FileIndexStore(@NotNull Path root) {
+        file = root.resolve(index);
+    }
+
+    @Override
+    public @NotNull List<Pair> read() throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+            Statistics.increment(Statistics.Counter.INDEX_READS);
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading the Index file:" + file);
+        }
+        List<Pair> entries = new ArrayList<>();
+        for (String line : new String(data).split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int separator = line.lastIndexOf(' ');
+            entries.add(new Pair(Paths.get(line.substring(0, separator)), ObjectId.fromString(line.substring(separator + 1))));
+        }
+        return entries;
+    }
+
+    @Override
+    public void write(@NotNull List<Pair> entries) throws IOException {
+        try {
+            LockFile.write(file, serialize(entries));
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing the Index file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public @NotNull Lock lock() throws IOException {
+        LockFile lockFile = LockFile.acquire(file);
+        return new Lock() {
+            @Override
+            public void write(@NotNull List<Pair> entries) throws IOException {
+                try {
+                    lockFile.write(serialize(entries));
+                    lockFile.commit();
+                } catch (IOException e) {
+                    throw new IOException("IOException occurred while writing the Index file: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                lockFile.close();
+            }
+        };
+    }
+
+    private static @NotNull byte[] serialize(@NotNull List<Pair> entries) {
+        StringBuilder content = new StringBuilder();
+        for (Pair pair : entries) {
+            content.append(pair.getPath().toString()).append(' ').append(pair.getHash()).append('\n');
+        }
+        return content.toString().getBytes();
+    }
+}
@@ -0,0 +1,166 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static ru.itmo.mit.git.GitConstants.objectsDirectory;
+
+/*
+ * Объекты в файлах .mygit/objects/<хеш>. Записывает их ObjectInserter в фоновых потоках.
+ *
+ * Существование объектов проверяется по фильтру Блума хешей из списка объектов (ObjectList).
+ * Фильтр один на репозиторий и общий для всех экземпляров хранилища в процессе (объекты,
+ * прочитанные с диска, получают свой экземпляр), и живет дольше команды: в начале каждой
+ * команды (refresh) из списка дочитываются только хеши, дописанные с прошлого раза, в том
+ * числе другими процессами и рабочими копиями. Поэтому status и любая другая команда
+ * не обращаются к файловой системе за отсутствующими объектами, а новые объекты пишутся
+ * без проверки файла. Положительный ответ фильтра проверяется по файлу. Объекты, записанные
+ * другим процессом после начала команды, она не видит. В репозитории без списка
+ * проверяются файлы.
+ */
+final class FileObjectDatabase implements ObjectDatabase {
+    // фильтр хешей одного репозитория и то, до какого места прочитан его список
+    private static final class Existence {
+        private volatile @Nullable ObjectFilter filter;
+        private long listId;
+        private long listEnd;
+        // список дочитан в этой команде
+        private volatile boolean synced;
+    }
+
+    // корень репозитория -> его фильтр
+    private static final ConcurrentMap<Path, Existence> existences = new ConcurrentHashMap<>();
+
+    private final Path root;
+
+    FileObjectDatabase(@NotNull Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public @NotNull HashAlgorithm getHashAlgorithm() throws IOException {
+        return HashAlgorithm.forRepository(root);
+    }
+
+    @Override
+    public boolean contains(@NotNull ObjectId hash) throws IOException {
+        Path file = getFile(hash);
+        if (ObjectInserter.getPending(file) != null) {
+            return true;
+        }
+        ObjectFilter filter = getFilter();
+        if (filter != null && !filter.mightContain(hash)) {
+            return false;
+        }
+        Statistics.increment(Statistics.Counter.OBJECT_FILES_CHECKED);
+        return Files.exists(file);
+    }
+
+    @Override
+    public @NotNull GitObject read(@NotNull ObjectId hash) throws IOException, ClassNotFoundException {
+        return GitObject.read(getFile(hash));
+    }
+
+    @Override
+    public @NotNull List<ObjectId> list() throws IOException {
+        HashAlgorithm hashAlgorithm = getHashAlgorithm();
+        List<ObjectId> hashes = new ArrayList<>();
+        // временные файлы недописанных объектов пропускаются
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root.resolve(objectsDirectory))) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (hashAlgorithm.isValid(name)) {
+                    hashes.add(ObjectId.fromString(name));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    @Override
+    public void insert(@NotNull GitObject gitObject) throws IOException {
+        ObjectId hash = gitObject.getHash();
+        ObjectFilter filter = getFilter();
+        if (filter == null) {
+            ObjectInserter.insert(gitObject, root);
+            return;
+        }
+        // хеш попадает в фильтр раньше, чем объект будет записан и уйдет из pending
+        ObjectInserter.insert(gitObject, root, () -> {
+            boolean known = filter.mightContain(hash);
+            filter.add(hash);
+            return known;
+        });
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ObjectInserter.flush(root);
+    }
+
+    // следующая проверка дочитает список объектов
+    @Override
+    public void refresh() {
+        getExistence().synced = false;
+    }
+
+    private @NotNull Existence getExistence() {
+        return existences.computeIfAbsent(getKey(), key -> new Existence());
+    }
+
+    // null, если у репозитория нет списка объектов
+    private @Nullable ObjectFilter getFilter() throws IOException {
+        Existence existence = getExistence();
+        if (existence.synced) {
+            return existence.filter;
+        }
+        synchronized (existence) {
+            if (!existence.synced) {
+                sync(existence);
+                existence.synced = true;
+            }
+            return existence.filter;
+        }
+    }
+
+    private void sync(@NotNull Existence existence) throws IOException {
+        ObjectList.Chunk chunk = ObjectList.read(root, getHashAlgorithm(), existence.listId, existence.listEnd);
+        if (chunk == null) {
+            existence.filter = null;
+            existence.listEnd = 0;
+            return;
+        }
+        ObjectFilter filter = existence.filter;
+        if (filter == null || chunk.isWhole()) {
+            // с запасом на объекты, которые будут созданы
+            filter = new ObjectFilter(2 * chunk.getHashes().size());
+            // вставленные, но еще не записанные объекты попадут в список позже, чем он прочитан
+            for (ObjectId hash : ObjectInserter.getPendingHashes(root)) {
+                filter.add(hash);
+            }
+        }
+        for (ObjectId hash : chunk.getHashes()) {
+            filter.add(hash);
+        }
+        existence.filter = filter;
+        existence.listId = chunk.getId();
+        existence.listEnd = chunk.getEnd();
+    }
+
+    private @NotNull Path getKey() {
+        return root.toAbsolutePath().normalize();
+    }
+
+    private @NotNull Path getFile(@NotNull ObjectId hash) {
+        return root.resolve(objectsDirectory).resolve(hash.toString());
+    }
+}
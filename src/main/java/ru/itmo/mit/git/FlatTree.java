@@ -0,0 +1,126 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.itmo.mit.git.GitConstants.flatDirectory;
+
+/*
+ * Все файлы дерева: полный путь относительно корня дерева (через '/') -> хеш блоба.
+ * Строится обходом поддеревьев один раз на дерево и хранится в .mygit/flat/<хеш дерева>,
+ * по строке "<хеш блоба> <путь>". Деревья неизменяемы, поэтому записи не устаревают,
+ * а status и checkout вместо чтения всех поддеревьев читают один файл.
+ */
+final class FlatTree {
+    private final ObjectId treeHash;
+    // в порядке обхода дерева
+    private final Map<String, ObjectId> files;
+
+    private FlatTree(@NotNull ObjectId treeHash, @NotNull Map<String, ObjectId> files) {
+        this.treeHash = treeHash;
+        this.files = files;
+    }
+
+    static @NotNull FlatTree load(@NotNull Path root, @NotNull Tree tree) throws IOException, ClassNotFoundException {
+        Path file = root.resolve(flatDirectory).resolve(tree.getHash().toString());
+        if (Files.exists(file)) {
+            Statistics.increment(Statistics.Counter.CACHE_HITS);
+            return read(tree.getHash(), file);
+        }
+        Statistics.increment(Statistics.Counter.CACHE_MISSES);
+        Map<String, ObjectId> files = new LinkedHashMap<>();
+        for (Pair pair : tree.getPairs(Paths.get(""))) {
+            files.put(pair.getPath().toString().replace('\\', '/'), pair.getHash());
+        }
+        FlatTree flatTree = new FlatTree(tree.getHash(), files);
+        flatTree.write(file);
+        return flatTree;
+    }
+
+    private static @NotNull FlatTree read(@NotNull ObjectId treeHash, @NotNull Path file) throws IOException {
+        Map<String, ObjectId> files = new LinkedHashMap<>();
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Statistics.add(Statistics.Counter.BYTES_READ, data.length);
+            for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
+                int separator = line.indexOf(' ');
+                if (separator > 0) {
+                    files.put(line.substring(separator + 1), ObjectId.fromString(line.substring(0, separator)));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IOException("IOException occurred while reading the flat tree: " + file);
+        }
+        return new FlatTree(treeHash, files);
+    }
+
+    private void write(@NotNull Path file) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, ObjectId> entry : files.entrySet()) {
+            content.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            // тот же файл уже пишет другой процесс
+            try (LockFile lock = LockFile.tryAcquire(file)) {
+                if (lock != null) {
+                    lock.write(content.toString().getBytes(StandardCharsets.UTF_8));
+                    lock.commit();
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing the flat tree: " + file);
+        }
+    }
+
+    @NotNull ObjectId getTreeHash() {
+        return treeHash;
+    }
+
+    // relativePath -- путь файла относительно корня дерева
+    @Nullable ObjectId get(@NotNull Path relativePath) {
+        return files.get(relativePath.toString().replace('\\', '/'));
+    }
+
+    /*
+     * Пары (currentPath/путь, хеш) как у Tree.getPairs: файлы в папках,
+     * исключенных sparse, пропускаются.
+     */
+    @NotNull List<Pair> getPairs(@NotNull Path currentPath, @Nullable SparseCheckout sparse) {
+        List<Pair> pairs = new ArrayList<>(files.size());
+        Map<String, Boolean> included = new HashMap<>();
+        for (Map.Entry<String, ObjectId> entry : files.entrySet()) {
+            if (sparse == null || isIncluded(entry.getKey(), sparse, included)) {
+                pairs.add(new Pair(currentPath.resolve(entry.getKey()), entry.getValue()));
+            }
+        }
+        return pairs;
+    }
+
+    // файл выгружается, только если sparse включает все папки на пути к нему
+    private static boolean isIncluded(@NotNull String path, @NotNull SparseCheckout sparse, @NotNull Map<String, Boolean> included) {
+        for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+            String directory = path.substring(0, i);
+            Boolean result = included.get(directory);
+            if (result == null) {
+                result = sparse.includes(Paths.get(directory));
+                included.put(directory, result);
+            }
+            if (!result) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,176 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * Проверка хранилища. Каждый объект читается, и его хеш пересчитывается по содержимому.
+ * Объекты проверяются параллельно, из каждого запоминаются только тип и ссылки на другие
+ * объекты. Потом в памяти, без повторного чтения, проверяется, что записи деревьев,
+ * деревья и родители коммитов, ветки, HEAD и индексы указывают на существующие объекты
+ * нужного типа. Объекты, недостижимые из ссылок, -- unreachable; те из них, на которые
+ * не ссылается ни один объект, -- dangling.
+ */
+final class Fsck {
+    private static final class Link {
+        private final ObjectId target;
+        private final GitObject.Type type;
+
+        private Link(@NotNull ObjectId target, @NotNull GitObject.Type type) {
+            this.target = target;
+            this.type = type;
+        }
+    }
+
+    private final ObjectDatabase objects;
+    // коммиты на границе неглубокого клона, их родителей нет
+    private final Set<ObjectId> shallow;
+    private final Map<ObjectId, GitObject.Type> types = new ConcurrentHashMap<>();
+    private final Map<ObjectId, List<Link>> links = new ConcurrentHashMap<>();
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+    private final List<ObjectId> unreachable = new ArrayList<>();
+    private final List<ObjectId> dangling = new ArrayList<>();
+
+    Fsck(@NotNull ObjectDatabase objects, @NotNull Set<ObjectId> shallow) {
+        this.objects = objects;
+        this.shallow = shallow;
+    }
+
+    /*
+     * commitRefs и blobRefs -- описание ссылки (ветка, HEAD, запись индекса) -> хеш
+     * коммита или блоба, на который она указывает.
+     */
+    void check(@NotNull Map<String, ObjectId> commitRefs, @NotNull Map<String, ObjectId> blobRefs) throws IOException {
+        HashAlgorithm hashAlgorithm = objects.getHashAlgorithm();
+        List<ObjectId> hashes = objects.list();
+        try (Statistics.Phase ignored = Statistics.phase("check objects")) {
+            hashes.parallelStream().forEach(hash -> checkObject(hash, hashAlgorithm));
+        }
+        try (Statistics.Phase ignored = Statistics.phase("check links")) {
+            for (Map.Entry<ObjectId, List<Link>> source : links.entrySet()) {
+                for (Link link : source.getValue()) {
+                    // в неглубоком клоне родителей граничных коммитов нет
+                    if (link.type == GitObject.Type.COMMIT && shallow.contains(source.getKey()) && !types.containsKey(link.target)) {
+                        continue;
+                    }
+                    checkTarget(link.target, link.type, source.getKey().toString());
+                }
+            }
+            for (Map.Entry<String, ObjectId> ref : commitRefs.entrySet()) {
+                checkTarget(ref.getValue(), GitObject.Type.COMMIT, ref.getKey());
+            }
+            for (Map.Entry<String, ObjectId> ref : blobRefs.entrySet()) {
+                checkTarget(ref.getValue(), GitObject.Type.BLOB, ref.getKey());
+            }
+        }
+        try (Statistics.Phase ignored = Statistics.phase("reachability")) {
+            findUnreachable(commitRefs, blobRefs);
+        }
+    }
+
+    int getObjectCount() {
+        return types.size();
+    }
+
+    // отсортированы
+    @NotNull List<String> getErrors() {
+        List<String> result = new ArrayList<>(errors);
+        Collections.sort(result);
+        return result;
+    }
+
+    @NotNull List<ObjectId> getUnreachable() {
+        return unreachable;
+    }
+
+    @NotNull List<ObjectId> getDangling() {
+        return dangling;
+    }
+
+    private void checkObject(@NotNull ObjectId hash, @NotNull HashAlgorithm hashAlgorithm) {
+        GitObject object;
+        try {
+            object = objects.read(hash);
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            errors.add("corrupt object " + hash + ": " + e.getMessage());
+            return;
+        }
+        ObjectId computed = object.computeHash(hashAlgorithm);
+        if (!computed.equals(hash) || !hash.equals(object.getHash())) {
+            errors.add("hash mismatch in " + object.getType().name().toLowerCase() + " " + hash + ": content hashes to " + computed);
+        }
+        types.put(hash, object.getType());
+        List<Link> objectLinks = new ArrayList<>();
+        if (object instanceof Tree) {
+            for (TreeEntry entry : ((Tree) object).getChildren()) {
+                objectLinks.add(new Link(entry.getHash(), entry.getType()));
+            }
+        } else if (object instanceof Commit) {
+            Commit commit = (Commit) object;
+            Tree tree = commit.getTree();
+            if (!tree.computeHash(hashAlgorithm).equals(tree.getHash())) {
+                errors.add("hash mismatch in root tree of commit " + hash);
+            }
+            objectLinks.add(new Link(tree.getHash(), GitObject.Type.TREE));
+            for (ObjectId parent : commit.getParents()) {
+                objectLinks.add(new Link(parent, GitObject.Type.COMMIT));
+            }
+        }
+        if (!objectLinks.isEmpty()) {
+            links.put(hash, objectLinks);
+        }
+    }
+
+    private void checkTarget(@NotNull ObjectId target, @NotNull GitObject.Type type, @NotNull String source) {
+        GitObject.Type actual = types.get(target);
+        String expected = type.name().toLowerCase();
+        if (actual == null) {
+            errors.add("missing " + expected + " " + target + " referenced by " + source);
+        } else if (actual != type) {
+            errors.add(source + " refers to " + target + " as a " + expected + ", but it is a " + actual.name().toLowerCase());
+        }
+    }
+
+    private void findUnreachable(@NotNull Map<String, ObjectId> commitRefs, @NotNull Map<String, ObjectId> blobRefs) {
+        Set<ObjectId> reachable = new HashSet<>();
+        Deque<ObjectId> queue = new ArrayDeque<>(commitRefs.values());
+        queue.addAll(blobRefs.values());
+        while (!queue.isEmpty()) {
+            ObjectId hash = queue.pop();
+            if (!types.containsKey(hash) || !reachable.add(hash)) {
+                continue;
+            }
+            for (Link link : links.getOrDefault(hash, Collections.emptyList())) {
+                queue.push(link.target);
+            }
+        }
+        Set<ObjectId> referenced = new HashSet<>();
+        for (List<Link> objectLinks : links.values()) {
+            for (Link link : objectLinks) {
+                referenced.add(link.target);
+            }
+        }
+        for (ObjectId hash : types.keySet()) {
+            if (!reachable.contains(hash)) {
+                unreachable.add(hash);
+                if (!referenced.contains(hash)) {
+                    dangling.add(hash);
+                }
+            }
+        }
+        Collections.sort(unreachable);
+        Collections.sort(dangling);
+    }
+}
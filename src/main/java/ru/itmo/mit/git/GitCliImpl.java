@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -20,13 +22,44 @@ public class GitCliImpl implements GitCli {
     @Override
     public void runCommand(@NotNull String command, @NotNull List<@NotNull String> arguments) throws GitException {
         directory = Paths.get(System.getProperty("user.dir")).resolve("./playground/").normalize();
+        Statistics.reset();
+        String statsArgument = null;
+        List<String> commandArguments = new ArrayList<>();
+        for (String argument : arguments) {
+            if (argument.equals(STATS) || argument.startsWith(STATS + "=")) {
+                statsArgument = argument;
+            } else {
+                commandArguments.add(argument);
+            }
+        }
+
+        try (Statistics.Phase ignored = Statistics.phase("open repository")) {
+            if (command.equals(INIT)) {
+                commandInit(commandArguments);
+            } else if (command.equals(CLONE)) {
+                commandClone(commandArguments);
+            } else if (command.equals(MIGRATE)) {
+                commandMigrate();
+            } else if (repositoryManager == null) {
+                getRepositoryManager();
+            }
+        }
+
+        try (Statistics.Phase ignored = Statistics.phase(command)) {
+            dispatch(command, commandArguments);
+            // фоновые потоки записи не держат процесс, объекты дописываются до выхода
+            ObjectInserter.flush();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
 
-        if (command.equals(INIT)) {
-            commandInit();
-        } else if (repositoryManager == null) {
-            getRepositoryManager();
+        if (statsArgument != null) {
+            reportStatistics(command, statsArgument);
         }
+    }
 
+    private static void dispatch(@NotNull String command, @NotNull List<@NotNull String> arguments) {
         switch (command) {
             case ADD:
                 commandAdd(arguments);
@@ -38,7 +71,7 @@ public class GitCliImpl implements GitCli {
                 commandRemove(arguments);
                 break;
             case LOG:
-                commandLog();
+                commandLog(arguments);
                 break;
             case CHECKOUT:
                 commandCheckout(arguments);
@@ -60,6 +93,47 @@ public class GitCliImpl implements GitCli {
                 break;
             case MERGE:
                 commandMerge(arguments);
+                break;
+            case PACK_REFS:
+                commandPackRefs();
+                break;
+            case WORKTREE:
+                commandWorktree(arguments);
+                break;
+            case SPARSE_CHECKOUT:
+                commandSparseCheckout(arguments);
+                break;
+            case BLAME:
+                commandBlame(arguments);
+                break;
+            case GC:
+                commandGc();
+                break;
+            case CHERRY_PICK:
+                commandCherryPick(arguments);
+                break;
+            case REBASE:
+                commandRebase(arguments);
+                break;
+            case FSCK:
+                commandFsck(arguments);
+        }
+    }
+
+    /*
+     * --stats печатает сводку после вывода команды,
+     * --stats=<file> дописывает в file одну строку JSON.
+     */
+    private static void reportStatistics(@NotNull String command, @NotNull String statsArgument) {
+        if (statsArgument.equals(STATS)) {
+            outputStream.print(Statistics.summary(command));
+            return;
+        }
+        try {
+            Statistics.appendJson(command, Paths.get(statsArgument.substring(STATS.length() + 1)).toAbsolutePath());
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
         }
     }
 
@@ -82,9 +156,22 @@ public class GitCliImpl implements GitCli {
         }
     }
 
-    private static void commandInit() {
+    private static void commandInit(@NotNull List<@NotNull String> arguments) {
         try {
-            RepositoryManager.initRepository(directory);
+            HashAlgorithm hashAlgorithm = HashAlgorithm.DEFAULT;
+            String objectStore = RepositoryConfig.FILE_OBJECTS;
+            for (String argument : arguments) {
+                if (argument.startsWith(OBJECT_FORMAT + "=")) {
+                    hashAlgorithm = HashAlgorithm.fromName(argument.substring(OBJECT_FORMAT.length() + 1));
+                } else if (argument.startsWith(OBJECT_STORE + "=")) {
+                    objectStore = argument.substring(OBJECT_STORE.length() + 1);
+                } else {
+                    throw new GitException("Unknown init option '" + argument + "'");
+                }
+            }
+            RepositoryManager.initRepository(directory, hashAlgorithm, objectStore);
+            // менеджер прошлого репозитория в этой папке больше не действителен
+            repositoryManager = null;
             outputStream.println("Project initialized");
         } catch (GitException e) {
             System.out.println(e.getMessage());
@@ -95,11 +182,72 @@ public class GitCliImpl implements GitCli {
         }
     }
 
+    /*
+     * clone <source> <destination> [--depth N]
+     */
+    private static void commandClone(@NotNull List<@NotNull String> arguments) {
+        try {
+            List<String> paths = new ArrayList<>();
+            int depth = 0;
+            for (int i = 0; i < arguments.size(); i++) {
+                String argument = arguments.get(i);
+                if (argument.equals(DEPTH) && i + 1 < arguments.size()) {
+                    depth = parseDepth(arguments.get(++i));
+                } else if (argument.startsWith(DEPTH + "=")) {
+                    depth = parseDepth(argument.substring(DEPTH.length() + 1));
+                } else {
+                    paths.add(argument);
+                }
+            }
+            if (paths.size() != 2) {
+                throw new GitException("Usage: clone <source> <destination> [--depth N]");
+            }
+            RepositoryManager.cloneRepository(getPath(paths.get(0)), getPath(paths.get(1)), depth);
+            outputStream.println("Cloned into '" + paths.get(1) + "'");
+        } catch (GitException | ClassNotFoundException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.out.println("IOException occurred during clone");
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * migrate переписывает историю старого репозитория, поэтому открывает его сам:
+     * getRepositoryManager такой репозиторий не открывает.
+     */
+    private static void commandMigrate() {
+        try {
+            RepositoryManager.migrateRepository(directory);
+            // ветки и HEAD закешированного менеджера указывают на старые коммиты
+            repositoryManager = null;
+            outputStream.println("Repository migrated");
+        } catch (GitException | ClassNotFoundException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.out.println("IOException occurred during migration");
+            e.printStackTrace();
+        }
+    }
+
+    private static int parseDepth(@NotNull String depth) throws GitException {
+        try {
+            int result = Integer.parseInt(depth);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new GitException("Depth must be a positive number: " + depth);
+    }
+
     private static void commandAdd(@NotNull List<@NotNull String> arguments) {
         try {
-            repositoryManager.add(getPath(arguments.get(0)));
+            repositoryManager.add(repositoryManager.resolvePathspecs(arguments));
             outputStream.println("Add completed successful");
-        } catch (GitException | IOException e) {
+        } catch (GitException | IOException | ClassNotFoundException e) {
             System.out.println(e.getMessage());
             e.printStackTrace();
         }
@@ -133,7 +281,7 @@ public class GitCliImpl implements GitCli {
         try {
             repositoryManager.reset(arguments.get(0));
             outputStream.println("Reset successful");
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException | ClassNotFoundException | GitException e) {
             System.out.println(e.getMessage());
             e.printStackTrace();
         }
@@ -141,18 +289,23 @@ public class GitCliImpl implements GitCli {
 
     private static void commandRemove(@NotNull List<@NotNull String> arguments) {
         try {
-            repositoryManager.remove(getPath(arguments.get(0)));
+            repositoryManager.remove(repositoryManager.resolvePathspecs(arguments));
             outputStream.println("Rm completed successful");
-        } catch (GitException | IOException e) {
+        } catch (GitException | IOException | ClassNotFoundException e) {
             System.out.println(e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private static void commandLog() {
+    // log -- <path> показывает только коммиты, изменившие path
+    private static void commandLog(@NotNull List<@NotNull String> arguments) {
         LogObject log = null;
         try {
-            log = repositoryManager.log();
+            if (arguments.size() == 2 && arguments.get(0).equals("--")) {
+                log = repositoryManager.log(getPath(arguments.get(1)));
+            } else {
+                log = repositoryManager.log();
+            }
         } catch (IOException | ClassNotFoundException e) {
             System.out.println(e.getMessage());
             e.printStackTrace();
@@ -273,8 +426,103 @@ public class GitCliImpl implements GitCli {
     }
 
     public static void commandShow() {
-        outputStream.println("Available branches:");
-        repositoryManager.getBranches().stream().filter(name -> !name.equals("~")).forEach(name -> outputStream.println(name));
+        try {
+            List<String> branches = repositoryManager.getBranches();
+            outputStream.println("Available branches:");
+            branches.forEach(name -> outputStream.println(name));
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * worktree add <path> <branch>
+     * worktree list
+     */
+    public static void commandWorktree(@NotNull List<@NotNull String> arguments) {
+        try {
+            if (arguments.size() == 3 && arguments.get(0).equals("add")) {
+                repositoryManager.addWorktree(getPath(arguments.get(1)), arguments.get(2));
+                outputStream.println("Worktree " + arguments.get(1) + " created on branch " + arguments.get(2));
+            } else if (arguments.size() == 1 && arguments.get(0).equals("list")) {
+                outputStream.println("Worktrees:");
+                for (Path worktree : repositoryManager.getWorktrees()) {
+                    String name = worktree.equals(directory) ? "." : directory.relativize(worktree).toString();
+                    outputStream.println(name + " [" + repositoryManager.getWorktreeBranch(worktree) + "]");
+                }
+            } else {
+                throw new GitException("Usage: worktree add <path> <branch> | worktree list");
+            }
+        } catch (IOException | GitException | ClassNotFoundException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * sparse-checkout set <directory>...
+     * sparse-checkout list
+     * sparse-checkout disable
+     */
+    public static void commandSparseCheckout(@NotNull List<@NotNull String> arguments) {
+        try {
+            if (arguments.size() >= 2 && arguments.get(0).equals("set")) {
+                repositoryManager.setSparseCheckout(arguments.subList(1, arguments.size()));
+                outputStream.println("Sparse checkout updated");
+            } else if (arguments.size() == 1 && arguments.get(0).equals("list")) {
+                outputStream.println("Sparse checkout directories:");
+                repositoryManager.getSparseCheckoutDirectories().forEach(outputStream::println);
+            } else if (arguments.size() == 1 && arguments.get(0).equals("disable")) {
+                repositoryManager.setSparseCheckout(null);
+                outputStream.println("Sparse checkout disabled");
+            } else {
+                throw new GitException("Usage: sparse-checkout set <directory>... | list | disable");
+            }
+        } catch (IOException | GitException | ClassNotFoundException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // в тестовом режиме вместо хеша печатается сообщение коммита
+    public static void commandBlame(@NotNull List<@NotNull String> arguments) {
+        try {
+            if (arguments.isEmpty() || arguments.size() > 2) {
+                throw new GitException("Usage: blame <path> [revision]");
+            }
+            String revision = arguments.size() == 2 ? arguments.get(1) : null;
+            for (BlameLine line : repositoryManager.blame(getPath(arguments.get(0)), revision)) {
+                CommitInfo commit = line.getCommit();
+                outputStream.println((TEST_MODE ? "[" + commit.getMessage() + "]" : commit.getHash().substring(0, 8))
+                        + " (" + (TEST_MODE ? "Test user" : commit.getAuthor())
+                        + " " + (TEST_MODE ? "COMMIT_DATE" : commit.getDate()) + ") "
+                        + line.getLineNumber() + ": " + line.getContent());
+            }
+        } catch (IOException | GitException | ClassNotFoundException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public static void commandPackRefs() {
+        try {
+            repositoryManager.packRefs();
+            outputStream.println("Refs packed");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public static void commandGc() {
+        try {
+            long removed = repositoryManager.gc();
+            outputStream.println("Removed " + removed + " unreachable objects");
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
     }
 
     public static void commandMerge(@NotNull List<@NotNull String> arguments) {
@@ -286,6 +534,58 @@ public class GitCliImpl implements GitCli {
         }
     }
 
+    public static void commandCherryPick(@NotNull List<@NotNull String> arguments) {
+        try {
+            if (arguments.size() != 1) {
+                throw new GitException("Usage: cherry-pick <revision>");
+            }
+            repositoryManager.cherryPick(arguments.get(0));
+            outputStream.println("Cherry-pick completed successful");
+        } catch (IOException | ClassNotFoundException | GitException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public static void commandRebase(@NotNull List<@NotNull String> arguments) {
+        try {
+            if (arguments.size() != 1) {
+                throw new GitException("Usage: rebase <upstream>");
+            }
+            int replayed = repositoryManager.rebase(arguments.get(0));
+            outputStream.println("Rebased " + replayed + " commits onto " + arguments.get(0));
+        } catch (IOException | ClassNotFoundException | GitException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * fsck [--unreachable]: ошибки, затем число объектов и недостижимых объектов;
+     * с --unreachable печатаются и хеши недостижимых объектов.
+     */
+    public static void commandFsck(@NotNull List<@NotNull String> arguments) {
+        try {
+            boolean showUnreachable = arguments.contains("--unreachable");
+            if (arguments.size() > (showUnreachable ? 1 : 0)) {
+                throw new GitException("Usage: fsck [--unreachable]");
+            }
+            Fsck fsck = repositoryManager.fsck();
+            fsck.getErrors().forEach(outputStream::println);
+            Set<ObjectId> dangling = new HashSet<>(fsck.getDangling());
+            if (showUnreachable) {
+                for (ObjectId hash : fsck.getUnreachable()) {
+                    outputStream.println((dangling.contains(hash) ? "dangling " : "unreachable ") + hash);
+                }
+            }
+            outputStream.println("Checked " + fsck.getObjectCount() + " objects: " + fsck.getErrors().size() + " errors, "
+                    + fsck.getUnreachable().size() + " unreachable, " + dangling.size() + " dangling");
+        } catch (IOException | GitException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     private static Path getPath(@NotNull String path) {
         return directory.resolve(path).toAbsolutePath().normalize();
     }
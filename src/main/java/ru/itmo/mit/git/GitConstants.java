@@ -20,14 +20,43 @@ public final class GitConstants {
     public static final @NotNull String BRANCH_REMOVE = "branch-remove";
     public static final @NotNull String SHOW_BRANCHES = "show-branches";
     public static final @NotNull String MERGE = "merge";
+    public static final @NotNull String PACK_REFS = "pack-refs";
+    public static final @NotNull String CLONE = "clone";
+    public static final @NotNull String WORKTREE = "worktree";
+    public static final @NotNull String SPARSE_CHECKOUT = "sparse-checkout";
+    public static final @NotNull String BLAME = "blame";
+    public static final @NotNull String MIGRATE = "migrate";
+    public static final @NotNull String GC = "gc";
+    public static final @NotNull String CHERRY_PICK = "cherry-pick";
+    public static final @NotNull String REBASE = "rebase";
+    public static final @NotNull String FSCK = "fsck";
+
+    public static final @NotNull String STATS = "--stats";
+    public static final @NotNull String OBJECT_FORMAT = "--object-format";
+    public static final @NotNull String DEPTH = "--depth";
+    public static final @NotNull String OBJECT_STORE = "--object-store";
 
     public static final @NotNull String MASTER = "master";
 
     public static final @NotNull Path myGitDirectory = Paths.get(".mygit");
     public static final @NotNull Path objectsDirectory = myGitDirectory.resolve("objects");
+    public static final @NotNull Path oldObjectsDirectory = myGitDirectory.resolve("objects-old");
+    public static final @NotNull Path objectList = myGitDirectory.resolve("object-list");
     public static final @NotNull Path branchesDirectory = myGitDirectory.resolve("branches");
     public static final @NotNull Path index = myGitDirectory.resolve("index");
     public static final @NotNull Path head = myGitDirectory.resolve("HEAD");
+    public static final @NotNull Path packedRefs = myGitDirectory.resolve("packed-refs");
+    public static final @NotNull Path shallow = myGitDirectory.resolve("shallow");
+    public static final @NotNull Path commonDir = myGitDirectory.resolve("commondir");
+    public static final @NotNull Path worktreesDirectory = myGitDirectory.resolve("worktrees");
+    public static final @NotNull Path sparseCheckout = myGitDirectory.resolve("sparse-checkout");
+    public static final @NotNull Path blameDirectory = myGitDirectory.resolve("blame");
+    public static final @NotNull Path bloomDirectory = myGitDirectory.resolve("bloom");
+    public static final @NotNull Path flatDirectory = myGitDirectory.resolve("flat");
+    public static final @NotNull Path segmentsDirectory = myGitDirectory.resolve("segments");
+    public static final @NotNull Path untrackedCache = myGitDirectory.resolve("untracked");
+    public static final @NotNull Path config = myGitDirectory.resolve("config");
+    public static final @NotNull Path ignoreFile = Paths.get(".mygitignore");
 
     public static final boolean TEST_MODE = true;
     public static final boolean DEBUG_MODE = false;
@@ -5,6 +5,8 @@ import org.jetbrains.annotations.NotNull;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 
 import static ru.itmo.mit.git.GitConstants.*;
 
@@ -12,39 +14,66 @@ public interface GitObject extends Serializable {
     enum Type {
         BLOB,
         TREE,
-        COMMIT,
-        BRANCH
+        COMMIT
     }
 
     Type getType();
 
-    String getHash();
+    ObjectId getHash();
+
+    // хеш по содержимому объекта; у неповрежденного объекта совпадает с getHash
+    @NotNull ObjectId computeHash(@NotNull HashAlgorithm hashAlgorithm);
+
+    /*
+     * Хранилище не сериализуется: объект может лежать в нескольких хранилищах
+     * (например, после clone через жесткие ссылки), поэтому при чтении
+     * он привязывается к тому хранилищу, из которого прочитан.
+     */
+    default void bind(@NotNull ObjectDatabase database) {}
 
     static void write(@NotNull GitObject gitObject, @NotNull Path path) throws IOException {
+        // объекты неизменяемы: файл с таким хешем уже содержит те же байты
+        if (Files.exists(path.resolve(objectsDirectory).resolve(gitObject.getHash().toString()))) {
+            return;
+        }
+        ObjectList.append(path, Collections.singletonList(gitObject.getHash()));
+        writeFile(gitObject, path);
+    }
+
+    // файл пишется без проверки; хеш объекта уже должен быть в списке объектов (ObjectList)
+    static void writeFile(@NotNull GitObject gitObject, @NotNull Path path) throws IOException {
         try {
-            OutputStream fileOutputStream;
-            if (gitObject.getType().equals(Type.BRANCH)) {
-                fileOutputStream = Files.newOutputStream(path.resolve(branchesDirectory).resolve(((Branch) gitObject).getName()));
-            } else {
-                fileOutputStream = Files.newOutputStream(path.resolve(objectsDirectory).resolve(gitObject.getHash()));
-            }
+            Path file = path.resolve(objectsDirectory).resolve(gitObject.getHash().toString());
             if (GitConstants.DEBUG_MODE) debugOutput(gitObject, path);
-            ObjectOutputStream outputStream = new ObjectOutputStream(fileOutputStream);
-            outputStream.writeObject(gitObject);
-            outputStream.close();
-            fileOutputStream.close();
+            byte[] data = serialize(gitObject);
+            // объект появляется под своим именем целиком: другие процессы не прочитают его недописанным,
+            // а одновременная запись одного объекта дает одинаковые байты
+            Path temporary = Files.createTempFile(file.getParent(), gitObject.getHash().toString(), ".tmp");
+            try {
+                Files.write(temporary, data);
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            Statistics.increment(Statistics.Counter.OBJECTS_WRITTEN);
+            Statistics.add(Statistics.Counter.BYTES_WRITTEN, data.length);
         } catch (IOException e) {
             throw new IOException("IOException occurred while writing the object" + path);
         }
     }
 
     static @NotNull GitObject read(@NotNull Path path) throws IOException, ClassNotFoundException {
+        // объект только что создан и еще не дописан ObjectInserter
+        GitObject pending = ObjectInserter.getPending(path);
+        if (pending != null) {
+            return pending;
+        }
         try {
-            InputStream fileInputStream = Files.newInputStream(path);
-            ObjectInputStream inputStream = new ObjectInputStream(fileInputStream);
-            GitObject object = (GitObject) inputStream.readObject();
-            inputStream.close();
-            fileInputStream.close();
+            byte[] data = Files.readAllBytes(path);
+            Statistics.increment(Statistics.Counter.OBJECTS_READ);
+            Statistics.add(Statistics.Counter.BYTES_READ, data.length);
+            GitObject object = deserialize(data);
+            object.bind(new FileObjectDatabase(path.getParent().getParent().getParent()));
             return object;
         } catch (IOException e) {
             throw new IOException("IOException occurred while reading the object: " + path);
@@ -53,16 +82,28 @@ public interface GitObject extends Serializable {
         }
     }
 
+    // одинаковые объекты дают одинаковые байты в любом хранилище
+    static @NotNull byte[] serialize(@NotNull GitObject gitObject) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(byteStream)) {
+            outputStream.writeObject(gitObject);
+        }
+        return byteStream.toByteArray();
+    }
+
+    static @NotNull GitObject deserialize(@NotNull byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (GitObject) inputStream.readObject();
+        }
+    }
+
     static void debugOutput(GitObject gitObject, Path path) {
         switch (gitObject.getType()) {
-            case BRANCH:
-                System.out.println("WRITE:" + path + " HASH: " + gitObject.getHash() + " BRANCH: " + ((Branch) gitObject).getName() + " COMMIT HASH: " + ((Branch) gitObject).getCommitHash());
-                break;
             case TREE:
                 System.out.println("WRITE:" + path + " HASH: " + gitObject.getHash() + " TREE: " + ((Tree) gitObject).getDirectoryName());
                 break;
             case BLOB:
-                System.out.println("WRITE:" + path + " HASH: " + gitObject.getHash() + " BLOB: " + ((Blob) gitObject).getFileName());
+                System.out.println("WRITE:" + path + " HASH: " + gitObject.getHash() + " BLOB: " + ((Blob) gitObject).getContent().length + " bytes");
                 break;
             case COMMIT:
                 System.out.println("WRITE:" + path + " HASH: " + gitObject.getHash() + " COMMIT: " + ((Commit) gitObject).getMessage() + " TREE: " + ((Commit) gitObject).getTree().getHash());
@@ -0,0 +1,108 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * Хеш-функция объектов репозитория, выбирается при init и хранится в .mygit/config.
+ * MessageDigest создается один раз на поток и переиспользуется.
+ */
+public enum HashAlgorithm {
+    SHA1("sha1", "SHA-1"),
+    SHA256("sha256", "SHA-256");
+
+    public static final @NotNull HashAlgorithm DEFAULT = SHA1;
+
+    private final String name;
+    private final ThreadLocal<MessageDigest> digests;
+
+    HashAlgorithm(String name, String digestName) {
+        this.name = name;
+        digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(digestName);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(digestName + " is not supported by this JVM", e);
+            }
+        });
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+
+    public int getLength() {
+        return digests.get().getDigestLength();
+    }
+
+    public boolean isValid(@NotNull String hex) {
+        return hex.length() == 2 * getLength() && ObjectId.isValid(hex);
+    }
+
+    public static @NotNull HashAlgorithm fromName(@NotNull String name) throws GitException {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+        throw new GitException("Unknown object format '" + name + "'");
+    }
+
+    public static @NotNull HashAlgorithm forRepository(@NotNull Path root) throws IOException {
+        String name = RepositoryConfig.forRepository(root).get(RepositoryConfig.OBJECT_FORMAT, DEFAULT.name);
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+        throw new IOException("Unknown object format '" + name + "' in the config of " + root);
+    }
+
+    public @NotNull ObjectId hash(@NotNull byte[] data) {
+        return newHasher().update(data).digest();
+    }
+
+    /*
+     * Хешер использует общий для потока MessageDigest, поэтому на одном потоке
+     * нельзя вести два хешера одновременно.
+     */
+    public @NotNull Hasher newHasher() {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        return new Hasher(digest);
+    }
+
+    public static final class Hasher {
+        private final MessageDigest digest;
+
+        private Hasher(@NotNull MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        public @NotNull Hasher update(@NotNull byte[] data) {
+            digest.update(data);
+            Statistics.add(Statistics.Counter.BYTES_HASHED, data.length);
+            return this;
+        }
+
+        public @NotNull Hasher update(@NotNull String string) {
+            return update(string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public @NotNull Hasher update(@NotNull ObjectId id) {
+            byte[] bytes = id.rawBytes();
+            digest.update(bytes);
+            Statistics.add(Statistics.Counter.BYTES_HASHED, bytes.length);
+            return this;
+        }
+
+        public @NotNull ObjectId digest() {
+            return ObjectId.fromRaw(digest.digest());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import static ru.itmo.mit.git.GitConstants.ignoreFile;
+
+/*
+ * Правила из файлов .mygitignore, как в .gitignore: glob-шаблоны (*, ?, [...], **),
+ * отрицание через '!', '/' в конце -- только папки, '/' в начале или середине
+ * привязывает шаблон к папке файла. Шаблоны компилируются один раз при чтении файла.
+ *
+ * Правила собираются по мере спуска по папкам: enter(dir) добавляет правила
+ * из dir/.mygitignore к правилам родителя. Правила более глубокого файла
+ * и более поздние строки имеют приоритет. В игнорируемую папку спускаться
+ * не нужно, поэтому файлы внутри нее нельзя вернуть отрицанием.
+ */
+public final class IgnoreRules {
+    private final @Nullable IgnoreRules parent;
+    private final Path directory;
+    private final List<Rule> rules;
+    // хеш строк всех файлов .mygitignore в цепочке
+    private final int hash;
+
+    private IgnoreRules(@Nullable IgnoreRules parent, @NotNull Path directory, @NotNull List<String> lines,
+                        @NotNull List<Rule> rules) {
+        this.parent = parent;
+        this.directory = directory;
+        this.rules = rules;
+        this.hash = Objects.hash(parent == null ? 0 : parent.hash, directory.toString(), lines);
+    }
+
+    public static @NotNull IgnoreRules load(@NotNull Path root) throws IOException {
+        List<String> lines = readLines(root);
+        return new IgnoreRules(null, root, lines, compile(lines));
+    }
+
+    public @NotNull IgnoreRules enter(@NotNull Path directory) throws IOException {
+        List<String> lines = readLines(directory);
+        List<Rule> directoryRules = compile(lines);
+        if (directoryRules.isEmpty()) {
+            return this;
+        }
+        return new IgnoreRules(this, directory, lines, directoryRules);
+    }
+
+    // меняется, если изменился любой .mygitignore, правила из которого действуют здесь
+    int getRulesHash() {
+        return hash;
+    }
+
+    public boolean isIgnored(@NotNull Path path, boolean isDirectory) {
+        for (IgnoreRules current = this; current != null; current = current.parent) {
+            if (!path.startsWith(current.directory)) {
+                continue;
+            }
+            String relative = current.directory.relativize(path).toString().replace('\\', '/');
+            String name = path.getFileName().toString();
+            for (int i = current.rules.size() - 1; i >= 0; i--) {
+                Rule rule = current.rules.get(i);
+                if (rule.matches(relative, name, isDirectory)) {
+                    return !rule.negated;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static @NotNull List<String> readLines(@NotNull Path directory) throws IOException {
+        Path file = directory.resolve(ignoreFile);
+        if (!Files.isRegularFile(file)) {
+            return Collections.emptyList();
+        }
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading " + file);
+        }
+    }
+
+    private static @NotNull List<Rule> compile(@NotNull List<String> lines) {
+        List<Rule> result = new ArrayList<>();
+        for (String line : lines) {
+            Rule rule = Rule.compile(line);
+            if (rule != null) {
+                result.add(rule);
+            }
+        }
+        return result;
+    }
+
+    private static final class Rule {
+        private final boolean negated;
+        private final boolean directoryOnly;
+        // без '/' шаблон сравнивается только с именем файла на любой глубине
+        private final boolean anchored;
+        // шаблон без спецсимволов сравнивается как строка
+        private final @Nullable String literal;
+        private final @Nullable Pattern pattern;
+
+        private Rule(boolean negated, boolean directoryOnly, boolean anchored, @NotNull String glob) {
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+            if (isLiteral(glob)) {
+                literal = glob.replace("\\", "");
+                pattern = null;
+            } else {
+                literal = null;
+                pattern = Pattern.compile(toRegex(glob));
+            }
+        }
+
+        static @Nullable Rule compile(@NotNull String line) {
+            String glob = stripTrailingSpaces(line);
+            if (glob.isEmpty() || glob.startsWith("#")) {
+                return null;
+            }
+            boolean negated = glob.startsWith("!");
+            if (negated) {
+                glob = glob.substring(1);
+            } else if (glob.startsWith("\\#") || glob.startsWith("\\!")) {
+                glob = glob.substring(1);
+            }
+            boolean directoryOnly = glob.endsWith("/");
+            while (glob.endsWith("/")) {
+                glob = glob.substring(0, glob.length() - 1);
+            }
+            boolean anchored = glob.contains("/");
+            while (glob.startsWith("/")) {
+                glob = glob.substring(1);
+            }
+            if (glob.isEmpty()) {
+                return null;
+            }
+            return new Rule(negated, directoryOnly, anchored, glob);
+        }
+
+        boolean matches(@NotNull String relative, @NotNull String name, boolean isDirectory) {
+            if (directoryOnly && !isDirectory) {
+                return false;
+            }
+            String subject = anchored ? relative : name;
+            return literal != null ? literal.equals(subject) : pattern.matcher(subject).matches();
+        }
+
+        private static boolean isLiteral(@NotNull String glob) {
+            return glob.chars().noneMatch(c -> c == '*' || c == '?' || c == '[');
+        }
+
+        private static @NotNull String stripTrailingSpaces(@NotNull String line) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+                end--;
+            }
+            return line.substring(0, end);
+        }
+
+        private static @NotNull String toRegex(@NotNull String glob) {
+            StringBuilder regex = new StringBuilder();
+            int i = 0;
+            while (i < glob.length()) {
+                char c = glob.charAt(i);
+                if (glob.startsWith("**/", i) && (i == 0 || glob.charAt(i - 1) == '/')) {
+                    regex.append("(?:.*/)?");
+                    i += 3;
+                } else if (glob.startsWith("**", i) && i + 2 == glob.length() && (i == 0 || glob.charAt(i - 1) == '/')) {
+                    regex.append(".*");
+                    i += 2;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                    i++;
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                    i++;
+                } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                    int end = glob.indexOf(']', i + 2);
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end + 1;
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                    i += 2;
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    i++;
+                }
+            }
+            return regex.toString();
+        }
+    }
+}
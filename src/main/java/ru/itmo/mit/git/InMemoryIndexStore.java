@@ -0,0 +1,61 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// индекс в памяти; блокировка, как и index.lock, не привязана к потоку
+final class InMemoryIndexStore implements IndexStore {
+    private final Semaphore lock = new Semaphore(1);
+    private volatile List<Pair> entries = Collections.emptyList();
+
+    @Override
+    public @NotNull List<Pair> read() {
+        Statistics.increment(Statistics.Counter.INDEX_READS);
+        return new ArrayList<>(entries);
+    }
+
+    @Override
+    public void write(@NotNull List<Pair> entries) throws IOException {
+        try (Lock held = lock()) {
+            held.write(entries);
+        }
+    }
+
+    @Override
+    public @NotNull Lock lock() throws IOException {
+        try {
+            if (!lock.tryAcquire(LockFile.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Unable to lock the index: it is locked by another writer");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the index lock");
+        }
+        return new Lock() {
+            private boolean held = true;
+
+            @Override
+            public void write(@NotNull List<Pair> newEntries) {
+                if (!held) {
+                    throw new IllegalStateException("Index lock is already released");
+                }
+                entries = Collections.unmodifiableList(new ArrayList<>(newEntries));
+                close();
+            }
+
+            @Override
+            public void close() {
+                if (held) {
+                    held = false;
+                    lock.release();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Объекты в куче: хранятся сами объекты, без сериализации. Объекты неизменяемы,
+ * поэтому читатели получают тот же экземпляр, что был вставлен.
+ */
+final class InMemoryObjectDatabase implements ObjectDatabase {
+    private final HashAlgorithm hashAlgorithm;
+    private final ConcurrentMap<ObjectId, GitObject> objects = new ConcurrentHashMap<>();
+
+    InMemoryObjectDatabase(@NotNull HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    @Override
+    public @NotNull HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    @Override
+    public boolean contains(@NotNull ObjectId hash) {
+        return objects.containsKey(hash);
+    }
+
+    @Override
+    public @NotNull GitObject read(@NotNull ObjectId hash) throws IOException {
+        GitObject gitObject = objects.get(hash);
+        if (gitObject == null) {
+            throw new IOException("Object " + hash + " doesn't exist");
+        }
+        Statistics.increment(Statistics.Counter.OBJECTS_READ);
+        return gitObject;
+    }
+
+    @Override
+    public @NotNull List<ObjectId> list() {
+        return new ArrayList<>(objects.keySet());
+    }
+
+    @Override
+    public void insert(@NotNull GitObject gitObject) {
+        if (objects.putIfAbsent(gitObject.getHash(), gitObject) == null) {
+            Statistics.increment(Statistics.Counter.OBJECTS_WRITTEN);
+        }
+    }
+
+    @Override
+    public void flush() {}
+}
@@ -0,0 +1,59 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// ветки и HEAD в памяти; все методы под одной блокировкой объекта
+final class InMemoryRefDatabase implements RefDatabase {
+    private final SortedMap<String, ObjectId> branches = new TreeMap<>();
+    private Branch head;
+
+    InMemoryRefDatabase(@NotNull Branch head) {
+        this.head = head;
+    }
+
+    @Override
+    public synchronized @Nullable Branch get(@NotNull String name) {
+        ObjectId commit = branches.get(name);
+        return commit == null ? null : new Branch(name, commit);
+    }
+
+    @Override
+    public synchronized void update(@NotNull Branch branch, @Nullable ObjectId expected) throws IOException {
+        if (expected != null && !expected.equals(branches.get(branch.getName()))) {
+            throw new IOException("Branch " + branch.getName() + " was updated by another process");
+        }
+        branches.put(branch.getName(), branch.getCommitHash());
+    }
+
+    @Override
+    public synchronized void remove(@NotNull String name) {
+        branches.remove(name);
+    }
+
+    @Override
+    public synchronized @NotNull List<String> getNames() {
+        return new ArrayList<>(branches.keySet());
+    }
+
+    @Override
+    public synchronized @NotNull SortedMap<String, ObjectId> getAll() {
+        return new TreeMap<>(branches);
+    }
+
+    @Override
+    public synchronized @NotNull Branch getHead() {
+        return head;
+    }
+
+    @Override
+    public synchronized void setHead(@NotNull Branch branch) {
+        head = branch;
+    }
+}
@@ -0,0 +1,29 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Индекс: добавленные файлы (путь в рабочей копии, хеш блоба). Читается и заменяется целиком.
+ *
+ * Реализации: FileIndexStore (.mygit/index) и InMemoryIndexStore.
+ */
+public interface IndexStore {
+    @NotNull List<Pair> read() throws IOException;
+
+    void write(@NotNull List<Pair> entries) throws IOException;
+
+    /*
+     * Не дает другим писателям менять индекс, пока блокировка не закрыта.
+     * Под блокировкой индекс заменяется через Lock.write, а не через write.
+     */
+    @NotNull Lock lock() throws IOException;
+
+    interface Lock extends Closeable {
+        // заменяет индекс и снимает блокировку; close без write оставляет индекс прежним
+        void write(@NotNull List<Pair> entries) throws IOException;
+    }
+}
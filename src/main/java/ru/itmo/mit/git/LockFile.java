@@ -0,0 +1,134 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Блокировка файла для записи, как в git: рядом создается <file>.lock (создание файла
+ * атомарно, поэтому его может создать только один процесс), новое содержимое пишется
+ * в него и атомарно переименовывается в file. Читатели не берут блокировку: они видят
+ * либо старый, либо новый файл целиком.
+ *
+ * try (LockFile lock = LockFile.acquire(file)) { ... lock.write(data); lock.commit(); }
+ * Если commit не вызван, close удаляет .lock и file остается прежним.
+ */
+final class LockFile implements AutoCloseable {
+    // занятую блокировку ждут, а не сразу завершаются с ошибкой: другой процесс держит ее недолго
+    static final long TIMEOUT_MILLIS = 10_000;
+    private static final long MAX_SLEEP_MILLIS = 50;
+
+    private final Path file;
+    private final Path lock;
+    private byte[] content;
+    private boolean held = true;
+
+    private LockFile(@NotNull Path file, @NotNull Path lock) {
+        this.file = file;
+        this.lock = lock;
+    }
+
+    static @NotNull LockFile acquire(@NotNull Path file) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        long sleep = 1;
+        while (true) {
+            LockFile lockFile = tryAcquire(file);
+            if (lockFile != null) {
+                return lockFile;
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IOException("Unable to lock " + file + ": " + getLockPath(file)
+                        + " exists. If no other mygit process is running, remove it manually");
+            }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the lock on " + file);
+            }
+            sleep = Math.min(sleep * 2, MAX_SLEEP_MILLIS);
+        }
+    }
+
+    // null, если блокировку держит кто-то другой
+    static @Nullable LockFile tryAcquire(@NotNull Path file) throws IOException {
+        Path lock = getLockPath(file);
+        try {
+            Files.createFile(lock);
+        } catch (FileAlreadyExistsException e) {
+            return null;
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while creating the lock file " + lock);
+        }
+        return new LockFile(file, lock);
+    }
+
+    // заменяет содержимое file целиком под блокировкой
+    static void write(@NotNull Path file, @NotNull byte[] data) throws IOException {
+        try (LockFile lock = acquire(file)) {
+            lock.write(data);
+            lock.commit();
+        }
+    }
+
+    static @NotNull Path getLockPath(@NotNull Path file) {
+        return file.resolveSibling(file.getFileName() + ".lock");
+    }
+
+    // можно вызывать несколько раз, в file попадет последнее содержимое
+    void write(@NotNull byte[] data) throws IOException {
+        checkHeld();
+        try {
+            Files.write(lock, data);
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing the lock file " + lock);
+        }
+        Statistics.add(Statistics.Counter.BYTES_WRITTEN, data.length);
+        content = data;
+    }
+
+    // записанное, но еще не перенесенное в file содержимое
+    @Nullable byte[] getContent() {
+        return held ? content : null;
+    }
+
+    boolean isHeld() {
+        return held;
+    }
+
+    // переносит записанное содержимое в file и снимает блокировку
+    void commit() throws IOException {
+        checkHeld();
+        held = false;
+        try {
+            if (content == null) {
+                Files.deleteIfExists(lock);
+            } else {
+                Files.move(lock, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(lock);
+            throw new IOException("IOException occurred while replacing " + file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (held) {
+            held = false;
+            Files.deleteIfExists(lock);
+        }
+    }
+
+    private void checkHeld() {
+        if (!held) {
+            throw new IllegalStateException("Lock on " + file + " is already released");
+        }
+    }
+}
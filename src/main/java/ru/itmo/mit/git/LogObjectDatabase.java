@@ -0,0 +1,520 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import static ru.itmo.mit.git.GitConstants.segmentsDirectory;
+
+/*
+ * Объекты в сегментах .mygit/segments/<номер>.seg. Объект дописывается в конец последнего
+ * сегмента, поэтому запись и чтение объекта -- одна операция с уже открытым файлом, без
+ * создания файла на каждый объект. Запись в сегменте: длина, хеш, сериализованный объект
+ * (те же байты, что в файле .mygit/objects) и CRC32. Запись с неверной суммой, например
+ * недописанная при падении процесса, считается концом сегмента.
+ *
+ * Где лежит каждый объект, хранит ObjectIndex в памяти. Заполненный сегмент закрывается
+ * и получает файл подсказок <номер>.hint со смещениями всех своих записей, поэтому при
+ * открытии индекс строится из подсказок, а читается только последний сегмент.
+ *
+ * Несколько процессов дописывают в последний сегмент по очереди под FileLock. Объект,
+ * которого нет в индексе, ищется еще и в записях, дописанных с прошлого чтения.
+ * Недостижимые объекты удаляет compact (команда gc).
+ */
+final class LogObjectDatabase implements ObjectDatabase {
+    private static final long SEGMENT_SIZE = 64L << 20;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String HINT_SUFFIX = ".hint";
+    // длина и контрольная сумма записи
+    private static final int RECORD_OVERHEAD = 8;
+
+    // FileLock нельзя взять дважды из одной JVM, поэтому внутри процесса блокировки сегментов папки берутся под общим монитором
+    private static final Map<Path, Object> appendLocks = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final Path directory;
+    private final Object appendLock;
+    private final long segmentSize;
+    private final ObjectIndex index = new ObjectIndex();
+    private final Map<Integer, FileChannel> channels = new ConcurrentHashMap<>();
+    // под this: последний сегмент и конец его прочитанной части
+    private int lastSegment;
+    private long lastSegmentEnd;
+
+    private LogObjectDatabase(@NotNull Path root, long segmentSize) {
+        this.root = root;
+        this.segmentSize = segmentSize;
+        this.directory = root.resolve(segmentsDirectory).toAbsolutePath().normalize();
+        this.appendLock = appendLocks.computeIfAbsent(directory, key -> new Object());
+    }
+
+    static @NotNull LogObjectDatabase open(@NotNull Path root) throws IOException {
+        return open(root, SEGMENT_SIZE);
+    }
+
+    static @NotNull LogObjectDatabase open(@NotNull Path root, long segmentSize) throws IOException {
+        LogObjectDatabase database = new LogObjectDatabase(root, segmentSize);
+        database.load();
+        return database;
+    }
+
+    @Override
+    public @NotNull HashAlgorithm getHashAlgorithm() throws IOException {
+        return HashAlgorithm.forRepository(root);
+    }
+
+    @Override
+    public boolean contains(@NotNull ObjectId hash) throws IOException {
+        if (index.contains(hash)) {
+            return true;
+        }
+        refreshIfChanged();
+        return index.contains(hash);
+    }
+
+    @Override
+    public @NotNull GitObject read(@NotNull ObjectId hash) throws IOException, ClassNotFoundException {
+        ObjectIndex.Location location = index.get(hash);
+        if (location == null) {
+            refreshIfChanged();
+            location = index.get(hash);
+        }
+        if (location == null) {
+            throw new IOException("Object " + hash + " doesn't exist");
+        }
+        byte[] data;
+        try {
+            data = readRecord(location);
+        } catch (NoSuchFileException e) {
+            // сегмент удалил compact другого процесса, объект переписан в новый
+            synchronized (this) {
+                reload();
+            }
+            location = index.get(hash);
+            if (location == null) {
+                throw new IOException("Object " + hash + " doesn't exist");
+            }
+            data = readRecord(location);
+        }
+        Statistics.increment(Statistics.Counter.OBJECTS_READ);
+        Statistics.add(Statistics.Counter.BYTES_READ, data.length);
+        GitObject gitObject = GitObject.deserialize(getObjectData(data));
+        gitObject.bind(this);
+        return gitObject;
+    }
+
+    @Override
+    public @NotNull List<ObjectId> list() throws IOException {
+        refreshIfChanged();
+        List<ObjectId> hashes = new ArrayList<>();
+        index.forEach((hash, location) -> hashes.add(hash));
+        return hashes;
+    }
+
+    // запись видна другим процессам сразу
+    @Override
+    public synchronized void insert(@NotNull GitObject gitObject) throws IOException {
+        ObjectId hash = gitObject.getHash();
+        if (index.contains(hash)) {
+            return;
+        }
+        byte[] record = createRecord(hash, GitObject.serialize(gitObject));
+        while (true) {
+            FileChannel channel = getChannel(lastSegment);
+            synchronized (appendLock) {
+                try (FileLock ignored = channel.lock()) {
+                    if (!isSealed(lastSegment)) {
+                        catchUp(channel);
+                        if (!index.contains(hash)) {
+                            append(channel, hash, record);
+                            Statistics.increment(Statistics.Counter.OBJECTS_WRITTEN);
+                        }
+                        return;
+                    }
+                }
+            }
+            refresh();
+        }
+    }
+
+    @Override
+    public void flush() {}
+
+    /*
+     * Переписывает объекты из live в новые сегменты и удаляет старые, когда новые записаны
+     * целиком. Вызывающий (RepositoryManager.gc) держит индексы всех рабочих копий, поэтому
+     * команд, которые записали объекты, но еще не сослались на них, в это время нет.
+     */
+    @Override
+    public synchronized long compact(@NotNull Set<ObjectId> live) throws IOException {
+        while (true) {
+            int oldLastSegment = lastSegment;
+            FileChannel channel = getChannel(oldLastSegment);
+            long removed = -1;
+            synchronized (appendLock) {
+                try (FileLock ignored = channel.lock()) {
+                    if (!isSealed(oldLastSegment)) {
+                        catchUp(channel);
+                        removed = compactLocked(live, oldLastSegment);
+                    }
+                }
+            }
+            if (removed >= 0) {
+                reload();
+                return removed;
+            }
+            refresh();
+        }
+    }
+
+    private long compactLocked(@NotNull Set<ObjectId> live, int oldLastSegment) throws IOException {
+        List<ObjectId> kept = new ArrayList<>();
+        List<ObjectIndex.Location> locations = new ArrayList<>();
+        index.forEach((hash, location) -> {
+            if (live.contains(hash)) {
+                kept.add(hash);
+                locations.add(location);
+            }
+        });
+        long removed = index.size() - kept.size();
+        List<Integer> oldSegments = listSegments();
+
+        // пока пишется новый сегмент, его держит FileLock: другие процессы дописывают после
+        ObjectIndex compacted = new ObjectIndex();
+        int segment = oldLastSegment + 1;
+        FileChannel target = createSegment(segment);
+        FileLock targetLock = target.lock();
+        try {
+            long end = 0;
+            for (int i = 0; i < kept.size(); i++) {
+                if (end >= segmentSize) {
+                    writeHint(compacted, segment);
+                    FileChannel next = createSegment(segment + 1);
+                    FileLock nextLock = next.lock();
+                    targetLock.release();
+                    segment++;
+                    target = next;
+                    targetLock = nextLock;
+                    end = 0;
+                }
+                byte[] record = readRecord(locations.get(i));
+                writeFully(target, record, end);
+                compacted.put(kept.get(i), segment, end, record.length);
+                end += record.length;
+            }
+        } finally {
+            targetLock.release();
+        }
+        // каналы старых сегментов закрывает reload после снятия блокировки
+        for (int oldSegment : oldSegments) {
+            Files.deleteIfExists(getHintFile(oldSegment));
+            Files.deleteIfExists(getSegmentFile(oldSegment));
+        }
+        return removed;
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+        List<Integer> segments = listSegments();
+        if (segments.isEmpty()) {
+            createSegment(1);
+            segments = listSegments();
+        }
+        lastSegment = segments.get(segments.size() - 1);
+        lastSegmentEnd = 0;
+        for (int segment : segments) {
+            if (segment != lastSegment) {
+                loadSealed(segment);
+            }
+        }
+        lastSegmentEnd = scan(lastSegment, 0);
+    }
+
+    private void reload() throws IOException {
+        index.clear();
+        for (FileChannel channel : channels.values()) {
+            channel.close();
+        }
+        channels.clear();
+        load();
+    }
+
+    private synchronized void refreshIfChanged() throws IOException {
+        if (isSealed(lastSegment) || Files.size(getSegmentFile(lastSegment)) != lastSegmentEnd) {
+            refresh();
+        }
+    }
+
+    // дочитывает записи других процессов: конец последнего сегмента и новые сегменты
+    @Override
+    public synchronized void refresh() throws IOException {
+        List<Integer> segments = listSegments();
+        if (!segments.contains(lastSegment)) {
+            reload();
+            return;
+        }
+        lastSegmentEnd = scan(lastSegment, lastSegmentEnd);
+        for (int segment : segments) {
+            if (segment <= lastSegment) {
+                continue;
+            }
+            if (segment == segments.get(segments.size() - 1)) {
+                lastSegment = segment;
+                lastSegmentEnd = scan(segment, 0);
+            } else {
+                loadSealed(segment);
+            }
+        }
+    }
+
+    // под FileLock последнего сегмента: после недописанной записи другого процесса сегмент обрезается
+    private void catchUp(@NotNull FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size != lastSegmentEnd) {
+            lastSegmentEnd = scan(lastSegment, lastSegmentEnd);
+            if (size > lastSegmentEnd) {
+                channel.truncate(lastSegmentEnd);
+            }
+        }
+    }
+
+    private void append(@NotNull FileChannel channel, @NotNull ObjectId hash, @NotNull byte[] record) throws IOException {
+        writeFully(channel, record, lastSegmentEnd);
+        index.put(hash, lastSegment, lastSegmentEnd, record.length);
+        lastSegmentEnd += record.length;
+        Statistics.add(Statistics.Counter.BYTES_WRITTEN, record.length);
+        if (lastSegmentEnd >= segmentSize) {
+            writeHint(index, lastSegment);
+            createSegment(lastSegment + 1);
+            lastSegment++;
+            lastSegmentEnd = 0;
+        }
+    }
+
+    private boolean isSealed(int segment) {
+        return Files.exists(getSegmentFile(segment + 1));
+    }
+
+    private void loadSealed(int segment) throws IOException {
+        if (!loadHint(segment)) {
+            scan(segment, 0);
+        }
+    }
+
+    // индексирует записи сегмента начиная со смещения from и возвращает конец последней целой записи
+    private long scan(int segment, long from) throws IOException {
+        long offset = from;
+        try (InputStream file = Files.newInputStream(getSegmentFile(segment))) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+            if (input.skip(from) != from) {
+                return from;
+            }
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    return offset;
+                }
+                if (length <= 1) {
+                    return offset;
+                }
+                byte[] payload = new byte[length];
+                int checksum;
+                try {
+                    input.readFully(payload);
+                    checksum = input.readInt();
+                } catch (EOFException e) {
+                    return offset;
+                }
+                if (checksum != checksum(payload) || (payload[0] & 0xff) + 1 > length) {
+                    return offset;
+                }
+                byte[] hash = new byte[payload[0] & 0xff];
+                System.arraycopy(payload, 1, hash, 0, hash.length);
+                index.put(ObjectId.fromRaw(hash), segment, offset, length + RECORD_OVERHEAD);
+                offset += length + RECORD_OVERHEAD;
+            }
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading the segment " + getSegmentFile(segment));
+        }
+    }
+
+    // подсказка: записи (длина хеша, хеш, смещение, длина записи) и CRC32 всего файла в конце
+    private void writeHint(@NotNull ObjectIndex source, int segment) throws IOException {
+        List<ObjectId> hashes = new ArrayList<>();
+        List<ObjectIndex.Location> locations = new ArrayList<>();
+        source.forEach((hash, location) -> {
+            if (location.getSegment() == segment) {
+                hashes.add(hash);
+                locations.add(location);
+            }
+        });
+        int size = 4;
+        for (ObjectId hash : hashes) {
+            size += 1 + hash.length() + 12;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < hashes.size(); i++) {
+            buffer.put((byte) hashes.get(i).length()).put(hashes.get(i).rawBytes());
+            buffer.putLong(locations.get(i).getOffset()).putInt(locations.get(i).getLength());
+        }
+        buffer.putInt(checksum(buffer.array(), size - 4));
+        Path file = getHintFile(segment);
+        try (LockFile lock = LockFile.tryAcquire(file)) {
+            if (lock != null) {
+                lock.write(buffer.array());
+                lock.commit();
+            }
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing the hint file " + file);
+        }
+    }
+
+    // false, если подсказки нет или она повреждена
+    private boolean loadHint(int segment) throws IOException {
+        Path file = getHintFile(segment);
+        if (Files.notExists(file)) {
+            return false;
+        }
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading the hint file " + file);
+        }
+        Statistics.add(Statistics.Counter.BYTES_READ, data.length);
+        if (data.length < 4 || ByteBuffer.wrap(data, data.length - 4, 4).getInt() != checksum(data, data.length - 4)) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, data.length - 4);
+        while (buffer.hasRemaining()) {
+            byte[] hash = new byte[buffer.get() & 0xff];
+            buffer.get(hash);
+            index.put(ObjectId.fromRaw(hash), segment, buffer.getLong(), buffer.getInt());
+        }
+        return true;
+    }
+
+    private @NotNull byte[] readRecord(@NotNull ObjectIndex.Location location) throws IOException {
+        FileChannel channel = getChannel(location.getSegment());
+        ByteBuffer buffer = ByteBuffer.allocate(location.getLength());
+        long position = location.getOffset();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        byte[] record = buffer.array();
+        int length = location.getLength() - RECORD_OVERHEAD;
+        if (buffer.hasRemaining() || ByteBuffer.wrap(record).getInt() != length
+                || ByteBuffer.wrap(record, 4 + length, 4).getInt() != checksum(record, 4, length)) {
+            throw new IOException("Object record is corrupted in " + getSegmentFile(location.getSegment())
+                    + " at " + location.getOffset());
+        }
+        return record;
+    }
+
+    private static @NotNull byte[] getObjectData(@NotNull byte[] record) {
+        int hashLength = record[4] & 0xff;
+        int start = 4 + 1 + hashLength;
+        byte[] data = new byte[record.length - RECORD_OVERHEAD - 1 - hashLength];
+        System.arraycopy(record, start, data, 0, data.length);
+        return data;
+    }
+
+    private static @NotNull byte[] createRecord(@NotNull ObjectId hash, @NotNull byte[] data) {
+        int length = 1 + hash.length() + data.length;
+        ByteBuffer buffer = ByteBuffer.allocate(length + RECORD_OVERHEAD);
+        buffer.putInt(length).put((byte) hash.length()).put(hash.rawBytes()).put(data);
+        buffer.putInt(checksum(buffer.array(), 4, length));
+        return buffer.array();
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull byte[] data, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static int checksum(@NotNull byte[] data) {
+        return checksum(data, 0, data.length);
+    }
+
+    private static int checksum(@NotNull byte[] data, int length) {
+        return checksum(data, 0, length);
+    }
+
+    private static int checksum(@NotNull byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private @NotNull FileChannel createSegment(int segment) throws IOException {
+        try {
+            Files.createFile(getSegmentFile(segment));
+        } catch (FileAlreadyExistsException ignored) {
+            // сегмент уже начал другой процесс
+        }
+        return getChannel(segment);
+    }
+
+    private @NotNull FileChannel getChannel(int segment) throws IOException {
+        FileChannel channel = channels.get(segment);
+        if (channel == null) {
+            channel = FileChannel.open(getSegmentFile(segment), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel existing = channels.putIfAbsent(segment, channel);
+            if (existing != null) {
+                channel.close();
+                channel = existing;
+            }
+        }
+        return channel;
+    }
+
+    private @NotNull List<Integer> listSegments() throws IOException {
+        List<Integer> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected file in " + directory);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private @NotNull Path getSegmentFile(int segment) {
+        return directory.resolve(String.format("%08d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private @NotNull Path getHintFile(int segment) {
+        return directory.resolve(String.format("%08d", segment) + HINT_SUFFIX);
+    }
+}
@@ -0,0 +1,53 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Хранилище объектов: блобов, деревьев и коммитов по их хешам. Объекты неизменяемы,
+ * поэтому повторная вставка того же хеша ничего не меняет. Объект, прочитанный из
+ * хранилища или созданный для него, читает свои поддеревья и родителей из него же.
+ *
+ * Реализации: FileObjectDatabase (.mygit/objects), LogObjectDatabase (.mygit/segments)
+ * и InMemoryObjectDatabase.
+ */
+public interface ObjectDatabase {
+    // хранилище репозитория выбирается настройкой objectStore
+    static @NotNull ObjectDatabase forRepository(@NotNull Path root) throws IOException {
+        String objectStore = RepositoryConfig.forRepository(root).get(RepositoryConfig.OBJECT_STORE, RepositoryConfig.FILE_OBJECTS);
+        return objectStore.equals(RepositoryConfig.LOG_OBJECTS) ? LogObjectDatabase.open(root) : new FileObjectDatabase(root);
+    }
+
+    @NotNull HashAlgorithm getHashAlgorithm() throws IOException;
+
+    boolean contains(@NotNull ObjectId hash) throws IOException;
+
+    @NotNull GitObject read(@NotNull ObjectId hash) throws IOException, ClassNotFoundException;
+
+    // хеши всех записанных объектов; вставленные, но еще не записанные могут не попасть
+    @NotNull List<ObjectId> list() throws IOException;
+
+    // объект может стать виден другим процессам только после flush
+    void insert(@NotNull GitObject gitObject) throws IOException;
+
+    // ждет, пока вставленные объекты будут записаны
+    void flush() throws IOException;
+
+    /*
+     * Забывает сведения о хранилище, закешированные в памяти, чтобы увидеть объекты, записанные
+     * другими процессами. Вызывается в начале каждой команды.
+     */
+    default void refresh() throws IOException {}
+
+    /*
+     * Удаляет объекты не из live, если хранилище это умеет, и возвращает их число.
+     * Хранилище может оставить и часть недостижимых объектов.
+     */
+    default long compact(@NotNull Set<ObjectId> live) throws IOException {
+        return 0;
+    }
+}
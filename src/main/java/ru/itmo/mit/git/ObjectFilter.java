@@ -0,0 +1,107 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Фильтр Блума хешей объектов в памяти. Если фильтр не содержит хеш, такого объекта точно нет;
+ * если содержит -- объект, скорее всего, есть (ложные срабатывания около 1%).
+ * Хеши объектов распределены равномерно, поэтому номера битов берутся прямо из их байтов
+ * двойным хешированием. Когда вставлено больше хешей, чем рассчитан фильтр, к нему
+ * добавляется следующий, вдвое больший, и проверяются все: ложных срабатываний не становится
+ * намного больше, а старые биты не пересчитываются.
+ *
+ * Проверки не блокируются и идут параллельно со вставками.
+ */
+final class ObjectFilter {
+    private static final int BITS_PER_OBJECT = 10;
+    private static final int HASH_FUNCTIONS = 7;
+    private static final int MIN_CAPACITY = 1024;
+
+    private static final class Segment {
+        private final int capacity;
+        private final long bitCount;
+        private final AtomicLongArray bits;
+        // под монитором фильтра
+        private int size;
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+            bitCount = (long) capacity * BITS_PER_OBJECT;
+            bits = new AtomicLongArray((int) ((bitCount + 63) / 64));
+        }
+
+        private void add(@NotNull ObjectId hash) {
+            long first = first(hash);
+            long second = second(hash);
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                long bit = index(first, second, i);
+                bits.getAndAccumulate((int) (bit >>> 6), 1L << bit, (a, b) -> a | b);
+            }
+        }
+
+        private boolean mightContain(@NotNull ObjectId hash) {
+            long first = first(hash);
+            long second = second(hash);
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                long bit = index(first, second, i);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long index(long first, long second, int i) {
+            return ((first + i * second) & Long.MAX_VALUE) % bitCount;
+        }
+    }
+
+    private volatile Segment[] segments;
+
+    // expected -- сколько хешей будет вставлено
+    ObjectFilter(int expected) {
+        segments = new Segment[]{new Segment(Math.max(MIN_CAPACITY, expected))};
+    }
+
+    synchronized void add(@NotNull ObjectId hash) {
+        Segment last = segments[segments.length - 1];
+        if (last.size == last.capacity) {
+            Segment[] grown = new Segment[segments.length + 1];
+            System.arraycopy(segments, 0, grown, 0, segments.length);
+            last = new Segment((int) Math.min(Integer.MAX_VALUE / BITS_PER_OBJECT, 2L * last.capacity));
+            grown[segments.length] = last;
+            segments = grown;
+        }
+        last.size++;
+        last.add(hash);
+    }
+
+    boolean mightContain(@NotNull ObjectId hash) {
+        for (Segment segment : segments) {
+            if (segment.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // первые восемь байт хеша
+    private static long first(@NotNull ObjectId hash) {
+        return bytesAt(hash.rawBytes(), 0);
+    }
+
+    // следующие восемь байт; нечетное число, чтобы шаг не был нулевым
+    private static long second(@NotNull ObjectId hash) {
+        return bytesAt(hash.rawBytes(), 8) | 1;
+    }
+
+    private static long bytesAt(@NotNull byte[] bytes, int offset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (bytes[(offset + i) % bytes.length] & 0xff);
+        }
+        return result;
+    }
+}
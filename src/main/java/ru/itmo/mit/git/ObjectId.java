@@ -0,0 +1,106 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/*
+ * Неизменяемый хеш объекта в сыром виде. Шестнадцатеричная строка строится
+ * только для имен файлов и вывода пользователю.
+ */
+public final class ObjectId implements Comparable<ObjectId>, Serializable {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] bytes;
+
+    private ObjectId(@NotNull byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public static @NotNull ObjectId fromBytes(@NotNull byte[] bytes) {
+        return new ObjectId(bytes.clone());
+    }
+
+    // массив не копируется, вызывающий не должен его менять
+    static @NotNull ObjectId fromRaw(@NotNull byte[] bytes) {
+        return new ObjectId(bytes);
+    }
+
+    public static @NotNull ObjectId fromString(@NotNull String hex) {
+        if (!isValid(hex)) {
+            throw new IllegalArgumentException("Invalid object id: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return new ObjectId(bytes);
+    }
+
+    public static boolean isValid(@NotNull String hex) {
+        if (hex.isEmpty() || hex.length() % 2 != 0) {
+            return false;
+        }
+        for (int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    public @NotNull byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    // без копирования, только для чтения
+    @NotNull byte[] rawBytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        return Arrays.equals(bytes, ((ObjectId) o).bytes);
+    }
+
+    // хеш равномерно распределен, поэтому первых четырех байт достаточно
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (int i = 0; i < 4 && i < bytes.length; i++) {
+            result = (result << 8) | (bytes[i] & 0xff);
+        }
+        return result;
+    }
+
+    @Override
+    public int compareTo(@NotNull ObjectId other) {
+        int length = Math.min(bytes.length, other.bytes.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (bytes[i] & 0xff) - (other.bytes[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return bytes.length - other.bytes.length;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+}
@@ -0,0 +1,122 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.BiConsumer;
+
+/*
+ * Хеш-таблица с открытой адресацией: хеш объекта -> (сегмент, смещение записи, длина).
+ * Значения лежат в параллельных массивах, поэтому на объект не создаются узлы, как в HashMap.
+ * Хеши равномерно распределены, так что ячейка выбирается по ObjectId.hashCode с линейным
+ * пробированием, а таблица заполняется не больше чем наполовину.
+ */
+final class ObjectIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    static final class Location {
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        int getSegment() {
+            return segment;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        // длина всей записи вместе с заголовком и контрольной суммой
+        int getLength() {
+            return length;
+        }
+    }
+
+    private ObjectId[] keys = new ObjectId[INITIAL_CAPACITY];
+    private int[] segments = new int[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int size;
+
+    synchronized @Nullable Location get(@NotNull ObjectId hash) {
+        int slot = find(keys, hash);
+        return keys[slot] == null ? null : new Location(segments[slot], offsets[slot], lengths[slot]);
+    }
+
+    synchronized boolean contains(@NotNull ObjectId hash) {
+        return keys[find(keys, hash)] != null;
+    }
+
+    // false, если объект уже есть: остается первая запись
+    synchronized boolean put(@NotNull ObjectId hash, int segment, long offset, int length) {
+        int slot = find(keys, hash);
+        if (keys[slot] != null) {
+            return false;
+        }
+        keys[slot] = hash;
+        segments[slot] = segment;
+        offsets[slot] = offset;
+        lengths[slot] = length;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void clear() {
+        keys = new ObjectId[INITIAL_CAPACITY];
+        segments = new int[INITIAL_CAPACITY];
+        offsets = new long[INITIAL_CAPACITY];
+        lengths = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    synchronized void forEach(@NotNull BiConsumer<ObjectId, Location> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(keys[i], new Location(segments[i], offsets[i], lengths[i]));
+            }
+        }
+    }
+
+    private void resize() {
+        ObjectId[] oldKeys = keys;
+        int[] oldSegments = segments;
+        long[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        keys = new ObjectId[oldKeys.length * 2];
+        segments = new int[keys.length];
+        offsets = new long[keys.length];
+        lengths = new int[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                segments[slot] = oldSegments[i];
+                offsets[slot] = oldOffsets[i];
+                lengths[slot] = oldLengths[i];
+            }
+        }
+    }
+
+    // ячейка с hash или первая пустая ячейка после нее
+    private static int find(@NotNull ObjectId[] keys, @NotNull ObjectId hash) {
+        int mask = keys.length - 1;
+        int slot = hash.hashCode() & mask;
+        while (keys[slot] != null && !keys[slot].equals(hash)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,231 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BooleanSupplier;
+
+import static ru.itmo.mit.git.GitConstants.objectsDirectory;
+
+/*
+ * Асинхронная запись объектов. Хеш считается в потоке, который создает объект, а сериализация
+ * и запись на диск -- в фоновых потоках, которые забирают объекты из ограниченной очереди пачками.
+ * Пока объект не записан, он лежит в pending: повторная вставка того же хеша ничего не делает,
+ * а чтение получает объект из памяти.
+ *
+ * Файл объекта может появиться позже файла, который на него ссылается, поэтому перед записью
+ * индекса, веток и HEAD команда вызывает flush(): ссылки видят только записанные объекты.
+ * Хеши пачки дописываются в список объектов (ObjectList) одним вызовом до записи их файлов.
+ *
+ * Ошибка записи запоминается для файла объекта. Ее получает каждый flush репозитория этого
+ * объекта, пока объект не будет записан повторной вставкой: на ненаписанный объект не должна
+ * сослаться ни одна команда, сколько бы их ни шло одновременно.
+ */
+final class ObjectInserter {
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int BATCH_SIZE = 64;
+    private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final ConcurrentMap<Path, GitObject> pending = new ConcurrentHashMap<>();
+    private static final Object monitor = new Object();
+    // под monitor: номера вставленных, но еще не записанных объектов
+    private static final TreeSet<Long> unwritten = new TreeSet<>();
+    // под monitor: файлы объектов, которые не удалось записать, -> ошибка
+    private static final Map<Path, IOException> failures = new HashMap<>();
+    private static long inserted;
+
+    static {
+        for (int i = 0; i < WORKERS; i++) {
+            Thread worker = new Thread(ObjectInserter::runWorker, "mygit-object-writer-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private ObjectInserter() {}
+
+    private static final class Task {
+        private final GitObject object;
+        private final Path root;
+        private final Path file;
+        private final boolean mayExist;
+        private final long number;
+
+        private Task(@NotNull GitObject object, @NotNull Path root, @NotNull Path file, boolean mayExist, long number) {
+            this.object = object;
+            this.root = root;
+            this.file = file;
+            this.mayExist = mayExist;
+            this.number = number;
+        }
+    }
+
+    static void insert(@NotNull GitObject gitObject, @NotNull Path root) throws IOException {
+        insert(gitObject, root, () -> true);
+    }
+
+    /*
+     * Если очередь заполнена, ждет, пока фоновые потоки ее разберут.
+     * mayExist вызывается, только когда объект уже в pending, и возвращает false, если известно,
+     * что файла объекта нет: тогда он пишется без проверки. Вставка того же объекта другим
+     * потоком после записи спросит mayExist уже после того, как первая узнала ответ.
+     */
+    static void insert(@NotNull GitObject gitObject, @NotNull Path root, @NotNull BooleanSupplier mayExist) throws IOException {
+        Path file = getFile(root, gitObject.getHash());
+        if (pending.putIfAbsent(file, gitObject) != null) {
+            return;
+        }
+        long number;
+        synchronized (monitor) {
+            number = ++inserted;
+            unwritten.add(number);
+        }
+        try {
+            queue.put(new Task(gitObject, root, file, mayExist.getAsBoolean(), number));
+        } catch (InterruptedException e) {
+            pending.remove(file);
+            complete(Collections.singletonList(number), Collections.emptyMap());
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the object " + file);
+        }
+    }
+
+    // объект, который еще пишется в file, или null
+    static @Nullable GitObject getPending(@NotNull Path file) {
+        return pending.isEmpty() ? null : pending.get(file.toAbsolutePath().normalize());
+    }
+
+    // хеши объектов репозитория root, которые еще пишутся
+    static @NotNull List<ObjectId> getPendingHashes(@NotNull Path root) {
+        Path directory = root.resolve(objectsDirectory).toAbsolutePath().normalize();
+        List<ObjectId> hashes = new ArrayList<>();
+        for (Map.Entry<Path, GitObject> entry : pending.entrySet()) {
+            if (entry.getKey().getParent().equals(directory)) {
+                hashes.add(entry.getValue().getHash());
+            }
+        }
+        return hashes;
+    }
+
+    /*
+     * Ждет записи объектов, вставленных до вызова (в том числе другими потоками): объекты,
+     * вставленные во время ожидания, его не продлевают. Бросает ошибку записи любого
+     * объекта, который так и не записан.
+     */
+    static void flush() throws IOException {
+        flush(null);
+    }
+
+    // то же, но сообщает только ошибки объектов репозитория root
+    static void flush(@Nullable Path root) throws IOException {
+        Path directory = root == null ? null : root.resolve(objectsDirectory).toAbsolutePath().normalize();
+        synchronized (monitor) {
+            long last = inserted;
+            while (!unwritten.isEmpty() && unwritten.first() <= last) {
+                try {
+                    monitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for objects to be written");
+                }
+            }
+            for (Map.Entry<Path, IOException> failure : failures.entrySet()) {
+                if (directory == null || failure.getKey().getParent().equals(directory)) {
+                    throw new IOException(failure.getValue().getMessage(), failure.getValue());
+                }
+            }
+        }
+    }
+
+    private static void runWorker() {
+        List<Task> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            Map<Path, IOException> results = new HashMap<>();
+            List<Long> numbers = new ArrayList<>(batch.size());
+            // корень репозитория -> объекты, которых нет на диске
+            Map<Path, List<Task>> writes = new HashMap<>();
+            for (Task task : batch) {
+                numbers.add(task.number);
+                // объекты неизменяемы: файл с таким хешем уже содержит те же байты
+                if (task.mayExist && Files.exists(task.file)) {
+                    results.put(task.file, null);
+                    pending.remove(task.file);
+                } else {
+                    writes.computeIfAbsent(task.root, root -> new ArrayList<>()).add(task);
+                }
+            }
+            for (Map.Entry<Path, List<Task>> write : writes.entrySet()) {
+                write(write.getKey(), write.getValue(), results);
+            }
+            complete(numbers, results);
+            batch.clear();
+        }
+    }
+
+    private static void write(@NotNull Path root, @NotNull List<Task> tasks, @NotNull Map<Path, IOException> results) {
+        IOException listFailure = null;
+        try {
+            List<ObjectId> hashes = new ArrayList<>(tasks.size());
+            for (Task task : tasks) {
+                hashes.add(task.object.getHash());
+            }
+            ObjectList.append(root, hashes);
+        } catch (IOException e) {
+            listFailure = new IOException("IOException occurred while writing the object list of " + root, e);
+        }
+        for (Task task : tasks) {
+            try {
+                // без хеша в списке объект не пишется: хранилище считало бы, что его нет
+                if (listFailure != null) {
+                    throw listFailure;
+                }
+                GitObject.writeFile(task.object, task.root);
+                results.put(task.file, null);
+            } catch (IOException e) {
+                results.put(task.file, e);
+            } finally {
+                // файл уже на месте (или записать его не удалось), читатели идут на диск
+                pending.remove(task.file);
+            }
+        }
+    }
+
+    // results -- файл объекта -> ошибка записи или null, если он записан
+    private static void complete(@NotNull List<Long> numbers, @NotNull Map<Path, IOException> results) {
+        synchronized (monitor) {
+            for (Map.Entry<Path, IOException> result : results.entrySet()) {
+                if (result.getValue() == null) {
+                    failures.remove(result.getKey());
+                } else {
+                    failures.put(result.getKey(), result.getValue());
+                }
+            }
+            unwritten.removeAll(numbers);
+            monitor.notifyAll();
+        }
+    }
+
+    private static @NotNull Path getFile(@NotNull Path root, @NotNull ObjectId hash) {
+        return root.resolve(objectsDirectory).resolve(hash.toString()).toAbsolutePath().normalize();
+    }
+}
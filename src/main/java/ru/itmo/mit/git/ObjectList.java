@@ -0,0 +1,148 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static ru.itmo.mit.git.GitConstants.objectList;
+
+/*
+ * Список хешей всех объектов хранилища в файлах: .mygit/object-list. В начале -- случайный
+ * номер списка, дальше сырые байты хешей подряд. Хеш дописывается в список раньше, чем файл
+ * объекта появится под своим именем, поэтому каждый объект, который виден в папке, уже есть
+ * в списке. Объекты из папки не удаляются, так что список только дописывается, и процесс
+ * дочитывает его с того места, до которого прочитал в прошлый раз. Номер другой, если список
+ * создан заново (например, в новом репозитории по тому же пути), и тогда он читается целиком.
+ *
+ * Пачка хешей дописывается одним write в режиме APPEND, поэтому пачки разных процессов
+ * не перемешиваются. Список создают init, clone и migrate; в репозитории без списка
+ * хранилище проверяет файлы объектов по одному.
+ */
+final class ObjectList {
+    private static final int HEADER = Long.BYTES;
+
+    private ObjectList() {}
+
+    // прочитанная часть списка
+    static final class Chunk {
+        private final long id;
+        private final long end;
+        private final boolean whole;
+        private final List<ObjectId> hashes;
+
+        private Chunk(long id, long end, boolean whole, @NotNull List<ObjectId> hashes) {
+            this.id = id;
+            this.end = end;
+            this.whole = whole;
+            this.hashes = hashes;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        // место, с которого читать в следующий раз
+        long getEnd() {
+            return end;
+        }
+
+        // список прочитан с начала: прочитанное раньше относится к другому списку
+        boolean isWhole() {
+            return whole;
+        }
+
+        @NotNull List<ObjectId> getHashes() {
+            return hashes;
+        }
+    }
+
+    static boolean exists(@NotNull Path root) {
+        return Files.exists(root.resolve(objectList));
+    }
+
+    // вызывается, пока в хранилище никто не пишет
+    static void create(@NotNull Path root, @NotNull Collection<ObjectId> hashes) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).putLong(ThreadLocalRandom.current().nextLong());
+        ByteBuffer records = toBuffer(hashes);
+        byte[] data = new byte[HEADER + records.remaining()];
+        System.arraycopy(header.array(), 0, data, 0, HEADER);
+        records.get(data, HEADER, data.length - HEADER);
+        LockFile.write(root.resolve(objectList), data);
+    }
+
+    // если списка нет, ничего не делает
+    static void append(@NotNull Path root, @NotNull Collection<ObjectId> hashes) throws IOException {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        ByteBuffer buffer = toBuffer(hashes);
+        try (FileChannel channel = FileChannel.open(root.resolve(objectList), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (NoSuchFileException e) {
+            // репозиторий без списка
+        }
+    }
+
+    /*
+     * Хеши, дописанные в список с номером id после offset; если номер другой -- все хеши списка.
+     * Недописанный хеш в конце пропускается. null, если списка нет.
+     */
+    static @Nullable Chunk read(@NotNull Path root, @NotNull HashAlgorithm hashAlgorithm, long id, long offset) throws IOException {
+        int length = hashAlgorithm.getLength();
+        try (FileChannel channel = FileChannel.open(root.resolve(objectList), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            readFully(channel, header, 0);
+            header.flip();
+            long actualId = header.getLong();
+            boolean whole = actualId != id || offset < HEADER;
+            long start = whole ? HEADER : offset;
+            long count = (channel.size() - start) / length;
+            ByteBuffer records = ByteBuffer.allocate((int) (count * length));
+            readFully(channel, records, start);
+            records.flip();
+            List<ObjectId> hashes = new ArrayList<>((int) count);
+            for (long i = 0; i < count; i++) {
+                byte[] bytes = new byte[length];
+                records.get(bytes);
+                hashes.add(ObjectId.fromRaw(bytes));
+            }
+            Statistics.add(Statistics.Counter.BYTES_READ, HEADER + records.capacity());
+            return new Chunk(actualId, start + count * length, whole, hashes);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Object list is truncated");
+            }
+            position += read;
+        }
+    }
+
+    private static @NotNull ByteBuffer toBuffer(@NotNull Collection<ObjectId> hashes) {
+        int length = hashes.isEmpty() ? 0 : hashes.iterator().next().length();
+        ByteBuffer buffer = ByteBuffer.allocate(hashes.size() * length);
+        for (ObjectId hash : hashes) {
+            buffer.put(hash.rawBytes());
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
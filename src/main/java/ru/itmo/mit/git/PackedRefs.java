@@ -0,0 +1,98 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/*
+ * Файл .mygit/packed-refs: строки "name hash", отсортированные по имени.
+ * Одна ветка ищется бинарным поиском по байтам файла без разбора остальных строк.
+ * Файл переписывается целиком под блокировкой packed-refs.lock (см. LockFile).
+ */
+final class PackedRefs {
+    private static final byte SEPARATOR = ' ';
+    private static final byte NEW_LINE = '\n';
+
+    private final byte[] data;
+
+    private PackedRefs(@NotNull byte[] data) {
+        this.data = data;
+    }
+
+    static @NotNull PackedRefs read(@NotNull Path file) throws IOException {
+        if (Files.notExists(file)) {
+            return new PackedRefs(new byte[0]);
+        }
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Statistics.add(Statistics.Counter.BYTES_READ, data.length);
+            return new PackedRefs(data);
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading packed refs: " + file);
+        }
+    }
+
+    // low всегда указывает на начало строки, поэтому от mid достаточно отступить до предыдущего '\n'
+    @Nullable ObjectId find(@NotNull String name) {
+        int low = 0;
+        int high = data.length;
+        while (low < high) {
+            int lineStart = (low + high) >>> 1;
+            while (lineStart > low && data[lineStart - 1] != NEW_LINE) {
+                lineStart--;
+            }
+            int separator = indexOf(SEPARATOR, lineStart);
+            int lineEnd = indexOf(NEW_LINE, separator);
+            int comparison = new String(data, lineStart, separator - lineStart, StandardCharsets.UTF_8).compareTo(name);
+            if (comparison == 0) {
+                return ObjectId.fromString(new String(data, separator + 1, lineEnd - separator - 1, StandardCharsets.UTF_8));
+            } else if (comparison < 0) {
+                low = lineEnd + 1;
+            } else {
+                high = lineStart;
+            }
+        }
+        return null;
+    }
+
+    @NotNull SortedMap<String, ObjectId> getAll() {
+        SortedMap<String, ObjectId> refs = new TreeMap<>();
+        int lineStart = 0;
+        while (lineStart < data.length) {
+            int separator = indexOf(SEPARATOR, lineStart);
+            int lineEnd = indexOf(NEW_LINE, separator);
+            refs.put(new String(data, lineStart, separator - lineStart, StandardCharsets.UTF_8),
+                    ObjectId.fromString(new String(data, separator + 1, lineEnd - separator - 1, StandardCharsets.UTF_8)));
+            lineStart = lineEnd + 1;
+        }
+        return refs;
+    }
+
+    // lock -- блокировка файла packed-refs, после записи она снимается
+    static @NotNull PackedRefs write(@NotNull LockFile lock, @NotNull SortedMap<String, ObjectId> refs) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, ObjectId> ref : refs.entrySet()) {
+            content.append(ref.getKey()).append(' ').append(ref.getValue()).append('\n');
+        }
+        byte[] data = content.toString().getBytes(StandardCharsets.UTF_8);
+        lock.write(data);
+        lock.commit();
+        return new PackedRefs(data);
+    }
+
+    private int indexOf(byte value, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return data.length;
+    }
+}
@@ -5,19 +5,19 @@ import java.util.Objects;
 
 public class Pair {
     private final Path path;
-    private final String string;
+    private final ObjectId hash;
 
-    Pair(Path path, String string) {
+    public Pair(Path path, ObjectId hash) {
         this.path = path;
-        this.string = string;
+        this.hash = hash;
     }
 
-    Path getPath() {
+    public Path getPath() {
         return path;
     }
 
-    String getString() {
-        return string;
+    public ObjectId getHash() {
+        return hash;
     }
 
     @Override
@@ -27,6 +27,6 @@ public class Pair {
 
         Pair that = (Pair) o;
 
-        return path != null ? path.equals(that.path) : (that.path == null && (Objects.equals(string, that.string)));
+        return path != null ? path.equals(that.path) : (that.path == null && (Objects.equals(hash, that.hash)));
     }
 }
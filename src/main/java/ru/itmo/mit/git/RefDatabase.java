@@ -0,0 +1,41 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+
+/*
+ * Ветки и HEAD рабочей копии. HEAD -- это ветка, на которой стоит рабочая копия,
+ * или отделенный HEAD (Branch.DETACHED) с коммитом.
+ *
+ * Реализации: BranchRegistry (.mygit/branches, packed-refs и HEAD) и InMemoryRefDatabase.
+ */
+public interface RefDatabase {
+    @Nullable Branch get(@NotNull String name) throws IOException;
+
+    default void put(@NotNull Branch branch) throws IOException {
+        update(branch, null);
+    }
+
+    /*
+     * Если expected не null, ветка передвигается, только если она все еще
+     * указывает на expected: иначе ее успел передвинуть другой писатель.
+     */
+    void update(@NotNull Branch branch, @Nullable ObjectId expected) throws IOException;
+
+    void remove(@NotNull String name) throws IOException;
+
+    @NotNull List<String> getNames() throws IOException;
+
+    @NotNull SortedMap<String, ObjectId> getAll() throws IOException;
+
+    @NotNull Branch getHead() throws IOException;
+
+    void setHead(@NotNull Branch branch) throws IOException;
+
+    // забывает прочитанные ветки, чтобы следующая команда увидела изменения других процессов
+    default void refresh() {}
+}
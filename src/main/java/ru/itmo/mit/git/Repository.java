@@ -0,0 +1,182 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static ru.itmo.mit.git.GitConstants.MASTER;
+
+/*
+ * Встраиваемый API репозитория, без командной строки и без файлов рабочей копии: файлы
+ * добавляются в индекс вместе с содержимым, коммит строится из индекса, содержимое
+ * файлов читается из коммитов. Хранилище задается интерфейсами ObjectDatabase,
+ * RefDatabase и IndexStore: open работает с файлами .mygit того же репозитория, что
+ * RepositoryManager, а inMemory ничего не пишет на диск.
+ *
+ * Пути файлов -- относительно корня репозитория. Как и RepositoryManager, объект
+ * используется из одного потока, а каждая команда работает со своим RepositorySnapshot.
+ */
+public final class Repository {
+    // корень рабочей копии, от которого считаются пути в индексе; в памяти -- пустой путь
+    private final Path root;
+    private final ObjectDatabase objects;
+    private final RefDatabase refs;
+    private final IndexStore index;
+
+    public Repository(@NotNull ObjectDatabase objects, @NotNull RefDatabase refs, @NotNull IndexStore index) {
+        this(Paths.get(""), objects, refs, index);
+    }
+
+    Repository(@NotNull Path root, @NotNull ObjectDatabase objects, @NotNull RefDatabase refs, @NotNull IndexStore index) {
+        this.root = root;
+        this.objects = objects;
+        this.refs = refs;
+        this.index = index;
+    }
+
+    public static @NotNull Repository open(@NotNull Path path) throws IOException, ClassNotFoundException, GitException {
+        return RepositoryManager.getRepositoryManager(path).getRepository();
+    }
+
+    public static @NotNull Repository inMemory() throws IOException {
+        return inMemory(HashAlgorithm.DEFAULT);
+    }
+
+    // новый репозиторий с начальным коммитом на ветке master, как после init
+    public static @NotNull Repository inMemory(@NotNull HashAlgorithm hashAlgorithm) throws IOException {
+        ObjectDatabase objects = new InMemoryObjectDatabase(hashAlgorithm);
+        Commit commit = new Commit(objects, "Initial commit", new ArrayList<>(), new Tree(objects, "", new ArrayList<>()));
+        Branch masterBranch = new Branch(MASTER, commit.getHash());
+        RefDatabase refs = new InMemoryRefDatabase(masterBranch);
+        refs.put(masterBranch);
+        return new Repository(objects, refs, new InMemoryIndexStore());
+    }
+
+    public @NotNull ObjectDatabase getObjectDatabase() {
+        return objects;
+    }
+
+    public @NotNull RefDatabase getRefDatabase() {
+        return refs;
+    }
+
+    public @NotNull IndexStore getIndexStore() {
+        return index;
+    }
+
+    // записывает блоб и добавляет файл в индекс
+    public @NotNull ObjectId add(@NotNull String path, @NotNull byte[] content) throws IOException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            Path file = root.resolve(path);
+            ObjectId hash = new Blob(objects, content).getHash();
+            List<Pair> entries = command.getIndex();
+            entries.removeIf(entry -> entry.getPath().equals(file));
+            entries.add(new Pair(file, hash));
+            command.setIndex(entries);
+            command.commit();
+            return hash;
+        }
+    }
+
+    // коммит из дерева HEAD и файлов индекса, индекс после него пустой
+    public @NotNull ObjectId commit(@NotNull String message) throws IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            Branch head = command.getHead();
+            Tree tree = readCommit(head.getCommitHash()).getTree();
+            for (Pair pair : command.getIndex()) {
+                tree = tree.addPathToTree(root.relativize(pair.getPath()), pair.getHash());
+            }
+            List<ObjectId> parents = new ArrayList<>();
+            parents.add(head.getCommitHash());
+            Commit commit = new Commit(objects, message, parents, tree);
+            Branch branch = new Branch(head.getName(), commit.getHash());
+            if (!branch.isDetached()) {
+                refs.update(branch, head.getCommitHash());
+            }
+            command.setHead(branch);
+            command.setIndex(new ArrayList<>());
+            command.commit();
+            return commit.getHash();
+        }
+    }
+
+    // новая ветка на коммите HEAD; HEAD остается на текущей ветке
+    public void createBranch(@NotNull String name) throws GitException, IOException {
+        BranchRegistry.checkName(name);
+        try (RepositorySnapshot command = beginCommand(false)) {
+            if (refs.get(name) != null) {
+                throw new GitException("Branch already exists");
+            }
+            refs.put(new Branch(name, command.getHead().getCommitHash()));
+        }
+    }
+
+    public @NotNull List<String> getBranches() throws IOException {
+        try (RepositorySnapshot ignored = beginCommand(false)) {
+            return refs.getNames();
+        }
+    }
+
+    public @NotNull Branch getHead() throws IOException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            return command.getHead();
+        }
+    }
+
+    // revision -- ветка или хеш коммита, null для HEAD
+    public @NotNull List<Commit> log(@Nullable String revision) throws IOException, ClassNotFoundException, GitException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            List<Commit> uniqueCommits = new ArrayList<>();
+            Set<ObjectId> hashes = new HashSet<>();
+            for (Commit commit : readCommit(resolve(command, revision)).getLog()) {
+                if (hashes.add(commit.getHash())) {
+                    uniqueCommits.add(commit);
+                }
+            }
+            uniqueCommits.sort(Comparator.reverseOrder());
+            return uniqueCommits;
+        }
+    }
+
+    // содержимое файла path в ревизии revision (null для HEAD) или null, если такого файла нет
+    public @Nullable byte[] readFile(@Nullable String revision, @NotNull String path)
+            throws IOException, ClassNotFoundException, GitException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            Blob blob = readCommit(resolve(command, revision)).getTree().getBlob(Paths.get(path));
+            return blob == null ? null : blob.getContent();
+        }
+    }
+
+    private @NotNull RepositorySnapshot beginCommand(boolean lockIndex) throws IOException {
+        refs.refresh();
+        objects.refresh();
+        return new RepositorySnapshot(objects, refs, index, lockIndex, () -> {});
+    }
+
+    private @NotNull ObjectId resolve(@NotNull RepositorySnapshot command, @Nullable String revision)
+            throws IOException, GitException {
+        if (revision == null) {
+            return command.getHead().getCommitHash();
+        }
+        Branch branch = refs.get(revision);
+        if (branch != null) {
+            return branch.getCommitHash();
+        }
+        if (!objects.getHashAlgorithm().isValid(revision) || !objects.contains(ObjectId.fromString(revision))) {
+            throw new GitException("Revision " + revision + " doesn't exist");
+        }
+        return ObjectId.fromString(revision);
+    }
+
+    private @NotNull Commit readCommit(@NotNull ObjectId hash) throws IOException, ClassNotFoundException {
+        return (Commit) objects.read(hash);
+    }
+}
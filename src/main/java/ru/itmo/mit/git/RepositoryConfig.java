@@ -0,0 +1,111 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ru.itmo.mit.git.GitConstants.config;
+
+/*
+ * Настройки репозитория из .mygit/config, строки вида key=value.
+ * Файл читается один раз на репозиторий за время жизни процесса.
+ */
+public final class RepositoryConfig {
+    public static final @NotNull String OBJECT_FORMAT = "objectFormat";
+    // "content" -- хеш блоба не зависит от имени файла; без этого ключа репозиторий нужно перевести через migrate
+    public static final @NotNull String BLOB_FORMAT = "blobFormat";
+    public static final @NotNull String CONTENT_BLOBS = "content";
+    // "files" -- файл на объект в .mygit/objects, "log" -- сегменты в .mygit/segments (LogObjectDatabase)
+    public static final @NotNull String OBJECT_STORE = "objectStore";
+    public static final @NotNull String FILE_OBJECTS = "files";
+    public static final @NotNull String LOG_OBJECTS = "log";
+
+    private static final Map<Path, RepositoryConfig> configs = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final Map<String, String> values;
+
+    private RepositoryConfig(@NotNull Path file, @NotNull Map<String, String> values) {
+        this.file = file;
+        this.values = values;
+    }
+
+    public static @NotNull RepositoryConfig forRepository(@NotNull Path root) throws IOException {
+        try {
+            return configs.computeIfAbsent(root.toAbsolutePath().normalize(), key -> {
+                try {
+                    return load(key.resolve(config));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+     * Записывает новый файл настроек, например при init, и заменяет закешированный.
+     */
+    public static @NotNull RepositoryConfig create(@NotNull Path root, @NotNull Map<String, String> values) throws IOException {
+        Path normalizedRoot = root.toAbsolutePath().normalize();
+        RepositoryConfig repositoryConfig = new RepositoryConfig(normalizedRoot.resolve(config), new TreeMap<>(values));
+        repositoryConfig.write();
+        configs.put(normalizedRoot, repositoryConfig);
+        return repositoryConfig;
+    }
+
+    public static @NotNull RepositoryConfig copy(@NotNull Path source, @NotNull Path destination) throws IOException {
+        return create(destination, forRepository(source).values);
+    }
+
+    private static @NotNull RepositoryConfig load(@NotNull Path file) throws IOException {
+        Map<String, String> values = new TreeMap<>();
+        if (Files.exists(file)) {
+            try {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    int separator = line.indexOf('=');
+                    if (separator > 0) {
+                        values.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+                    }
+                }
+            } catch (IOException e) {
+                throw new IOException("IOException occurred while reading the config file: " + file);
+            }
+        }
+        return new RepositoryConfig(file, values);
+    }
+
+    public @Nullable String get(@NotNull String key) {
+        return values.get(key);
+    }
+
+    public @NotNull String get(@NotNull String key, @NotNull String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    public synchronized void set(@NotNull String key, @NotNull String value) throws IOException {
+        values.put(key, value);
+        write();
+    }
+
+    private void write() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            content.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        try {
+            LockFile.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing the config file: " + file);
+        }
+    }
+}
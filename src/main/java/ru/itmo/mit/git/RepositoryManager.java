@@ -4,195 +4,1075 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static ru.itmo.mit.git.GitConstants.*;
 
 public class RepositoryManager {
-    private enum HeadType { COMMIT, BRANCH }
-
     private final Path root;
-    private final List<Branch> branches = new ArrayList<>();
+    // корень репозитория с объектами, ветками и настройками; у дополнительных рабочих копий свой root
+    private final Path commonRoot;
+    private final ObjectDatabase objects;
+    private final BranchRegistry branches;
+    private final IndexStore indexStore;
+    private SparseCheckout sparseCheckout;
+    private boolean sparseCheckoutLoaded;
+    // HEAD и индекс текущей команды
+    private RepositorySnapshot snapshot;
+    private FlatTree headFiles;
+
+    private RepositoryManager(@NotNull Path path) throws IOException {
+        this(path, path);
+    }
 
-    private RepositoryManager(@NotNull Path path){
+    private RepositoryManager(@NotNull Path path, @NotNull Path commonPath) throws IOException {
         root = path;
+        commonRoot = commonPath;
+        objects = ObjectDatabase.forRepository(commonPath);
+        branches = new BranchRegistry(commonPath, path);
+        indexStore = new FileIndexStore(path);
     }
 
     public static void initRepository(@NotNull Path path) throws GitException, IOException {
+        initRepository(path, HashAlgorithm.DEFAULT);
+    }
+
+    public static void initRepository(@NotNull Path path, @NotNull HashAlgorithm hashAlgorithm) throws GitException, IOException {
+        initRepository(path, hashAlgorithm, RepositoryConfig.FILE_OBJECTS);
+    }
+
+    // objectStore -- RepositoryConfig.FILE_OBJECTS или RepositoryConfig.LOG_OBJECTS
+    public static void initRepository(@NotNull Path path, @NotNull HashAlgorithm hashAlgorithm, @NotNull String objectStore)
+            throws GitException, IOException {
+        if (!objectStore.equals(RepositoryConfig.FILE_OBJECTS) && !objectStore.equals(RepositoryConfig.LOG_OBJECTS)) {
+            throw new GitException("Unknown object store " + objectStore);
+        }
         if (Files.exists(path.resolve(myGitDirectory))) {
             throw new GitException("Repository already exists");
         }
 
         Files.createDirectory(path.resolve(myGitDirectory));
         Files.createDirectory(path.resolve(objectsDirectory));
+        if (objectStore.equals(RepositoryConfig.LOG_OBJECTS)) {
+            Files.createDirectory(path.resolve(segmentsDirectory));
+        } else {
+            ObjectList.create(path, Collections.emptyList());
+        }
         Files.createDirectory(path.resolve(branchesDirectory));
         Files.createFile(path.resolve(index));
         Files.createFile(path.resolve(head));
-
+        Map<String, String> values = new TreeMap<>();
+        values.put(RepositoryConfig.OBJECT_FORMAT, hashAlgorithm.getName());
+        values.put(RepositoryConfig.BLOB_FORMAT, RepositoryConfig.CONTENT_BLOBS);
+        values.put(RepositoryConfig.OBJECT_STORE, objectStore);
+        RepositoryConfig.create(path, values);
 
         RepositoryManager repositoryManager = new RepositoryManager(path);
         repositoryManager.initialCommit();
     }
 
+    /*
+     * Объекты неизменяемы, поэтому вместо копирования на них ставятся жесткие ссылки
+     * (копия, если source и destination на разных файловых системах). С depth > 0
+     * переносятся только коммиты не дальше depth от веток и HEAD, а коммиты на границе
+     * записываются в .mygit/shallow. Из сегментов (objectStore=log) переписываются только
+     * достижимые объекты.
+     */
+    public static void cloneRepository(@NotNull Path source, @NotNull Path destination, int depth)
+            throws GitException, IOException, ClassNotFoundException {
+        RepositoryManager sourceManager = getRepositoryManager(source);
+        if (Files.exists(destination.resolve(myGitDirectory))) {
+            throw new GitException("Repository already exists");
+        }
+
+        Files.createDirectories(destination);
+        Files.createDirectory(destination.resolve(myGitDirectory));
+        Files.createDirectory(destination.resolve(objectsDirectory));
+        Files.createDirectory(destination.resolve(branchesDirectory));
+        Files.createFile(destination.resolve(index));
+        Files.createFile(destination.resolve(head));
+        RepositoryConfig.copy(sourceManager.commonRoot, destination);
+        if (sourceManager.objects instanceof LogObjectDatabase) {
+            Files.createDirectory(destination.resolve(segmentsDirectory));
+        }
+
+        RepositoryManager repositoryManager = new RepositoryManager(destination);
+        SortedMap<String, ObjectId> refs;
+        Branch headBranch;
+        try (RepositorySnapshot command = sourceManager.beginCommand(false)) {
+            refs = sourceManager.branches.getAll();
+            headBranch = sourceManager.getHeadBranch();
+        }
+        try (Statistics.Phase ignored = Statistics.phase("link objects")) {
+            if (depth <= 0 && sourceManager.objects instanceof FileObjectDatabase) {
+                try (Stream<Path> objects = Files.list(sourceManager.getObjectsDir())) {
+                    for (Path object : (Iterable<Path>) objects::iterator) {
+                        // недописанные объекты других процессов
+                        if (object.getFileName().toString().endsWith(".tmp")) {
+                            continue;
+                        }
+                        linkObject(object, repositoryManager.getObjectsDir().resolve(object.getFileName()));
+                    }
+                }
+            } else {
+                List<ObjectId> tips = new ArrayList<>(refs.values());
+                tips.add(headBranch.getCommitHash());
+                sourceManager.linkHistory(repositoryManager, tips, depth <= 0 ? Integer.MAX_VALUE : depth);
+            }
+            repositoryManager.objects.flush();
+            // объекты перенесены мимо ObjectInserter, поэтому список строится по папке
+            repositoryManager.createObjectList();
+        }
+        repositoryManager.branches.putPacked(refs);
+        try (RepositorySnapshot command = repositoryManager.beginCommand(true)) {
+            try (Statistics.Phase ignored = Statistics.phase("checkout tree")) {
+                repositoryManager.checkoutCommit(headBranch.getCommitHash());
+            }
+            repositoryManager.writeToHead(headBranch);
+            command.commit();
+        }
+    }
+
+    // обход в ширину, поэтому каждый коммит получает наименьшее расстояние от вершин
+    private void linkHistory(@NotNull RepositoryManager destination, @NotNull List<ObjectId> tips, int depth)
+            throws IOException, ClassNotFoundException {
+        Set<ObjectId> visited = new HashSet<>(tips);
+        List<ObjectId> level = new ArrayList<>(visited);
+        Set<ObjectId> shallowCommits = new TreeSet<>();
+        for (int distance = 0; distance < depth && !level.isEmpty(); distance++) {
+            List<ObjectId> nextLevel = new ArrayList<>();
+            for (ObjectId hash : level) {
+                Commit commit = readCommit(hash);
+                linkTree(destination, commit.getTree());
+                copyObject(destination, hash);
+                if (distance == depth - 1 && !commit.getParents().isEmpty()) {
+                    shallowCommits.add(hash);
+                }
+                for (ObjectId parent : commit.getParents()) {
+                    if (visited.add(parent)) {
+                        nextLevel.add(parent);
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        if (!shallowCommits.isEmpty()) {
+            StringBuilder content = new StringBuilder();
+            shallowCommits.forEach(hash -> content.append(hash).append('\n'));
+            Files.write(destination.root.resolve(shallow), content.toString().getBytes());
+        }
+    }
+
+    private void linkTree(@NotNull RepositoryManager destination, @NotNull Tree tree) throws IOException, ClassNotFoundException {
+        if (destination.objects.contains(tree.getHash())) {
+            return;
+        }
+        for (TreeEntry child : tree.getChildren()) {
+            if (child.isTree()) {
+                linkTree(destination, (Tree) tree.getChild(child.getHash()));
+            } else {
+                copyObject(destination, child.getHash());
+            }
+        }
+        // дерево ссылается последним, чтобы его наличие означало наличие всех детей
+        copyObject(destination, tree.getHash());
+    }
+
+    private void copyObject(@NotNull RepositoryManager destination, @NotNull ObjectId hash)
+            throws IOException, ClassNotFoundException {
+        if (objects instanceof FileObjectDatabase && destination.objects instanceof FileObjectDatabase) {
+            linkObject(getObjectsDir().resolve(hash.toString()), destination.getObjectsDir().resolve(hash.toString()));
+        } else if (!destination.objects.contains(hash)) {
+            destination.objects.insert(objects.read(hash));
+        }
+    }
+
+    private static void linkObject(@NotNull Path object, @NotNull Path target) throws IOException {
+        if (Files.exists(target)) {
+            return;
+        }
+        try {
+            Files.createLink(target, object);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(object, target);
+            Statistics.add(Statistics.Counter.BYTES_WRITTEN, Files.size(target));
+        }
+        Statistics.increment(Statistics.Counter.OBJECTS_WRITTEN);
+    }
+
     private void initialCommit() throws IOException {
-        Commit commit = new Commit(root, "Initial commit", new ArrayList<>());
-        Branch masterBranch = new Branch(root, "master", commit.getHash());
-        branches.add(masterBranch);
-        writeToHead(masterBranch);
+        Tree tree = new Tree(objects, root.getFileName().toString(), new ArrayList<>());
+        Commit commit = new Commit(objects, "Initial commit", new ArrayList<>(), tree);
+        Branch masterBranch = new Branch(MASTER, commit.getHash());
+        branches.put(masterBranch);
+        try (RepositorySnapshot command = beginCommand(true)) {
+            writeToHead(masterBranch);
+            command.commit();
+        }
     }
 
     public static RepositoryManager getRepositoryManager(@NotNull Path path) throws IOException, ClassNotFoundException, GitException {
+        RepositoryManager repositoryManager = openRepository(path);
+        if (!repositoryManager.hasContentBlobs()) {
+            if (StringHashFormat.isUsedBy(repositoryManager.commonRoot)) {
+                throw new GitException("Repository was written by the first version of mygit, run 'migrate' first");
+            }
+            throw new GitException("Repository stores file names in blobs, run 'migrate' first");
+        }
+        return repositoryManager;
+    }
+
+    private static @NotNull RepositoryManager openRepository(@NotNull Path path) throws IOException, GitException {
         Path myGitDir = path.resolve(myGitDirectory);
-        Path objDir = path.resolve(objectsDirectory);
-        Path branchesDir = path.resolve(branchesDirectory);
-        Path indexFile = path.resolve(index);
-        Path headFile = path.resolve(head);
         if (Files.notExists(myGitDir) || !Files.isDirectory(myGitDir)) {
             throw new GitException("Repository was not initialized");
         }
+        Path commonPath = readCommonRoot(path);
+        Path objDir = commonPath.resolve(objectsDirectory);
+        Path branchesDir = commonPath.resolve(branchesDirectory);
+        Path indexFile = path.resolve(index);
+        Path headFile = path.resolve(head);
         if (Files.notExists(objDir) || !Files.isDirectory(objDir)
                 || Files.notExists(branchesDir) || !Files.isDirectory(branchesDir)
                 || Files.notExists(indexFile) || Files.isDirectory(indexFile)
                 || Files.notExists(headFile) || Files.isDirectory(headFile)){
             throw new GitException("MyGit files are broken");
         }
-        RepositoryManager repositoryManager = new RepositoryManager(path);
-        List<Path> paths = Files.walk(branchesDir).collect(Collectors.toList());
-        for (Path file : paths) {
-            if (!Files.isDirectory(file)) {
-                Branch branch = (Branch) GitObject.read(file);
-                repositoryManager.addBranch(branch);
+        return new RepositoryManager(path, commonPath);
+    }
+
+    // у дополнительной рабочей копии в .mygit/commondir записан корень основного репозитория
+    private static @NotNull Path readCommonRoot(@NotNull Path path) throws IOException {
+        Path file = path.resolve(commonDir);
+        if (Files.notExists(file)) {
+            return path;
+        }
+        try {
+            return Paths.get(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading " + file);
+        }
+    }
+
+    // API над теми же файлами .mygit; ветки он читает через свой BranchRegistry
+    @NotNull Repository getRepository() {
+        return new Repository(root, objects, new BranchRegistry(commonRoot, root), indexStore);
+    }
+
+    private boolean hasContentBlobs() throws IOException {
+        return RepositoryConfig.CONTENT_BLOBS.equals(RepositoryConfig.forRepository(commonRoot).get(RepositoryConfig.BLOB_FORMAT));
+    }
+
+    /*
+     * Переводит репозиторий, в котором хеш блоба зависел от имени файла, на блобы по содержимому.
+     * Все достижимые коммиты создаются заново с теми же автором, датой и сообщением, ветки,
+     * HEAD и индексы всех рабочих копий, shallow и фильтры путей переводятся на новые хеши,
+     * кеш blame удаляется. Старые объекты остаются в хранилище. Если migrate прервался, его
+     * можно запустить снова: уже переписанные объекты при повторной записи не меняются.
+     * Хранилищу в файлах, у которого нет списка объектов, migrate его создает.
+     */
+    public static void migrateRepository(@NotNull Path path) throws GitException, IOException, ClassNotFoundException {
+        // migrate первой версии прервался между переносом старых объектов и созданием новой папки
+        Path commonPath = readCommonRoot(path);
+        if (Files.exists(commonPath.resolve(oldObjectsDirectory)) && Files.notExists(commonPath.resolve(objectsDirectory))) {
+            Files.createDirectory(commonPath.resolve(objectsDirectory));
+        }
+        RepositoryManager repositoryManager = new RepositoryManager(openRepository(path).commonRoot);
+        if (StringHashFormat.isUsedBy(repositoryManager.commonRoot)) {
+            repositoryManager.migrateFirstVersion();
+        }
+        boolean listed = !(repositoryManager.objects instanceof FileObjectDatabase) || ObjectList.exists(repositoryManager.commonRoot);
+        if (repositoryManager.hasContentBlobs() && listed) {
+            throw new GitException("Repository already uses content-only blobs");
+        }
+        if (!repositoryManager.hasContentBlobs()) {
+            repositoryManager.migrate();
+        }
+        if (!listed) {
+            repositoryManager.objects.flush();
+            repositoryManager.createObjectList();
+        }
+    }
+
+    // вызывается, пока в хранилище никто не пишет
+    private void createObjectList() throws IOException {
+        if (objects instanceof FileObjectDatabase) {
+            ObjectList.create(commonRoot, objects.list());
+            objects.refresh();
+        }
+    }
+
+    private void migrate() throws IOException, ClassNotFoundException {
+        Map<ObjectId, ObjectId> commits = new HashMap<>();
+        Map<ObjectId, Tree> trees = new HashMap<>();
+        Map<ObjectId, ObjectId> blobs = new HashMap<>();
+        List<RepositoryManager> worktrees = new ArrayList<>();
+        List<RepositorySnapshot> snapshots = new ArrayList<>();
+        try {
+            for (Path worktree : getWorktrees()) {
+                RepositoryManager repositoryManager = isCurrentWorktree(worktree) ? this : new RepositoryManager(worktree, commonRoot);
+                worktrees.add(repositoryManager);
+                snapshots.add(repositoryManager.beginCommand(true));
+            }
+            for (Map.Entry<String, ObjectId> ref : branches.getAll().entrySet()) {
+                branches.put(new Branch(ref.getKey(), migrateCommit(ref.getValue(), commits, trees, blobs)));
+            }
+            for (RepositoryManager worktree : worktrees) {
+                Branch branch = worktree.getHeadBranch();
+                worktree.writeToHead(new Branch(branch.getName(), migrateCommit(branch.getCommitHash(), commits, trees, blobs)));
+                List<Pair> entries = new ArrayList<>();
+                for (Pair pair : worktree.readIndex()) {
+                    entries.add(new Pair(pair.getPath(), migrateBlob(pair.getHash(), blobs)));
+                }
+                worktree.writePairsToIndex(entries);
+            }
+            Path shallowFile = root.resolve(shallow);
+            if (Files.exists(shallowFile)) {
+                StringBuilder content = new StringBuilder();
+                for (String line : Files.readAllLines(shallowFile)) {
+                    content.append(commits.getOrDefault(ObjectId.fromString(line), ObjectId.fromString(line))).append('\n');
+                }
+                LockFile.write(shallowFile, content.toString().getBytes());
+            }
+            // измененные пути коммита не зависят от хешей блобов
+            for (Map.Entry<ObjectId, ObjectId> commit : commits.entrySet()) {
+                Path oldFilter = root.resolve(bloomDirectory).resolve(commit.getKey().toString());
+                Path newFilter = root.resolve(bloomDirectory).resolve(commit.getValue().toString());
+                if (Files.exists(oldFilter) && Files.notExists(newFilter)) {
+                    Files.copy(oldFilter, newFilter);
+                }
+            }
+            if (Files.exists(root.resolve(blameDirectory))) {
+                try (Stream<Path> files = Files.list(root.resolve(blameDirectory))) {
+                    for (Path file : files.collect(Collectors.toList())) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            RepositoryConfig.forRepository(root).set(RepositoryConfig.BLOB_FORMAT, RepositoryConfig.CONTENT_BLOBS);
+            for (RepositorySnapshot snapshot : snapshots) {
+                snapshot.commit();
+            }
+        } finally {
+            for (RepositorySnapshot snapshot : snapshots) {
+                snapshot.close();
             }
         }
-        return repositoryManager;
     }
 
-    public void add(@NotNull Path path) throws GitException, IOException {
-        if (!Files.exists(path)) {
-            throw new GitException("File doesn't exist" + path);
+    /*
+     * Переводит репозиторий первой версии (StringHashFormat): блоб, дерево и коммит первой
+     * версии создаются заново в нынешнем формате с теми же автором, датой и сообщением, ветки
+     * становятся текстовыми, а ветка "~" первой версии (отделенный HEAD) остается только в HEAD.
+     * Старые объекты переносятся в .mygit/objects-old, а новые пишутся в пустую .mygit/objects:
+     * имя файла нового объекта может совпасть со старым, например у пустого дерева. В первой версии нет рабочих копий,
+     * shallow и фильтров путей. .mygit/objects-old удаляется последним, поэтому прерванный
+     * migrate можно запустить снова: уже переведенные ветки, HEAD и записи индекса
+     * ссылаются на объекты, которых нет в .mygit/objects-old, и остаются как есть.
+     */
+    private void migrateFirstVersion() throws IOException, ClassNotFoundException {
+        Path oldObjects = root.resolve(oldObjectsDirectory);
+        if (Files.notExists(oldObjects)) {
+            Files.move(getObjectsDir(), oldObjects);
+            Files.createDirectory(getObjectsDir());
+        }
+        Map<String, ObjectId> commits = new HashMap<>();
+        Map<String, TreeEntry> entries = new HashMap<>();
+        List<Path> detached = new ArrayList<>();
+        try (RepositorySnapshot command = beginCommand(true)) {
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(root.resolve(branchesDirectory))) {
+                files = stream.filter(file -> !file.getFileName().toString().endsWith(".lock")).collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                if (!StringHashFormat.isStream(file)) {
+                    continue;
+                }
+                StringHashFormat.Branch branch = (StringHashFormat.Branch) StringHashFormat.read(file);
+                if (branch.getName().equals(Branch.DETACHED)) {
+                    detached.add(file);
+                } else {
+                    branches.put(new Branch(branch.getName(), migrateFirstVersionCommit(branch.getCommitHash(), commits, entries)));
+                }
+            }
+            Branch head = getHeadBranch();
+            if (Files.exists(oldObjects.resolve(head.getCommitHash().toString()))) {
+                writeToHead(new Branch(head.getName(), migrateFirstVersionCommit(head.getCommitHash().toString(), commits, entries)));
+            }
+            List<Pair> pairs = new ArrayList<>();
+            for (Pair pair : readIndex()) {
+                ObjectId hash = pair.getHash();
+                if (Files.exists(oldObjects.resolve(hash.toString()))) {
+                    hash = migrateFirstVersionEntry(hash.toString(), entries).getHash();
+                }
+                pairs.add(new Pair(pair.getPath(), hash));
+            }
+            writePairsToIndex(pairs);
+            command.commit();
+        }
+        RepositoryConfig.forRepository(root).set(RepositoryConfig.BLOB_FORMAT, RepositoryConfig.CONTENT_BLOBS);
+        for (Path file : detached) {
+            Files.delete(file);
+        }
+        try (Stream<Path> files = Files.list(oldObjects)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(oldObjects);
+    }
+
+    private @NotNull ObjectId migrateFirstVersionCommit(@NotNull String hash, @NotNull Map<String, ObjectId> commits,
+                                                        @NotNull Map<String, TreeEntry> entries)
+            throws IOException, ClassNotFoundException {
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(hash);
+        while (!stack.isEmpty()) {
+            String current = stack.peek();
+            if (commits.containsKey(current)) {
+                stack.pop();
+                continue;
+            }
+            StringHashFormat.Commit commit = (StringHashFormat.Commit) StringHashFormat.read(root.resolve(oldObjectsDirectory).resolve(current));
+            boolean parentsMigrated = true;
+            for (String parent : commit.getParents()) {
+                if (!commits.containsKey(parent)) {
+                    stack.push(parent);
+                    parentsMigrated = false;
+                }
+            }
+            if (!parentsMigrated) {
+                continue;
+            }
+            stack.pop();
+            List<ObjectId> parents = new ArrayList<>();
+            for (String parent : commit.getParents()) {
+                parents.add(commits.get(parent));
+            }
+            Tree tree = migrateFirstVersionTree(commit.getTree(), entries);
+            commits.put(current, new Commit(objects, commit.getMessage(), commit.getAuthor(), commit.getDate(), parents, tree).getHash());
         }
+        return commits.get(hash);
+    }
 
-        Blob blob;
-        blob = new Blob(root, Files.readAllBytes(path), path.getFileName().toString());
-        List<String> lines = Files.readAllLines(getIndex());
-        String hash = blob.getHash();
-        StringBuilder file = new StringBuilder();
-        for (String line: lines) {
-            String[] strings = line.split(" ");
-            if (strings[0].equals(path.toString())) {
+    private @NotNull Tree migrateFirstVersionTree(@NotNull StringHashFormat.Tree tree, @NotNull Map<String, TreeEntry> entries)
+            throws IOException, ClassNotFoundException {
+        List<TreeEntry> children = new ArrayList<>();
+        for (String child : tree.getChildren()) {
+            children.add(migrateFirstVersionEntry(child, entries));
+        }
+        return new Tree(objects, tree.getDirectoryName(), children);
+    }
+
+    // имя блоба или дерева первой версии входит в его хеш, поэтому запись зависит только от хеша
+    private @NotNull TreeEntry migrateFirstVersionEntry(@NotNull String hash, @NotNull Map<String, TreeEntry> entries)
+            throws IOException, ClassNotFoundException {
+        TreeEntry entry = entries.get(hash);
+        if (entry != null) {
+            return entry;
+        }
+        Object object = StringHashFormat.read(root.resolve(oldObjectsDirectory).resolve(hash));
+        if (object instanceof StringHashFormat.Tree) {
+            StringHashFormat.Tree tree = (StringHashFormat.Tree) object;
+            entry = new TreeEntry(tree.getDirectoryName(), GitObject.Type.TREE, migrateFirstVersionTree(tree, entries).getHash());
+        } else {
+            StringHashFormat.Blob blob = (StringHashFormat.Blob) object;
+            entry = new TreeEntry(blob.getFileName(), GitObject.Type.BLOB, new Blob(objects, blob.getContent()).getHash());
+        }
+        entries.put(hash, entry);
+        return entry;
+    }
+
+    // родители переписываются раньше детей; отсутствующие в неглубоком клоне родители остаются как есть
+    private @NotNull ObjectId migrateCommit(@NotNull ObjectId hash, @NotNull Map<ObjectId, ObjectId> commits,
+                                            @NotNull Map<ObjectId, Tree> trees, @NotNull Map<ObjectId, ObjectId> blobs)
+            throws IOException, ClassNotFoundException {
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(hash);
+        while (!stack.isEmpty()) {
+            ObjectId current = stack.peek();
+            if (commits.containsKey(current)) {
+                stack.pop();
                 continue;
             }
-            file.append(line).append("\n");
+            if (!objects.contains(current)) {
+                commits.put(current, current);
+                stack.pop();
+                continue;
+            }
+            Commit commit = readCommit(current);
+            boolean parentsMigrated = true;
+            for (ObjectId parent : commit.getParents()) {
+                if (!commits.containsKey(parent)) {
+                    stack.push(parent);
+                    parentsMigrated = false;
+                }
+            }
+            if (!parentsMigrated) {
+                continue;
+            }
+            stack.pop();
+            List<ObjectId> parents = new ArrayList<>();
+            for (ObjectId parent : commit.getParents()) {
+                parents.add(commits.get(parent));
+            }
+            commits.put(current, commit.rewrite(objects, parents, migrateTree(commit.getTree(), trees, blobs)).getHash());
         }
-        file.append(path).append(" ").append(hash).append("\n");
+        return commits.get(hash);
+    }
 
-        OutputStream outputStream = Files.newOutputStream(getIndex());
-        outputStream.write(file.toString().getBytes());
-        outputStream.close();
+    private @NotNull Tree migrateTree(@NotNull Tree tree, @NotNull Map<ObjectId, Tree> trees,
+                                      @NotNull Map<ObjectId, ObjectId> blobs) throws IOException, ClassNotFoundException {
+        Tree migrated = trees.get(tree.getHash());
+        if (migrated != null) {
+            return migrated;
+        }
+        List<TreeEntry> children = new ArrayList<>();
+        for (TreeEntry child : tree.getChildren()) {
+            ObjectId hash = child.isTree()
+                    ? migrateTree((Tree) tree.getChild(child.getHash()), trees, blobs).getHash()
+                    : migrateBlob(child.getHash(), blobs);
+            children.add(new TreeEntry(child.getName(), child.getType(), hash));
+        }
+        migrated = new Tree(objects, tree.getDirectoryName(), children);
+        trees.put(tree.getHash(), migrated);
+        return migrated;
     }
 
-    public void commit(@NotNull String message) throws IOException, ClassNotFoundException {
-        List<String> lines;
+    private @NotNull ObjectId migrateBlob(@NotNull ObjectId hash, @NotNull Map<ObjectId, ObjectId> blobs)
+            throws IOException, ClassNotFoundException {
+        ObjectId migrated = blobs.get(hash);
+        if (migrated == null) {
+            Blob blob = (Blob) objects.read(hash);
+            migrated = new Blob(objects, blob.getContent()).getHash();
+            blobs.put(hash, migrated);
+        }
+        return migrated;
+    }
+
+    /*
+     * Удаляет из хранилища объекты, недостижимые из веток, HEAD и индексов всех рабочих копий,
+     * и возвращает их число. Пока идет gc, индексы рабочих копий заблокированы.
+     */
+    public long gc() throws IOException, ClassNotFoundException {
+        List<RepositorySnapshot> snapshots = new ArrayList<>();
         try {
-            lines = Files.readAllLines(getIndex());
-        } catch (IOException e) {
-            throw new IOException("IOException occurred while reading the Index file:" + getIndex().toString());
-        }
-
-        List<Pair> pathsAndHashes = new ArrayList<>();
-        for (String line : lines) {
-            String[] strings = line.split(" ");
-            pathsAndHashes.add(new Pair(Paths.get(strings[0]), strings[1]));
-        }
-        Tree tree = buildCommitTree(pathsAndHashes);
-        List<String> parents = new ArrayList<>();
-        Branch branch = getHeadBranch();
-        parents.add(getHeadCommit().getHash());
-        removeFromBranches(branch);
-        Commit commit = new Commit(root, message, parents, tree);
-        branch.setCommit(commit.getHash());
-        writeToHead(commit.getHash());
-        clearIndex();
-        branches.add(branch);
-        if (DEBUG_MODE) debugOutput();
+            Set<ObjectId> live = new HashSet<>();
+            Deque<ObjectId> commits = new ArrayDeque<>();
+            for (Path worktree : getWorktrees()) {
+                RepositoryManager repositoryManager = isCurrentWorktree(worktree) ? this : new RepositoryManager(worktree, commonRoot);
+                snapshots.add(repositoryManager.beginCommand(true));
+                commits.add(repositoryManager.getHeadBranch().getCommitHash());
+                for (Pair pair : repositoryManager.readIndex()) {
+                    live.add(pair.getHash());
+                }
+            }
+            commits.addAll(branches.getAll().values());
+            try (Statistics.Phase ignored = Statistics.phase("mark")) {
+                while (!commits.isEmpty()) {
+                    ObjectId hash = commits.pop();
+                    // в неглубоком клоне родителей на границе истории нет
+                    if (!objects.contains(hash) || !live.add(hash)) {
+                        continue;
+                    }
+                    Commit commit = readCommit(hash);
+                    commits.addAll(commit.getParents());
+                    markTree(commit.getTree(), live);
+                }
+            }
+            try (Statistics.Phase ignored = Statistics.phase("compact")) {
+                return objects.compact(live);
+            }
+        } finally {
+            for (RepositorySnapshot snapshot : snapshots) {
+                snapshot.close();
+            }
+        }
     }
 
-    private void removeFromBranches(@NotNull Branch branch) {
-        branches.removeIf(b -> b.getName().equals(branch.getName()));
+    private static void markTree(@NotNull Tree tree, @NotNull Set<ObjectId> live) throws IOException, ClassNotFoundException {
+        if (!live.add(tree.getHash())) {
+            return;
+        }
+        for (TreeEntry child : tree.getChildren()) {
+            if (child.isTree()) {
+                markTree((Tree) tree.getChild(child.getHash()), live);
+            } else {
+                live.add(child.getHash());
+            }
+        }
+    }
+
+    /*
+     * Проверяет все объекты хранилища и ссылки на них из веток, а также из HEAD и индексов
+     * всех рабочих копий. Ничего не меняет и блокировок не берет.
+     */
+    public @NotNull Fsck fsck() throws IOException {
+        objects.flush();
+        Map<String, ObjectId> commitRefs = new TreeMap<>();
+        Map<String, ObjectId> blobRefs = new TreeMap<>();
+        for (Path worktree : getWorktrees()) {
+            RepositoryManager repositoryManager = isCurrentWorktree(worktree) ? this : new RepositoryManager(worktree, commonRoot);
+            String prefix = isCurrentWorktree(worktree) ? "" : "worktree " + root.relativize(worktree).toString().replace('\\', '/') + " ";
+            try (RepositorySnapshot ignored = repositoryManager.beginCommand(false)) {
+                commitRefs.put(prefix + "HEAD", repositoryManager.getHeadBranch().getCommitHash());
+                for (Pair pair : repositoryManager.readIndex()) {
+                    String path = worktree.relativize(pair.getPath()).toString().replace('\\', '/');
+                    blobRefs.put(prefix + "index entry " + path, pair.getHash());
+                }
+            }
+        }
+        for (Map.Entry<String, ObjectId> branch : branches.getAll().entrySet()) {
+            commitRefs.put("branch " + branch.getKey(), branch.getValue());
+        }
+        Set<ObjectId> shallowCommits = new HashSet<>();
+        Path shallowFile = commonRoot.resolve(shallow);
+        if (Files.exists(shallowFile)) {
+            for (String line : Files.readAllLines(shallowFile)) {
+                if (!line.isEmpty()) {
+                    shallowCommits.add(ObjectId.fromString(line));
+                }
+            }
+        }
+        Fsck fsck = new Fsck(objects, shallowCommits);
+        fsck.check(commitRefs, blobRefs);
+        return fsck;
+    }
+
+    /*
+     * Создает в path рабочую копию с собственными HEAD и индексом на ветке branchName.
+     * Объекты, ветки и настройки остаются общими с этим репозиторием.
+     * Одна ветка не может быть выгружена в две рабочие копии одновременно.
+     */
+    public void addWorktree(@NotNull Path path, @NotNull String branchName) throws GitException, IOException, ClassNotFoundException {
+        Branch branch;
+        try (RepositorySnapshot command = beginCommand(false)) {
+            branch = branches.get(branchName);
+            if (branch == null) {
+                throw new GitException("Branch " + branchName + " doesn't exist");
+            }
+            checkNotCheckedOut(branchName, true);
+        }
+        if (Files.exists(path.resolve(myGitDirectory))) {
+            throw new GitException("Repository already exists");
+        }
+
+        Files.createDirectories(path);
+        Files.createDirectory(path.resolve(myGitDirectory));
+        Files.createFile(path.resolve(index));
+        Files.createFile(path.resolve(head));
+        Files.write(path.resolve(commonDir), commonRoot.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+
+        Path worktrees = commonRoot.resolve(worktreesDirectory);
+        Files.createDirectories(worktrees);
+        String name = path.getFileName().toString();
+        Path entry = worktrees.resolve(name);
+        for (int i = 1; Files.exists(entry); i++) {
+            entry = worktrees.resolve(name + "-" + i);
+        }
+        Files.write(entry, path.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+
+        RepositoryManager worktree = new RepositoryManager(path, commonRoot);
+        try (RepositorySnapshot command = worktree.beginCommand(true)) {
+            worktree.checkoutCommit(branch.getCommitHash());
+            worktree.writeToHead(branch);
+            command.commit();
+        }
+    }
+
+    // основная рабочая копия первой, затем дополнительные; удаленные папки пропускаются
+    public @NotNull List<Path> getWorktrees() throws IOException {
+        List<Path> worktrees = new ArrayList<>();
+        worktrees.add(commonRoot);
+        Path directory = commonRoot.resolve(worktreesDirectory);
+        if (Files.notExists(directory)) {
+            return worktrees;
+        }
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(directory)) {
+            entries = files.sorted().collect(Collectors.toList());
+        }
+        for (Path entry : entries) {
+            Path worktree = Paths.get(new String(Files.readAllBytes(entry), StandardCharsets.UTF_8).trim());
+            if (Files.exists(worktree.resolve(head))) {
+                worktrees.add(worktree);
+            }
+        }
+        return worktrees;
+    }
+
+    public @NotNull String getWorktreeBranch(@NotNull Path worktree) throws IOException {
+        if (isCurrentWorktree(worktree)) {
+            try (RepositorySnapshot command = beginCommand(false)) {
+                return getHeadBranch().getName();
+            }
+        }
+        List<String> lines = Files.readAllLines(worktree.resolve(head));
+        return lines.isEmpty() ? "" : lines.get(0);
+    }
+
+    // текущая рабочая копия проверяется только при создании новой
+    private void checkNotCheckedOut(@NotNull String branchName, boolean includeCurrent) throws GitException, IOException {
+        for (Path worktree : getWorktrees()) {
+            if ((includeCurrent || !isCurrentWorktree(worktree)) && getWorktreeBranch(worktree).equals(branchName)) {
+                throw new GitException("Branch '" + branchName + "' is already checked out at " + worktree);
+            }
+        }
+    }
+
+    private boolean isCurrentWorktree(@NotNull Path worktree) {
+        return worktree.toAbsolutePath().normalize().equals(root.toAbsolutePath().normalize());
+    }
+
+    public void add(@NotNull Path path) throws GitException, IOException, ClassNotFoundException {
+        add(Collections.singletonList(path));
+    }
+
+    /*
+     * Папки добавляются рекурсивно, игнорируемые файлы в них пропускаются.
+     * Файлы хешируются и записываются в хранилище параллельно, индекс читается
+     * и переписывается один раз.
+     */
+    public void add(@NotNull Collection<Path> paths) throws GitException, IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            addLocked(paths);
+            command.commit();
+        }
+    }
+
+    private void addLocked(@NotNull Collection<Path> paths) throws GitException, IOException, ClassNotFoundException {
+        List<Pair> entries = readIndex();
+        TrackedPaths tracked = new TrackedPaths(null, entries.stream().map(Pair::getPath).collect(Collectors.toList()));
+        List<Path> files = new ArrayList<>();
+        for (Path path : paths) {
+            if (!Files.exists(path)) {
+                throw new GitException("File doesn't exist" + path);
+            }
+            if (!path.startsWith(root) || path.startsWith(root.resolve(myGitDirectory))) {
+                throw new GitException("Wrong directory");
+            }
+            IgnoreRules ignoreRules = getIgnoreRules(path);
+            if (ignoreRules == null && !tracked.contains(path)) {
+                throw new GitException("Path '" + root.relativize(path) + "' is ignored by " + ignoreFile);
+            }
+            collectFiles(path, ignoreRules == null ? IgnoreRules.load(root) : ignoreRules, tracked, files);
+        }
+
+        List<Pair> added;
+        try (Statistics.Phase ignored = Statistics.phase("hash files")) {
+            added = files.parallelStream()
+                    .distinct()
+                    .map(file -> {
+                        try {
+                            Statistics.increment(Statistics.Counter.FILES_SCANNED);
+                            byte[] content = Files.readAllBytes(file);
+                            Statistics.add(Statistics.Counter.BYTES_READ, content.length);
+                            return new Pair(file, new Blob(objects, content).getHash());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Set<Path> addedPaths = added.stream().map(Pair::getPath).collect(Collectors.toSet());
+        entries.removeIf(entry -> addedPaths.contains(entry.getPath()));
+        entries.addAll(added);
+        writePairsToIndex(entries);
+    }
+
+    // ignoreRules -- правила, действующие внутри path, если это папка
+    private void collectFiles(@NotNull Path path, @NotNull IgnoreRules ignoreRules, @NotNull TrackedPaths tracked,
+                              @NotNull List<Path> files) throws IOException, ClassNotFoundException {
+        if (!Files.isDirectory(path)) {
+            files.add(path);
+            return;
+        }
+        for (Path child : getRootFiles(path, ignoreRules, tracked)) {
+            collectFiles(child, Files.isDirectory(child) ? ignoreRules.enter(child) : ignoreRules, tracked, files);
+        }
+    }
+
+    /*
+     * Правила для path с учетом .mygitignore всех папок от корня до path включительно.
+     * null, если игнорируется сам path или одна из папок на пути к нему.
+     */
+    private @Nullable IgnoreRules getIgnoreRules(@NotNull Path path) throws IOException {
+        IgnoreRules ignoreRules = IgnoreRules.load(root);
+        if (path.equals(root)) {
+            return ignoreRules;
+        }
+        Path current = root;
+        for (Path name : root.relativize(path)) {
+            current = current.resolve(name);
+            boolean isDirectory = Files.isDirectory(current);
+            if (ignoreRules.isIgnored(current, isDirectory)) {
+                return null;
+            }
+            if (isDirectory) {
+                ignoreRules = ignoreRules.enter(current);
+            }
+        }
+        return ignoreRules;
+    }
+
+    /*
+     * Аргументы команд add и rm: пути относительно корня репозитория или glob-шаблоны
+     * (*, ?, [...], {...}). Шаблон сопоставляется с файлами рабочей копии и индекса.
+     */
+    public @NotNull List<Path> resolvePathspecs(@NotNull List<String> pathspecs)
+            throws GitException, IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            List<Path> paths = new ArrayList<>();
+            List<Path> candidates = null;
+            for (String pathspec : pathspecs) {
+                if (!isGlob(pathspec)) {
+                    paths.add(root.resolve(pathspec).toAbsolutePath().normalize());
+                    continue;
+                }
+                if (candidates == null) {
+                    Set<Path> files = new LinkedHashSet<>();
+                    List<Path> indexFiles = readIndex().stream().map(Pair::getPath).collect(Collectors.toList());
+                    List<Path> workingTree = new ArrayList<>();
+                    collectFiles(root, IgnoreRules.load(root), new TrackedPaths(null, indexFiles), workingTree);
+                    files.addAll(workingTree);
+                    files.addAll(indexFiles);
+                    candidates = new ArrayList<>(files);
+                }
+                PathMatcher matcher = root.getFileSystem().getPathMatcher("glob:" + pathspec);
+                int matched = 0;
+                for (Path candidate : candidates) {
+                    if (matcher.matches(root.relativize(candidate))) {
+                        paths.add(candidate);
+                        matched++;
+                    }
+                }
+                if (matched == 0) {
+                    throw new GitException("Pathspec '" + pathspec + "' did not match any files");
+                }
+            }
+            return paths;
+        }
+    }
+
+    private static boolean isGlob(@NotNull String pathspec) {
+        return pathspec.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+
+    public void commit(@NotNull String message) throws IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            commitLocked(message);
+            command.commit();
+        }
+    }
+
+    private void commitLocked(@NotNull String message) throws IOException, ClassNotFoundException {
+        List<Pair> pathsAndHashes = readIndex();
+        Tree tree;
+        try (Statistics.Phase ignored = Statistics.phase("build tree")) {
+            tree = buildCommitTree(pathsAndHashes);
+        }
+        List<ObjectId> parents = new ArrayList<>();
+        parents.add(getHeadBranch().getCommitHash());
+        Commit commit = new Commit(objects, message, parents, tree);
+        // измененные пути -- это пути из индекса, деревья для фильтра не сравниваются
+        ChangedPathFilter.create(pathsAndHashes.stream()
+                .map(pair -> root.relativize(pair.getPath()).toString().replace('\\', '/'))
+                .collect(Collectors.toList())).write(commonRoot, commit.getHash());
+        moveHead(commit.getHash());
+        clearIndex();
+        if (DEBUG_MODE) debugOutput();
     }
 
     private Tree buildCommitTree(@NotNull List<Pair> pathsAndHashes) throws IOException, ClassNotFoundException {
         Tree tree = getHeadCommit().getTree();
         for (Pair pair : pathsAndHashes) {
-            tree = tree.addPathToTree(root.relativize(pair.getPath()), pair.getString());
+            tree = tree.addPathToTree(root.relativize(pair.getPath()), pair.getHash());
         }
         return tree;
     }
 
-    private void clearIndex() throws IOException {
-        try {
-            OutputStream outputStream = Files.newOutputStream(getIndex());
-            outputStream.write(new byte[0]);
-            outputStream.close();
-        } catch (IOException e) {
-            throw new IOException("IOException occurred while cleaning the Index file:" + getIndex().toString());
-        }
+    private void clearIndex() {
+        writePairsToIndex(new ArrayList<>());
     }
 
     public LogObject log() throws IOException, ClassNotFoundException {
-        Commit lastCommit = (Commit) GitObject.read(getObjectsDir().resolve(getHeadBranch().getCommitHash()));
-        List<Commit> commitsInLog = lastCommit.getLog();
-        List<Commit> uniqueCommits = new ArrayList<>();
-        Set<String> hashes = new HashSet<>();
-        for (Commit commit : commitsInLog) {
-            if (!hashes.contains(commit.getHash())) {
-                uniqueCommits.add(commit);
+        try (RepositorySnapshot command = beginCommand(false)) {
+            Commit lastCommit = readCommit(getHeadBranch().getCommitHash());
+            List<Commit> commitsInLog = lastCommit.getLog();
+            List<Commit> uniqueCommits = new ArrayList<>();
+            Set<ObjectId> hashes = new HashSet<>();
+            for (Commit commit : commitsInLog) {
+                if (!hashes.contains(commit.getHash())) {
+                    uniqueCommits.add(commit);
+                }
+                hashes.add(commit.getHash());
             }
-            hashes.add(commit.getHash());
+            uniqueCommits.sort(Comparator.reverseOrder());
+            return new LogObject(uniqueCommits, getCurrentBranchesName());
         }
-        uniqueCommits.sort(Comparator.reverseOrder());
-        return new LogObject(uniqueCommits, getCurrentBranchesName());
     }
 
-    public Status getStatus() throws IOException, ClassNotFoundException {
-        if (getHeadBranch().getName().equals("~")) {
-            return null;
+    /*
+     * Коммиты, изменившие файл или папку path. Коммит, у которого запись по path совпадает
+     * с одним из родителей, пропускается, и история дальше идет только через этого родителя.
+     * Совпадение с первым родителем сначала проверяется по ChangedPathFilter без чтения деревьев;
+     * недостающие фильтры (например, после clone) строятся и сохраняются по ходу обхода.
+     */
+    public LogObject log(@NotNull Path path) throws IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            Path relativePath = root.relativize(path);
+            if (relativePath.toString().isEmpty()) {
+                return log();
+            }
+            String filterPath = relativePath.toString().replace('\\', '/');
+            Map<ObjectId, Optional<ObjectId>> entryHashes = new HashMap<>();
+            List<Commit> commitsInLog = new ArrayList<>();
+            Set<ObjectId> visited = new HashSet<>();
+            Deque<Commit> queue = new ArrayDeque<>();
+            queue.add(getHeadCommit());
+            while (!queue.isEmpty()) {
+                Commit commit = queue.poll();
+                if (!visited.add(commit.getHash())) {
+                    continue;
+                }
+                List<Commit> parents = new ArrayList<>();
+                for (ObjectId parentHash : commit.getParents()) {
+                    // в неглубоком клоне родителей на границе истории нет
+                    if (objects.contains(parentHash)) {
+                        parents.add(readCommit(parentHash));
+                    }
+                }
+                Commit sameParent = null;
+                for (int i = 0; i < parents.size() && sameParent == null; i++) {
+                    Commit parent = parents.get(i);
+                    if (i == 0 && !getChangedPathFilter(commit, parent).mightContain(filterPath)) {
+                        Statistics.increment(Statistics.Counter.COMMITS_FILTERED);
+                        sameParent = parent;
+                    } else if (Objects.equals(getEntryHash(commit, relativePath, entryHashes),
+                            getEntryHash(parent, relativePath, entryHashes))) {
+                        sameParent = parent;
+                    }
+                }
+                if (sameParent != null) {
+                    queue.add(sameParent);
+                    continue;
+                }
+                if (!parents.isEmpty() || getEntryHash(commit, relativePath, entryHashes) != null) {
+                    commitsInLog.add(commit);
+                }
+                queue.addAll(parents);
+            }
+            commitsInLog.sort(Comparator.reverseOrder());
+            return new LogObject(commitsInLog, getCurrentBranchesName());
         }
-        Status status = new Status();
-        fillStatusInDir(status, root);
-        getRemovedFiles(status);
+    }
 
-        return status;
+    private @NotNull ChangedPathFilter getChangedPathFilter(@NotNull Commit commit, @NotNull Commit firstParent)
+            throws IOException, ClassNotFoundException {
+        ChangedPathFilter filter = ChangedPathFilter.read(commonRoot, commit.getHash());
+        if (filter == null) {
+            filter = ChangedPathFilter.compute(commit.getTree(), firstParent.getTree());
+            filter.write(commonRoot, commit.getHash());
+        }
+        return filter;
     }
 
-    private void fillStatusInDir(Status status, Path folder) throws IOException, ClassNotFoundException {
-        List<Path> folderFiles = getRootFiles(folder);
+    private static @Nullable ObjectId getEntryHash(@NotNull Commit commit, @NotNull Path relativePath,
+                                                   @NotNull Map<ObjectId, Optional<ObjectId>> entryHashes)
+            throws IOException, ClassNotFoundException {
+        Optional<ObjectId> entryHash = entryHashes.get(commit.getHash());
+        if (entryHash == null) {
+            TreeEntry entry = commit.getTree().getEntry(relativePath);
+            entryHash = Optional.ofNullable(entry == null ? null : entry.getHash());
+            entryHashes.put(commit.getHash(), entryHash);
+        }
+        return entryHash.orElse(null);
+    }
 
-        for (Path folderFile : folderFiles) {
-            if (Files.isDirectory(folderFile)) {
-                fillStatusInDir(status, folderFile);
+    /*
+     * Дерево HEAD и индекс разворачиваются в словари путь -> хеш один раз,
+     * дальше каждый файл рабочей копии проверяется за O(1).
+     */
+    public Status getStatus() throws IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            if (getHeadBranch().isDetached()) {
+                return null;
+            }
+            Status status = new Status();
+            Map<Path, ObjectId> headFiles = toMap(getHeadFiles().getPairs(root, getSparseCheckout()));
+            Map<Path, ObjectId> indexFiles = toMap(readIndex());
+            TrackedPaths tracked = new TrackedPaths(headFiles.keySet(), indexFiles.keySet());
+            UntrackedCache cache = UntrackedCache.load(root);
+            try (Statistics.Phase ignored = Statistics.phase("scan working tree")) {
+                fillStatusInDir(status, root, IgnoreRules.load(root), tracked, headFiles, indexFiles, cache);
+            }
+            cache.write();
+            try (Statistics.Phase ignored = Statistics.phase("find removed files")) {
+                getRemovedFiles(status, headFiles, indexFiles);
+            }
+
+            return status;
+        }
+    }
+
+    private static @NotNull Map<Path, ObjectId> toMap(@NotNull List<Pair> pairs) {
+        Map<Path, ObjectId> result = new HashMap<>();
+        for (Pair pair : pairs) {
+            result.put(pair.getPath(), pair.getHash());
+        }
+        return result;
+    }
+
+    /*
+     * Игнорируемые папки не обходятся, игнорируемые файлы не хешируются. Неотслеживаемые
+     * файлы тоже не хешируются: они неотслеживаемые при любом содержимом. Содержимое папки,
+     * которая не менялась с прошлого status, берется из UntrackedCache.
+     */
+    private void fillStatusInDir(Status status, Path folder, IgnoreRules ignoreRules, TrackedPaths tracked,
+                                 Map<Path, ObjectId> headFiles, Map<Path, ObjectId> indexFiles, UntrackedCache cache)
+            throws IOException, ClassNotFoundException {
+        HashAlgorithm hashAlgorithm = HashAlgorithm.forRepository(commonRoot);
+
+        for (UntrackedCache.Entry entry : listDirectory(folder, ignoreRules, cache)) {
+            Path folderFile = folder.resolve(entry.getName());
+            if (entry.isIgnored() && !tracked.contains(folderFile)) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                // вложенные репозитории и рабочие копии не считаются файлами этого репозитория
+                if (Files.notExists(folderFile.resolve(myGitDirectory))) {
+                    fillStatusInDir(status, folderFile, ignoreRules.enter(folderFile), tracked, headFiles, indexFiles, cache);
+                }
+            } else if (!headFiles.containsKey(folderFile) && !indexFiles.containsKey(folderFile)) {
+                Statistics.increment(Statistics.Counter.FILES_SCANNED);
+                status.addNotTrackedFiles(folderFile);
             } else {
-                String blobHash = Blob.getFileHash(folderFile);
-                if (!Blob.exist(blobHash, getObjectsDir())) {
-                    addNotBlobbedFile(status, folderFile);
+                Statistics.increment(Statistics.Counter.FILES_SCANNED);
+                ObjectId blobHash = Blob.getFileHash(hashAlgorithm, folderFile);
+                if (!objects.contains(blobHash)) {
+                    addNotBlobbedFile(status, folderFile, headFiles);
                 } else {
-                    addBlobbedFile(status, folderFile);
+                    addBlobbedFile(status, folderFile, blobHash, headFiles, indexFiles);
                 }
             }
         }
     }
 
-    private void getRemovedFiles(Status status) throws IOException, ClassNotFoundException {
-        List<Pair> files = getHeadCommit().getTree().getPairs(root);
-        for (Pair pair : files) {
-            Path filePath = pair.getPath();
+    private void getRemovedFiles(Status status, Map<Path, ObjectId> headFiles, Map<Path, ObjectId> indexFiles) {
+        for (Path filePath : headFiles.keySet()) {
             boolean fileIsRemovedFromDisk = Files.notExists(filePath);
-            boolean fileIsNotInIndex = getFileHashInIndex(filePath) == null;
+            boolean fileIsNotInIndex = !indexFiles.containsKey(filePath);
 
             if (fileIsRemovedFromDisk && fileIsNotInIndex) {
                 status.addDeletedFiles(filePath);
@@ -202,17 +1082,19 @@ public class RepositoryManager {
         }
     }
 
-    private void addNotBlobbedFile(Status status, Path folderFile) throws IOException, ClassNotFoundException {
-        if (fileExistInCurrentCommit(folderFile)) {
+    private void addNotBlobbedFile(Status status, Path folderFile, Map<Path, ObjectId> headFiles) {
+        if (headFiles.containsKey(folderFile)) {
             status.addNotStagedFiles(folderFile);
         } else {
             status.addNotTrackedFiles(folderFile);
         }
     }
 
-    private void addBlobbedFile(Status status, Path folderFile) throws IOException, ClassNotFoundException {
-        String indexHash = getFileHashInIndex(folderFile);
-        String commitHash = getFileHashInCommit(folderFile);
+    // блоб с таким содержимым может принадлежать и другому файлу
+    private void addBlobbedFile(Status status, Path folderFile, ObjectId blobHash, Map<Path, ObjectId> headFiles,
+                                Map<Path, ObjectId> indexFiles) {
+        ObjectId indexHash = indexFiles.get(folderFile);
+        ObjectId commitHash = headFiles.get(folderFile);
 
         if (indexHash != null) {
             if (indexHash.equals(commitHash)) {
@@ -222,160 +1104,284 @@ public class RepositoryManager {
             }
         } else if (commitHash == null) {
             status.addNotTrackedFiles(folderFile);
+        } else if (!commitHash.equals(blobHash)) {
+            status.addNotStagedFiles(folderFile);
         }
     }
 
-    private String getFileHashInIndex(Path folderFile) throws IOException {
-        List<String> lines = Files.readAllLines(getIndex());
-        String fileName = root.resolve(folderFile).normalize().toString();
-        for (String line: lines) {
-            String[] strings = line.split(" ");
-            if (strings[0].equals(fileName)) {
-                return strings[1];
+    // время изменения папки читается до ее содержимого, поэтому запись кеша не новее папки
+    private @NotNull List<UntrackedCache.Entry> listDirectory(@NotNull Path folder, @NotNull IgnoreRules ignoreRules,
+                                                            @NotNull UntrackedCache cache) throws IOException {
+        String path = root.relativize(folder).toString().replace('\\', '/');
+        long modified = Files.getLastModifiedTime(folder).toMillis();
+        List<UntrackedCache.Entry> entries = cache.get(path, modified, ignoreRules.getRulesHash());
+        if (entries != null) {
+            return entries;
+        }
+        Statistics.increment(Statistics.Counter.DIRECTORIES_LISTED);
+        long listedAt = System.currentTimeMillis();
+        Path myGit = root.resolve(myGitDirectory);
+        entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.equals(myGit)) {
+                    continue;
+                }
+                boolean directory = Files.isDirectory(file);
+                entries.add(new UntrackedCache.Entry(file.getFileName().toString(), directory, ignoreRules.isIgnored(file, directory)));
             }
         }
-        return null;
+        cache.put(path, modified, ignoreRules.getRulesHash(), entries, listedAt);
+        return entries;
     }
 
-    private String getFileHashInCommit(Path folderFile) throws IOException, ClassNotFoundException {
-        Blob blob = getHeadCommit().getTree().getBlob(folderFile.getFileName().toString());
-        if (blob != null) {
-            return blob.getHash();
+    private @NotNull List<Path> getRootFiles(Path folder, IgnoreRules ignoreRules, TrackedPaths tracked)
+            throws IOException, ClassNotFoundException {
+        Path myGit = root.resolve(myGitDirectory);
+        List<Path> rootFiles;
+        try (Stream<Path> files = Files.list(folder)) {
+            rootFiles = files
+                    .filter(f -> {
+                        try {
+                            return !Files.isSameFile(f, myGit);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                        return false;
+                    })
+                    // вложенные репозитории и рабочие копии не считаются файлами этого репозитория
+                    .filter(f -> !Files.isDirectory(f) || Files.notExists(f.resolve(myGitDirectory)))
+                    .collect(Collectors.toList());
+        }
+        List<Path> result = new ArrayList<>(rootFiles.size());
+        for (Path file : rootFiles) {
+            if (!ignoreRules.isIgnored(file, Files.isDirectory(file)) || tracked.contains(file)) {
+                result.add(file);
+            }
         }
-        return null;
+        return result;
     }
 
-    private boolean fileExistInCurrentCommit(Path folderFile) throws IOException, ClassNotFoundException {
-        return getHeadCommit().getTree().getBlob(folderFile.getFileName().toString()) != null;
-    }
+    /*
+     * Файлы HEAD и индекса вместе с их папками: правила игнорирования к ним не применяются.
+     * Если файлы HEAD не переданы, дерево HEAD читается только при первом игнорируемом пути.
+     */
+    private final class TrackedPaths {
+        private @Nullable Collection<Path> headFiles;
+        private final Collection<Path> indexFiles;
+        private Set<Path> paths;
+
+        TrackedPaths(@Nullable Collection<Path> headFiles, @NotNull Collection<Path> indexFiles) {
+            this.headFiles = headFiles;
+            this.indexFiles = indexFiles;
+        }
 
-    private @NotNull List<Path> getRootFiles(Path folder) throws IOException {
-        Path myGit = root.resolve(myGitDirectory);
-        return Files.list(folder)
-                .filter(f -> {
-                    try {
-                        return !Files.isSameFile(f, myGit);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    return false;
-                })
-                .collect(Collectors.toList());
+        boolean contains(@NotNull Path path) throws IOException, ClassNotFoundException {
+            if (paths == null) {
+                if (headFiles == null) {
+                    headFiles = toMap(getHeadFiles().getPairs(root, getSparseCheckout())).keySet();
+                }
+                paths = new HashSet<>();
+                addWithParents(headFiles);
+                addWithParents(indexFiles);
+            }
+            return paths.contains(path);
+        }
+
+        private void addWithParents(@NotNull Collection<Path> files) {
+            for (Path file : files) {
+                Path current = file;
+                while (current != null && current.startsWith(root) && paths.add(current)) {
+                    current = current.getParent();
+                }
+            }
+        }
     }
 
     public void remove(@NotNull Path path) throws GitException, IOException {
-        if (!path.startsWith(root)) {
-            throw new GitException("Wrong directory");
+        remove(Collections.singletonList(path));
+    }
+
+    // пути-папки убирают из индекса все файлы внутри них
+    public void remove(@NotNull Collection<Path> paths) throws GitException, IOException {
+        for (Path path : paths) {
+            if (!path.startsWith(root)) {
+                throw new GitException("Wrong directory");
+            }
+        }
+        try (RepositorySnapshot command = beginCommand(true)) {
+            List<Pair> entries = readIndex();
+            entries.removeIf(entry -> paths.stream().anyMatch(path -> entry.getPath().startsWith(path)));
+            writePairsToIndex(entries);
+            command.commit();
         }
-        removeFromIndex(path);
     }
 
     private void removeFromIndex(@NotNull Path path) throws IOException {
-        List<String> lines;
-        try {
-            lines = Files.readAllLines(getIndex());
-        } catch (IOException e) {
-            throw new IOException("IOException occurred while reading the Index file:" + getIndex().toString());
-        }
+        List<Pair> entries = readIndex();
+        entries.removeIf(entry -> entry.getPath().equals(path));
+        writePairsToIndex(entries);
+    }
 
-        StringBuilder file = new StringBuilder();
-        for (String line: lines) {
-            String[] strings = line.split(" ");
-            if (strings[0].equals(path.toString())) {
-                continue;
-            }
-            file.append(line).append("\n");
+    public void reset(@NotNull String name) throws IOException, ClassNotFoundException, GitException {
+        if (!HashAlgorithm.forRepository(commonRoot).isValid(name) || !objects.contains(ObjectId.fromString(name))) {
+            throw new GitException("Reset to " + name + " failed because such commit doesn't exist");
+        }
+        try (RepositorySnapshot command = beginCommand(true)) {
+            moveHead(checkoutCommit(ObjectId.fromString(name)).getHash());
+            clearIndex();
+            command.commit();
         }
+    }
 
-        try {
-            OutputStream outputStream = Files.newOutputStream(getIndex());
-            outputStream.write(file.toString().getBytes());
-            outputStream.close();
-        } catch (IOException e) {
-            throw new IOException("IOException occurred while deleting file from the Index file:" + getIndex().toString());
+    public void checkout(@NotNull String name) throws GitException, IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            Branch branch = branches.get(name);
+            if (branch != null) {
+                checkNotCheckedOut(name, false);
+            } else {
+                if (!HashAlgorithm.forRepository(commonRoot).isValid(name) || !objects.contains(ObjectId.fromString(name))) {
+                    throw new GitException("Checkout " + name + " failed because such commit or branch doesn't exist\n");
+                }
+                branch = new Branch(Branch.DETACHED, ObjectId.fromString(name));
+            }
+            try (Statistics.Phase ignored = Statistics.phase("remove files")) {
+                removeFiles(getHeadFiles());
+            }
+            checkoutCommit(branch.getCommitHash());
+            writeToHead(branch);
+            clearIndex();
+            command.commit();
         }
     }
 
-    public void reset(@NotNull String name) throws IOException, ClassNotFoundException {
-        Branch branch = getHeadBranch();
-        branch.setCommit(checkoutCommit(name).getHash());
-        writeToHead(branch);
-        clearIndex();
+    public void checkoutFile(@NotNull Path filesToCheckout) throws IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            ObjectId blobHash = getHeadFiles().get(root.relativize(filesToCheckout));
+            if (blobHash == null) {
+                throw new IOException("File " + filesToCheckout + " is not in the last commit");
+            }
+            Files.write(filesToCheckout, ((Blob) objects.read(blobHash)).getContent());
+            removeFromIndex(filesToCheckout);
+            command.commit();
+        }
     }
 
-    public void checkout(@NotNull String name) throws GitException, IOException, ClassNotFoundException {
-        Branch branch = getBranch(name);
-        if (branch == null) {
-            if (Files.notExists(getObjectsDir().resolve(name))) {
-                throw new GitException("Checkout " + name + " failed because such commit or branch doesn't exist\n");
+    // revision -- ветка или хеш коммита, null для HEAD
+    public @NotNull List<BlameLine> blame(@NotNull Path path, @Nullable String revision)
+            throws IOException, ClassNotFoundException, GitException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            Commit commit = revision == null ? getHeadCommit() : readCommit(resolveRevision(revision));
+            Path relativePath = root.relativize(path);
+            List<ObjectId> owners;
+            try (Statistics.Phase ignored = Statistics.phase("blame")) {
+                owners = new Blame(commonRoot, objects, relativePath).blame(commit);
+            }
+            if (owners == null) {
+                throw new GitException("File " + relativePath + " is not in revision " + (revision == null ? "HEAD" : revision));
             }
-            branch = new Branch(root, "~", name);
-            branches.add(branch);
+            List<String> lines = Blame.splitLines(commit.getTree().getBlob(relativePath).getContent());
+            Map<ObjectId, CommitInfo> commits = new HashMap<>();
+            List<BlameLine> result = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                ObjectId owner = owners.get(i);
+                CommitInfo commitInfo = commits.get(owner);
+                if (commitInfo == null) {
+                    commitInfo = new CommitInfo(readCommit(owner));
+                    commits.put(owner, commitInfo);
+                }
+                result.add(new BlameLine(commitInfo, i + 1, lines.get(i)));
+            }
+            return result;
         }
-        removeFiles(getHeadCommit().getTree());
-        removeFromBranches(branch);
-        checkoutCommit(branch.getCommitHash());
-        writeToHead(branch);
-        branches.add(branch);
-        clearIndex();
     }
 
-    public void checkoutFile(@NotNull Path filesToCheckout) throws IOException, ClassNotFoundException {
-        Blob blob = getHeadCommit().getTree().getBlob(filesToCheckout.getFileName().toString());
-        Files.write(filesToCheckout, blob.getContent());
-        removeFromIndex(filesToCheckout);
+    private @NotNull ObjectId resolveRevision(@NotNull String revision) throws IOException, GitException {
+        Branch branch = branches.get(revision);
+        if (branch != null) {
+            return branch.getCommitHash();
+        }
+        if (!HashAlgorithm.forRepository(commonRoot).isValid(revision) || !objects.contains(ObjectId.fromString(revision))) {
+            throw new GitException("Revision " + revision + " doesn't exist");
+        }
+        return ObjectId.fromString(revision);
     }
 
-    private Commit checkoutCommit(@NotNull String hash) throws IOException, ClassNotFoundException {
-        Commit commit = (Commit)GitObject.read(getObjectsDir().resolve(hash));
+    private Commit checkoutCommit(@NotNull ObjectId hash) throws IOException, ClassNotFoundException {
+        Commit commit = readCommit(hash);
         Tree tree = commit.getTree();
-        removeFiles(tree);
-        List<Pair> files = tree.checkoutTree(root);
+        try (Statistics.Phase ignored = Statistics.phase("remove files")) {
+            // дерево станет HEAD, и следующий status прочитает его файлы из кеша
+            removeFiles(FlatTree.load(commonRoot, tree));
+        }
+        List<Pair> files;
+        try (Statistics.Phase ignored = Statistics.phase("checkout tree")) {
+            files = tree.checkoutTree(root, getSparseCheckout());
+        }
         writePairsToIndex(files);
         return commit;
     }
 
-    private void removeFiles(Tree tree) throws IOException, ClassNotFoundException {
-        for (Pair pair : tree.getPairs(root)) {
+    private void removeFiles(@NotNull FlatTree files) throws IOException {
+        Set<Path> removed = new HashSet<>();
+        for (Pair pair : files.getPairs(root, getSparseCheckout())) {
             Path targetFile = root.resolve(pair.getPath());
             Files.deleteIfExists(targetFile);
-            removeFromIndex(targetFile);
+            removed.add(targetFile);
+        }
+        List<Pair> entries = readIndex();
+        if (entries.removeIf(entry -> removed.contains(entry.getPath()))) {
+            writePairsToIndex(entries);
         }
     }
 
     public void createBranch(@NotNull String name) throws GitException, IOException, ClassNotFoundException {
-        if (getBranch(name) != null) {
-            throw new GitException("Branch already exists");
+        BranchRegistry.checkName(name);
+        try (RepositorySnapshot command = beginCommand(true)) {
+            if (branches.get(name) != null) {
+                throw new GitException("Branch already exists");
+            }
+            Branch branch = new Branch(name, getHeadBranch().getCommitHash());
+            branches.put(branch);
+            checkoutCommit(branch.getCommitHash());
+            writeToHead(branch);
+            clearIndex();
+            command.commit();
         }
-        Branch branch = new Branch(root, name, getHeadCommit().getHash());
-        branches.add(branch);
-        checkoutCommit(branch.getCommitHash());
-        writeToHead(branch);
-        clearIndex();
     }
 
     public void removeBranch(@NotNull String name) throws IOException, ClassNotFoundException, GitException {
-        if (getHeadBranch().getName().equals(name)) {
-            throw new GitException("Cannot delete branch '" + name + "'");
-        }
-        Branch branch = getBranch(name);
-        try {
-            Files.deleteIfExists(getBranchesDir().resolve(name));
-        } catch (IOException e) {
-            throw new IOException("IOException occurred while deleting the " + getBranchesDir().resolve(name).toString());
+        try (RepositorySnapshot command = beginCommand(false)) {
+            if (getHeadBranch().getName().equals(name)) {
+                throw new GitException("Cannot delete branch '" + name + "'");
+            }
+            checkNotCheckedOut(name, false);
+            branches.remove(name);
         }
-        if (branch != null) {
-            branches.remove(branch);
+    }
+
+    public @NotNull List<@NotNull String> getBranches() throws IOException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            return branches.getNames();
         }
     }
 
-    public @NotNull List<@NotNull String> getBranches() {
-        return branches.stream().map(Branch::getName).collect(Collectors.toList());
+    public void packRefs() throws IOException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            branches.pack();
+        }
     }
 
     public void merge(@NotNull String name) throws IOException, ClassNotFoundException, GitException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            mergeLocked(name);
+            command.commit();
+        }
+    }
+
+    private void mergeLocked(@NotNull String name) throws IOException, ClassNotFoundException, GitException {
         Branch curBranch = getHeadBranch();
-        Branch secBranch = getBranch(name);
+        Branch secBranch = branches.get(name);
         if (secBranch == null) {
             throw new GitException("Merging is not possible because branch doesn't exist");
         }
@@ -383,14 +1389,15 @@ public class RepositoryManager {
             throw new GitException("Merging is not possible because it is the same branch");
         }
         Commit curCommit = getHeadCommit();
-        Commit secCommit = (Commit) GitObject.read(getObjectsDir().resolve(secBranch.getCommitHash()));
+        Commit secCommit = readCommit(secBranch.getCommitHash());
 
-        List<String> parents = new ArrayList<>();
+        List<ObjectId> parents = new ArrayList<>();
         parents.add(curCommit.getHash());
         parents.add(secCommit.getHash());
 
-        List<Pair> files1 = curCommit.getTree().checkoutTree(root);
-        List<Pair> files2 = secCommit.getTree().checkoutTree(root);
+        SparseCheckout sparse = getSparseCheckout();
+        List<Pair> files1 = curCommit.getTree().checkoutTree(root, sparse);
+        List<Pair> files2 = secCommit.getTree().checkoutTree(root, sparse);
 
         Set<Path> filePaths = files1.stream()
                 .map(Pair::getPath)
@@ -399,87 +1406,311 @@ public class RepositoryManager {
                 .filter(p -> !filePaths.contains(p.getPath()))
                 .collect(Collectors.toList()));
 
-        Tree newCommitTree = buildCommitTree(files1);
-        Commit newCommit = new Commit(root, "Merge branch '" + name + "' into '" + curBranch.getName() + "'", parents, newCommitTree);
-        curBranch.setCommit(newCommit.getHash());
-        writeToHead(newCommit.getHash());
+        Tree newCommitTree = curCommit.getTree().union(secCommit.getTree());
+        Commit newCommit = new Commit(objects, "Merge branch '" + name + "' into '" + curBranch.getName() + "'", parents, newCommitTree);
+        ChangedPathFilter.compute(newCommitTree, curCommit.getTree()).write(commonRoot, newCommit.getHash());
+        moveHead(newCommit.getHash());
         writePairsToIndex(files1);
     }
 
-    private void writePairsToIndex(@NotNull List<Pair> files) throws IOException {
-        try {
-            OutputStream outputStream = Files.newOutputStream(getIndex());
-            for (Pair pair : files) {
-                outputStream.write((pair.getPath().toString() + " " + pair.getString() + "\n").getBytes());
+    /*
+     * Переносит на HEAD изменения коммита revision относительно его первого родителя.
+     * Новое дерево считается слиянием деревьев в памяти, а в рабочую копию записываются
+     * только файлы, которые оно меняет. При конфликтах ничего не меняется.
+     */
+    public void cherryPick(@NotNull String revision) throws IOException, ClassNotFoundException, GitException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            cherryPickLocked(revision);
+            command.commit();
+        }
+    }
+
+    private void cherryPickLocked(@NotNull String revision) throws IOException, ClassNotFoundException, GitException {
+        Commit head = getHeadCommit();
+        Commit result;
+        try (Statistics.Phase ignored = Statistics.phase("replay")) {
+            result = replay(readCommit(resolveRevision(revision)), head, new TreeMerger(objects));
+        }
+        if (result == null) {
+            throw new GitException("Cherry-pick " + revision + " is empty because its changes are already in HEAD");
+        }
+        moveHeadWithWorkingTree(head, result);
+    }
+
+    /*
+     * Переносит коммиты HEAD, которых нет в upstream, на upstream одной цепочкой и
+     * возвращает число перенесенных. Коммиты переносятся в памяти, рабочая копия
+     * обновляется один раз в конце. Коммиты слияния и коммиты, изменения которых уже есть
+     * в upstream, пропускаются. При конфликте в любом коммите ничего не меняется.
+     */
+    public int rebase(@NotNull String upstream) throws IOException, ClassNotFoundException, GitException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            int replayed = rebaseLocked(upstream);
+            command.commit();
+            return replayed;
+        }
+    }
+
+    private int rebaseLocked(@NotNull String upstream) throws IOException, ClassNotFoundException, GitException {
+        Commit head = getHeadCommit();
+        Commit onto = readCommit(resolveRevision(upstream));
+        Set<ObjectId> upstreamCommits = new HashSet<>();
+        Deque<ObjectId> queue = new ArrayDeque<>();
+        queue.add(onto.getHash());
+        while (!queue.isEmpty()) {
+            ObjectId hash = queue.poll();
+            // в неглубоком клоне родителей на границе истории нет
+            if (upstreamCommits.add(hash) && objects.contains(hash)) {
+                queue.addAll(readCommit(hash).getParents());
+            }
+        }
+        // родители раньше потомков
+        List<Commit> commits = new ArrayList<>();
+        Set<ObjectId> visited = new HashSet<>(upstreamCommits);
+        Deque<Commit> stack = new ArrayDeque<>();
+        if (visited.add(head.getHash())) {
+            stack.push(head);
+        }
+        while (!stack.isEmpty()) {
+            Commit commit = stack.peek();
+            Commit parent = null;
+            for (ObjectId hash : commit.getParents()) {
+                if (!visited.contains(hash) && objects.contains(hash)) {
+                    parent = readCommit(hash);
+                    break;
+                }
+            }
+            if (parent != null) {
+                visited.add(parent.getHash());
+                stack.push(parent);
+                continue;
+            }
+            stack.pop();
+            if (commit.getParents().size() <= 1) {
+                commits.add(commit);
             }
-            outputStream.close();
-        } catch (IOException e) {
-            throw new IOException("IOException occurred while writing a pair to a Index file");
         }
+
+        Commit current = onto;
+        int replayed = 0;
+        TreeMerger merger = new TreeMerger(objects);
+        try (Statistics.Phase ignored = Statistics.phase("replay")) {
+            for (Commit next : commits) {
+                Commit result = replay(next, current, merger);
+                if (result != null) {
+                    current = result;
+                    replayed++;
+                }
+            }
+        }
+        moveHeadWithWorkingTree(head, current);
+        return replayed;
     }
 
+    // null, если изменения commit уже есть в onto
+    private @Nullable Commit replay(@NotNull Commit commit, @NotNull Commit onto, @NotNull TreeMerger merger)
+            throws IOException, ClassNotFoundException, GitException {
+        ObjectId parent = commit.getParents().isEmpty() ? null : commit.getParents().get(0);
+        Tree base = parent == null || !objects.contains(parent) ? null : readCommit(parent).getTree();
+        Tree tree = merger.merge(base, onto.getTree(), commit.getTree());
+        if (tree == null) {
+            throw new GitException("Applying '" + commit.getMessage() + "' failed because of conflicts in: "
+                    + merger.getConflicts().stream()
+                    .map(path -> path.toString().replace('\\', '/'))
+                    .collect(Collectors.joining(", ")));
+        }
+        if (tree.getHash().equals(onto.getTree().getHash())) {
+            return null;
+        }
+        List<ObjectId> parents = new ArrayList<>();
+        parents.add(onto.getHash());
+        Commit result = commit.rewrite(objects, parents, tree);
+        ChangedPathFilter.compute(tree, onto.getTree()).write(commonRoot, result.getHash());
+        return result;
+    }
 
-    private @Nullable Branch getBranch(@NotNull String name) {
-        for (Branch branch : branches) {
-            if (branch.getName().equals(name)) {
-                return branch;
+    /*
+     * Переводит HEAD с from на to и записывает в рабочую копию только различающиеся файлы.
+     * Сначала проверяется, что в индексе нет изменений и что меняемые файлы совпадают с
+     * from: иначе команда не затрет чужие правки и не оставит рабочую копию наполовину
+     * записанной.
+     */
+    private void moveHeadWithWorkingTree(@NotNull Commit from, @NotNull Commit to)
+            throws IOException, ClassNotFoundException, GitException {
+        FlatTree headFiles = getHeadFiles();
+        for (Pair pair : readIndex()) {
+            if (!pair.getHash().equals(headFiles.get(root.relativize(pair.getPath())))) {
+                throw new GitException("Changes in index must be committed first: " + root.relativize(pair.getPath()));
+            }
+        }
+        Map<Path, ObjectId> changes = new LinkedHashMap<>();
+        new TreeMerger(objects).diff(from.getTree(), to.getTree(), Paths.get(""), getSparseCheckout(), changes);
+        HashAlgorithm hashAlgorithm = objects.getHashAlgorithm();
+        for (Path path : changes.keySet()) {
+            Path file = root.resolve(path);
+            if (!Files.isRegularFile(file)) {
+                continue;
+            }
+            ObjectId expected = headFiles.get(path);
+            if (expected == null || !expected.equals(Blob.getFileHash(hashAlgorithm, file))) {
+                throw new GitException("Local changes to " + path + " would be overwritten");
             }
         }
-        return null;
+        try (Statistics.Phase ignored = Statistics.phase("update files")) {
+            for (Map.Entry<Path, ObjectId> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    Path file = root.resolve(change.getKey());
+                    Files.deleteIfExists(file);
+                    // папка, ставшая пустой, может стать файлом
+                    for (Path directory = file.getParent(); !directory.equals(root) && isEmptyDirectory(directory);
+                         directory = directory.getParent()) {
+                        Files.delete(directory);
+                    }
+                }
+            }
+            for (Map.Entry<Path, ObjectId> change : changes.entrySet()) {
+                if (change.getValue() != null) {
+                    Path file = root.resolve(change.getKey());
+                    Files.createDirectories(file.getParent());
+                    Files.write(file, ((Blob) objects.read(change.getValue())).getContent());
+                }
+            }
+        }
+        moveHead(to.getHash());
+        clearIndex();
     }
 
-    public String getCurrentBranchesName() throws ClassNotFoundException, IOException {
-        return getHeadBranch().getName();
+    private static boolean isEmptyDirectory(@NotNull Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return !files.findAny().isPresent();
+        }
     }
 
-    private Commit getHeadCommit() throws IOException, ClassNotFoundException {
-        return (Commit) readFromHead(HeadType.COMMIT);
+    private @Nullable SparseCheckout getSparseCheckout() throws IOException {
+        if (!sparseCheckoutLoaded) {
+            sparseCheckout = SparseCheckout.load(root);
+            sparseCheckoutLoaded = true;
+        }
+        return sparseCheckout;
     }
 
-    private Branch getHeadBranch() throws IOException, ClassNotFoundException {
-        return (Branch) readFromHead(HeadType.BRANCH);
+    public @NotNull List<Path> getSparseCheckoutDirectories() throws IOException {
+        SparseCheckout sparse = getSparseCheckout();
+        return sparse == null ? Collections.emptyList() : sparse.getDirectories();
     }
 
-    private GitObject readFromHead(HeadType type) throws IOException, ClassNotFoundException {
-        List<String> lines = Files.readAllLines(getHead());
+    /*
+     * Меняет шаблоны частичной выгрузки (null -- выключить) и заново выгружает HEAD:
+     * файлы, ставшие исключенными, удаляются, ставшие включенными -- записываются.
+     * Как и checkout, сбрасывает индекс к HEAD.
+     */
+    public void setSparseCheckout(@Nullable List<String> patterns) throws IOException, ClassNotFoundException {
+        try (RepositorySnapshot command = beginCommand(true)) {
+            setSparseCheckoutLocked(patterns);
+            command.commit();
+        }
+    }
 
-        if (type.equals(HeadType.BRANCH)) {
-            return GitObject.read(getBranchesDir().resolve(lines.get(0)));
+    private void setSparseCheckoutLocked(@Nullable List<String> patterns) throws IOException, ClassNotFoundException {
+        try (Statistics.Phase ignored = Statistics.phase("remove files")) {
+            removeFiles(getHeadFiles());
+        }
+        if (patterns == null) {
+            Files.deleteIfExists(root.resolve(GitConstants.sparseCheckout));
+            sparseCheckout = null;
         } else {
-            return GitObject.read(getObjectsDir().resolve(lines.get(1)));
+            sparseCheckout = SparseCheckout.parse(patterns);
+            sparseCheckout.write(root);
         }
+        sparseCheckoutLoaded = true;
+        checkoutCommit(getHeadBranch().getCommitHash());
     }
 
-    private void writeToHead(@NotNull Branch branch) throws IOException {
-        try {
-            OutputStream outputStream = Files.newOutputStream(getHead());
-            outputStream.write((branch.getName() + "\n").getBytes());
-            outputStream.write((branch.getCommitHash() + "\n").getBytes());
-            outputStream.close();
-        } catch (IOException e) {
-            throw new IOException("IOException occurred while reading branch from the head");
+    private void writePairsToIndex(@NotNull List<Pair> files) {
+        snapshot().setIndex(files);
+    }
+
+    /*
+     * Каждая команда работает со своим снимком HEAD и индекса (RepositorySnapshot), ветки
+     * в ее начале перечитываются. Изменяющие команды (lockIndex) держат index.lock от первого
+     * чтения индекса до записи: иначе два процесса прочитают один индекс, и второй затрет
+     * изменения первого. Команды только для чтения блокировку не берут и видят старые или
+     * новые файлы целиком.
+     */
+    private @NotNull RepositorySnapshot beginCommand(boolean lockIndex) throws IOException {
+        if (snapshot != null) {
+            // команда, вызванная из другой команды, работает с ее снимком
+            return snapshot.enter(lockIndex);
         }
+        branches.refresh();
+        objects.refresh();
+        snapshot = new RepositorySnapshot(objects, branches, indexStore, lockIndex, () -> snapshot = null);
+        return snapshot;
     }
 
-    private void writeToHead(@NotNull String commitHash) throws IOException, ClassNotFoundException {
-        String name = getCurrentBranchesName();
-        try {
-            OutputStream outputStream = Files.newOutputStream(getHead());
-            outputStream.write((name + "\n").getBytes());
-            outputStream.write((commitHash + "\n").getBytes());
-            outputStream.close();
-        } catch (IOException e) {
-            throw new IOException("IOException occurred while reading commit from the head");
+    private @NotNull RepositorySnapshot snapshot() {
+        if (snapshot == null) {
+            throw new IllegalStateException("No command is running in " + root);
+        }
+        return snapshot;
+    }
+
+    public String getCurrentBranchesName() throws ClassNotFoundException, IOException {
+        try (RepositorySnapshot command = beginCommand(false)) {
+            return getHeadBranch().getName();
+        }
+    }
+
+    private Commit getHeadCommit() throws IOException, ClassNotFoundException {
+        Commit commit = snapshot().getHeadCommit();
+        if (commit == null) {
+            commit = readCommit(getHeadBranch().getCommitHash());
+            snapshot().setHeadCommit(commit);
+        }
+        return commit;
+    }
+
+    // файлы дерева HEAD по полным путям, строятся (или читаются из .mygit/flat) один раз на дерево
+    private @NotNull FlatTree getHeadFiles() throws IOException, ClassNotFoundException {
+        Tree tree = getHeadCommit().getTree();
+        if (headFiles == null || !headFiles.getTreeHash().equals(tree.getHash())) {
+            headFiles = FlatTree.load(commonRoot, tree);
+        }
+        return headFiles;
+    }
+
+    private @NotNull Branch getHeadBranch() throws IOException {
+        return snapshot().getHead();
+    }
+
+    // HEAD записывается в конце команды
+    private void writeToHead(@NotNull Branch branch) {
+        snapshot().setHead(branch);
+    }
+
+    /*
+     * Передвигает текущую ветку (или отделенный HEAD) на commitHash. Ветка передвигается,
+     * только если ее не успел передвинуть другой процесс, например из другой рабочей копии.
+     */
+    private void moveHead(@NotNull ObjectId commitHash) throws IOException {
+        Branch current = getHeadBranch();
+        Branch branch = new Branch(current.getName(), commitHash);
+        if (!branch.isDetached()) {
+            branches.update(branch, current.getCommitHash());
         }
+        writeToHead(branch);
     }
 
     public @NotNull String getRelativeRevisionFromHead(int n) throws GitException {
-        try {
-            Commit commit = (Commit) readFromHead(HeadType.COMMIT);
+        try (RepositorySnapshot command = beginCommand(false)) {
+            Commit commit = getHeadCommit();
             for (int i = 0; i < n; i++) {
-                commit = (Commit) GitObject.read(getObjectsDir().resolve(commit.getParents().get(0)));
+                commit = readCommit(commit.getParents().get(0));
             }
-            return commit.getHash();
+            return commit.getHash().toString();
         } catch (IOException e) {
             throw new GitException("IOException:" + e.getMessage());
         } catch (ClassNotFoundException e) {
@@ -487,32 +1718,25 @@ public class RepositoryManager {
         }
     }
 
-    private void addBranch(@NotNull Branch branch) {
-        branches.add(branch);
+    // видны уже сделанные этой командой изменения
+    private @NotNull List<Pair> readIndex() throws IOException {
+        return snapshot().getIndex();
     }
 
-    private Path getObjectsDir() {
-        return root.resolve(objectsDirectory);
-    }
-
-    private Path getBranchesDir() {
-        return root.resolve(branchesDirectory);
+    private @NotNull Commit readCommit(@NotNull ObjectId hash) throws IOException, ClassNotFoundException {
+        return (Commit) objects.read(hash);
     }
 
-    private Path getIndex() {
-        return root.resolve(index);
-    }
-
-    private Path getHead() {
-        return root.resolve(head);
+    private Path getObjectsDir() {
+        return commonRoot.resolve(objectsDirectory);
     }
 
-    private void debugOutput() {
+    private void debugOutput() throws IOException {
         System.out.println();
         System.out.println("LIST branches:");
-        for (Branch b : branches) {
-            System.out.print(b.getName());
-            System.out.println(" " + b.getCommitHash());
+        for (String name : branches.getNames()) {
+            System.out.print(name);
+            System.out.println(" " + Objects.requireNonNull(branches.get(name)).getCommitHash());
         }
         System.out.println();
     }
@@ -0,0 +1,148 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Состояние рабочей копии на время одной команды: HEAD, коммит HEAD и индекс читаются
+ * с диска не больше одного раза, а изменения HEAD и индекса копятся здесь и записываются
+ * в commit() в конце команды. Изменяющие команды открывают снимок под блокировкой индекса, поэтому
+ * другой процесс не поменяет HEAD и индекс между чтением и записью.
+ *
+ * try (RepositorySnapshot snapshot = ...) { ... snapshot.commit(); }
+ * Если commit не вызван, close отбрасывает изменения и снимает блокировку. В обоих случаях
+ * close дожидается записи объектов, созданных командой.
+ * Вложенная команда получает тот же снимок через enter.
+ */
+final class RepositorySnapshot implements AutoCloseable {
+    private final ObjectDatabase objects;
+    private final RefDatabase refs;
+    private final IndexStore index;
+    private final @Nullable IndexStore.Lock indexLock;
+    private final Runnable onClose;
+    private Branch head;
+    private Commit headCommit;
+    private List<Pair> entries;
+    private boolean headChanged;
+    private boolean indexChanged;
+    private boolean closed;
+    // число вложенных команд, открывших снимок; записывает и закрывает его внешняя
+    private int depth = 1;
+
+    RepositorySnapshot(@NotNull ObjectDatabase objects, @NotNull RefDatabase refs, @NotNull IndexStore index,
+                       boolean lockIndex, @NotNull Runnable onClose) throws IOException {
+        this.objects = objects;
+        this.refs = refs;
+        this.index = index;
+        this.indexLock = lockIndex ? index.lock() : null;
+        this.onClose = onClose;
+    }
+
+    @NotNull RepositorySnapshot enter(boolean lockIndex) {
+        checkOpen();
+        if (lockIndex && indexLock == null) {
+            throw new IllegalStateException("Snapshot is opened without the index lock");
+        }
+        depth++;
+        return this;
+    }
+
+    @NotNull Branch getHead() throws IOException {
+        checkOpen();
+        if (head == null) {
+            head = refs.getHead();
+        }
+        return head;
+    }
+
+    void setHead(@NotNull Branch branch) {
+        checkOpen();
+        if (head == null || !head.getCommitHash().equals(branch.getCommitHash())) {
+            headCommit = null;
+        }
+        head = branch;
+        headChanged = true;
+    }
+
+    // коммит, на который указывает HEAD, если он уже прочитан
+    @Nullable Commit getHeadCommit() {
+        return headCommit != null && head != null && headCommit.getHash().equals(head.getCommitHash()) ? headCommit : null;
+    }
+
+    void setHeadCommit(@NotNull Commit commit) {
+        headCommit = commit;
+    }
+
+    // копия, которую можно менять
+    @NotNull List<Pair> getIndex() throws IOException {
+        checkOpen();
+        if (entries == null) {
+            entries = index.read();
+        }
+        return new ArrayList<>(entries);
+    }
+
+    void setIndex(@NotNull List<Pair> entries) {
+        checkOpen();
+        this.entries = new ArrayList<>(entries);
+        indexChanged = true;
+    }
+
+    /*
+     * Записывает изменения: сначала объекты, на которые они ссылаются, потом HEAD и индекс.
+     * Под блокировкой индекс заменяется через нее, и блокировка снимается.
+     */
+    void commit() throws IOException {
+        checkOpen();
+        if (depth > 1) {
+            return;
+        }
+        if (headChanged || indexChanged) {
+            objects.flush();
+        }
+        if (headChanged) {
+            refs.setHead(head);
+            headChanged = false;
+        }
+        if (indexChanged) {
+            if (indexLock != null) {
+                indexLock.write(entries);
+            } else {
+                index.write(entries);
+            }
+            indexChanged = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed || --depth > 0) {
+            return;
+        }
+        closed = true;
+        try {
+            // и после ошибки команда возвращается, только когда ее объекты дописаны
+            objects.flush();
+        } catch (IOException e) {
+            // ссылки здесь не пишутся; ошибку записи получит flush команды, которая сошлется на объект
+        } finally {
+            try {
+                if (indexLock != null) {
+                    indexLock.close();
+                }
+            } finally {
+                onClose.run();
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Snapshot is already closed");
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static ru.itmo.mit.git.GitConstants.sparseCheckout;
+
+/*
+ * Шаблоны частичной выгрузки из .mygit/sparse-checkout: по одной папке на строку.
+ * Выгружаются папки из шаблонов целиком, а также файлы корня и файлы всех папок
+ * на пути к шаблонам. Решение принимается только по пути папки, поэтому
+ * исключенные поддеревья можно пропускать, не читая их.
+ */
+public final class SparseCheckout {
+    private final List<Path> directories;
+
+    private SparseCheckout(@NotNull List<Path> directories) {
+        this.directories = directories;
+    }
+
+    // null, если частичная выгрузка не включена
+    public static @Nullable SparseCheckout load(@NotNull Path root) throws IOException {
+        Path file = root.resolve(sparseCheckout);
+        if (Files.notExists(file)) {
+            return null;
+        }
+        try {
+            return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading " + file);
+        }
+    }
+
+    public static @NotNull SparseCheckout parse(@NotNull List<String> patterns) {
+        List<Path> directories = new ArrayList<>();
+        for (String pattern : patterns) {
+            String trimmed = pattern.trim();
+            while (trimmed.endsWith("/")) {
+                trimmed = trimmed.substring(0, trimmed.length() - 1);
+            }
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                directories.add(Paths.get(trimmed).normalize());
+            }
+        }
+        return new SparseCheckout(directories);
+    }
+
+    public void write(@NotNull Path root) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (Path directory : directories) {
+            content.append(directory.toString().replace('\\', '/')).append('\n');
+        }
+        Path file = root.resolve(sparseCheckout);
+        try {
+            LockFile.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing " + file);
+        }
+    }
+
+    public @NotNull List<Path> getDirectories() {
+        return Collections.unmodifiableList(directories);
+    }
+
+    /*
+     * directory -- путь папки относительно корня, пустой путь для корня.
+     * true, если папка лежит внутри шаблона или на пути к нему: тогда ее файлы
+     * выгружаются и в нее нужно спускаться.
+     */
+    public boolean includes(@NotNull Path directory) {
+        if (directory.toString().isEmpty()) {
+            return true;
+        }
+        for (Path pattern : directories) {
+            if (directory.startsWith(pattern) || pattern.startsWith(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean includes(@Nullable SparseCheckout sparse, @NotNull Path directory) {
+        return sparse == null || sparse.includes(directory);
+    }
+}
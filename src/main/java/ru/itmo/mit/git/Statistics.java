@@ -0,0 +1,173 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Счетчики и время фаз текущей команды. Собираются всегда, выводятся только с флагом --stats.
+ */
+public final class Statistics {
+    private Statistics() {}
+
+    public enum Counter {
+        OBJECTS_READ("objectsRead"),
+        OBJECTS_WRITTEN("objectsWritten"),
+        BYTES_HASHED("bytesHashed"),
+        BYTES_READ("bytesRead"),
+        BYTES_WRITTEN("bytesWritten"),
+        INDEX_READS("indexReads"),
+        FILES_SCANNED("filesScanned"),
+        DIRECTORIES_LISTED("directoriesListed"),
+        CACHE_HITS("cacheHits"),
+        CACHE_MISSES("cacheMisses"),
+        COMMITS_FILTERED("commitsFiltered"),
+        OBJECT_FILES_CHECKED("objectFilesChecked");
+
+        private final String name;
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static final class Phase implements AutoCloseable {
+        private final String name;
+        private final long start = System.nanoTime();
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            addPhaseTime(name, System.nanoTime() - start);
+        }
+    }
+
+    private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private static final Map<String, Long> phases = new LinkedHashMap<>();
+    private static long start = System.nanoTime();
+
+    public static void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        synchronized (phases) {
+            phases.clear();
+        }
+        start = System.nanoTime();
+    }
+
+    public static void increment(@NotNull Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public static void add(@NotNull Counter counter, long value) {
+        counters.addAndGet(counter.ordinal(), value);
+    }
+
+    public static long get(@NotNull Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /*
+     * try (Statistics.Phase ignored = Statistics.phase("name")) { ... }
+     * Время одноименных фаз суммируется.
+     */
+    public static @NotNull Phase phase(@NotNull String name) {
+        return new Phase(name);
+    }
+
+    private static void addPhaseTime(@NotNull String name, long nanos) {
+        synchronized (phases) {
+            phases.merge(name, nanos, Long::sum);
+        }
+    }
+
+    public static long getTotalNanos() {
+        return System.nanoTime() - start;
+    }
+
+    public static @NotNull String summary(@NotNull String command) {
+        StringBuilder result = new StringBuilder();
+        result.append("Statistics for '").append(command).append("': ")
+                .append(millis(getTotalNanos())).append(" ms").append(System.lineSeparator());
+        synchronized (phases) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                result.append("    ").append(phase.getKey()).append(": ")
+                        .append(millis(phase.getValue())).append(" ms").append(System.lineSeparator());
+            }
+        }
+        for (Counter counter : Counter.values()) {
+            result.append("    ").append(counter.getName()).append(": ")
+                    .append(get(counter)).append(System.lineSeparator());
+        }
+        return result.toString();
+    }
+
+    public static @NotNull String toJson(@NotNull String command) {
+        StringBuilder result = new StringBuilder();
+        result.append("{\"command\":").append(quote(command))
+                .append(",\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"totalNanos\":").append(getTotalNanos())
+                .append(",\"phases\":{");
+        synchronized (phases) {
+            boolean first = true;
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                if (!first) {
+                    result.append(',');
+                }
+                first = false;
+                result.append(quote(phase.getKey())).append(':').append(phase.getValue());
+            }
+        }
+        result.append("},\"counters\":{");
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() != 0) {
+                result.append(',');
+            }
+            result.append(quote(counter.getName())).append(':').append(get(counter));
+        }
+        return result.append("}}").toString();
+    }
+
+    public static void appendJson(@NotNull String command, @NotNull Path file) throws IOException {
+        try {
+            Files.write(file, (toJson(command) + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing statistics to " + file);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String quote(@NotNull String string) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : string.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,197 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.itmo.mit.git.GitConstants.branchesDirectory;
+import static ru.itmo.mit.git.GitConstants.oldObjectsDirectory;
+
+/*
+ * Объекты первой версии mygit. Хеши в них -- hex-строки sha1, блоб хранит имя файла, и его хеш
+ * считается по содержимому и имени, дерево хранит только хеши детей (имена есть в самих детях),
+ * коммит хранит свое дерево целиком. Ветки -- такие же сериализованные объекты в
+ * .mygit/branches/<name>, отделенный HEAD -- ветка "~" там же; настроек (.mygit/config) нет.
+ *
+ * Классы назывались так же, как нынешние Blob, Tree, Commit и Branch, но с другими полями
+ * и serialVersionUID, поэтому нынешние классы их не читают. При чтении описание такого
+ * класса заменяется классом ниже с теми же полями и serialVersionUID: порядок полей
+ * в потоке зависит только от их имен и типов.
+ */
+final class StringHashFormat {
+    // начало потока ObjectOutputStream; ветки нынешнего формата -- текст
+    private static final int STREAM_MAGIC = 0xACED;
+
+    private static final Map<String, Class<?>> classes = new HashMap<>();
+
+    static {
+        classes.put("ru.itmo.mit.git.Blob:" + Blob.serialVersionUID, Blob.class);
+        classes.put("ru.itmo.mit.git.Tree:" + Tree.serialVersionUID, Tree.class);
+        classes.put("ru.itmo.mit.git.Commit:" + Commit.serialVersionUID, Commit.class);
+        classes.put("ru.itmo.mit.git.Branch:" + Branch.serialVersionUID, Branch.class);
+    }
+
+    private StringHashFormat() {}
+
+    static final class Blob implements Serializable {
+        private static final long serialVersionUID = -1763376399940442622L;
+
+        private String fileName;
+        private String hash;
+        private byte[] content;
+
+        String getFileName() {
+            return fileName;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        byte[] getContent() {
+            return content;
+        }
+    }
+
+    static final class Tree implements Serializable {
+        private static final long serialVersionUID = -6904673934143326774L;
+
+        private List<String> children;
+        private String directoryName;
+        private String hash;
+        private String root;
+
+        List<String> getChildren() {
+            return children;
+        }
+
+        String getDirectoryName() {
+            return directoryName;
+        }
+
+        String getHash() {
+            return hash;
+        }
+    }
+
+    static final class Commit implements Serializable {
+        private static final long serialVersionUID = 8602455835453127260L;
+
+        private String root;
+        private String message;
+        private String author;
+        private Date date;
+        private List<String> parents;
+        private Tree tree;
+        private String hash;
+
+        String getMessage() {
+            return message;
+        }
+
+        String getAuthor() {
+            return author;
+        }
+
+        Date getDate() {
+            return date;
+        }
+
+        List<String> getParents() {
+            return parents;
+        }
+
+        Tree getTree() {
+            return tree;
+        }
+
+        String getHash() {
+            return hash;
+        }
+    }
+
+    static final class Branch implements Serializable {
+        private static final long serialVersionUID = 5268441053360658462L;
+
+        private String root;
+        private String hash;
+        private String name;
+        private String commit;
+
+        String getName() {
+            return name;
+        }
+
+        String getCommitHash() {
+            return commit;
+        }
+    }
+
+    /*
+     * Репозиторий первой версии: его ветки еще сериализованы или migrate перенес
+     * его объекты в .mygit/objects-old и не закончил.
+     */
+    static boolean isUsedBy(@NotNull Path root) throws IOException {
+        if (Files.exists(root.resolve(oldObjectsDirectory))) {
+            return true;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root.resolve(branchesDirectory))) {
+            for (Path file : files) {
+                if (isStream(file)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // ветка или объект, записанные первой версией
+    static boolean isStream(@NotNull Path file) throws IOException {
+        if (Files.isDirectory(file)) {
+            return false;
+        }
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return ((inputStream.read() << 8) | inputStream.read()) == STREAM_MAGIC;
+        }
+    }
+
+    // объект или ветка первой версии: StringHashFormat.Blob, Tree, Commit или Branch
+    static @NotNull Object read(@NotNull Path file) throws IOException, ClassNotFoundException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading the object: " + file);
+        }
+        Statistics.increment(Statistics.Counter.OBJECTS_READ);
+        Statistics.add(Statistics.Counter.BYTES_READ, data.length);
+        try (ObjectInputStream inputStream = new Input(data)) {
+            return inputStream.readObject();
+        }
+    }
+
+    private static final class Input extends ObjectInputStream {
+        private Input(@NotNull byte[] data) throws IOException {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            Class<?> replacement = classes.get(descriptor.getName() + ":" + descriptor.getSerialVersionUID());
+            return replacement == null ? descriptor : ObjectStreamClass.lookup(replacement);
+        }
+    }
+}
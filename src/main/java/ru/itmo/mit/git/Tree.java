@@ -1,44 +1,37 @@
 package ru.itmo.mit.git;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import static ru.itmo.mit.git.GitConstants.objectsDirectory;
-import static ru.itmo.mit.git.GitObject.write;
-
+/*
+ * Записи дерева отсортированы по имени, поэтому одинаковое содержимое
+ * всегда дает одинаковый хеш.
+ */
 public class Tree implements GitObject {
-    private final List<String> children;
-    private final String directoryName;
-    private String hash;
-    private final String root;
+    // закреплен, чтобы читались деревья с ObjectId-хешами; деревья первой версии читает StringHashFormat
+    private static final long serialVersionUID = 531482253802977356L;
 
-    Tree(@NotNull Path root, @NotNull String directoryName, @NotNull List<String> children) {
-        this.root = root.toString();
-        this.directoryName = directoryName;
-        this.children = children;
-        updateHash();
-        try {
-            write(this, root);
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
-        }
-    }
+    private final List<TreeEntry> children;
+    private final String directoryName;
+    private ObjectId hash;
+    private transient ObjectDatabase database;
 
-    private Tree(@NotNull Path root, @NotNull String directoryName) {
-        this.root = root.toString();
+    Tree(@NotNull ObjectDatabase database, @NotNull String directoryName, @NotNull List<TreeEntry> children) {
+        this.database = database;
         this.directoryName = directoryName;
-        children = new ArrayList<>();
-        updateHash();
+        this.children = new ArrayList<>(children);
+        Collections.sort(this.children);
         try {
-            GitObject.write(this, root);
+            updateHash(database.getHashAlgorithm());
+            database.insert(this);
         } catch (IOException e) {
             System.out.println(e.getMessage());
         }
@@ -50,7 +43,7 @@ public class Tree implements GitObject {
     }
 
     @Override
-    public String getHash() {
+    public ObjectId getHash() {
         return hash;
     }
 
@@ -58,116 +51,161 @@ public class Tree implements GitObject {
         return directoryName;
     }
 
-    private void updateHash() {
-        StringBuilder content = new StringBuilder();
-        content.append(directoryName);
-        children.forEach(content::append);
-        hash = DigestUtils.sha1Hex(content.toString().getBytes());
+    List<TreeEntry> getChildren() {
+        return children;
     }
 
-    public Tree addPathToTree(@NotNull Path path, @NotNull String hash) throws IOException, ClassNotFoundException {
-        if (path.getNameCount() == 1) {
-            Blob blob = (Blob) getChild(hash);
-            List<String> newChildren = new ArrayList<>();
-            for (String childHash : children) {
-                GitObject child = getChild(childHash);
-                if (!child.getType().equals(Type.BLOB) || !((Blob) child).getFileName().equals(blob.getFileName())) {
-                    newChildren.add(childHash);
-                }
-            }
-            newChildren.add(hash);
-            return new Tree(Paths.get(root), directoryName, newChildren);
+    @Override
+    public void bind(@NotNull ObjectDatabase database) {
+        this.database = database;
+    }
+
+    private void updateHash(@NotNull HashAlgorithm hashAlgorithm) {
+        hash = computeHash(hashAlgorithm);
+    }
+
+    @Override
+    public @NotNull ObjectId computeHash(@NotNull HashAlgorithm hashAlgorithm) {
+        HashAlgorithm.Hasher hasher = hashAlgorithm.newHasher().update(directoryName);
+        for (TreeEntry child : children) {
+            hasher.update(child.getName()).update(child.getType().name()).update(child.getHash());
         }
+        return hasher.digest();
+    }
 
-        List<String> newChildren = new ArrayList<>();
-        boolean foundInTree = false;
-        String directory = path.getName(0).toString();
-        for (String childHash : children) {
-            GitObject child = getChild(childHash);
-            if (child.getType().equals(Type.TREE) &&
-                    ((Tree) child).getDirectoryName().equals(directory)) {
-                foundInTree = true;
-                newChildren.add(((Tree) child)
-                        .addPathToTree(path.subpath(1, path.getNameCount()), hash)
-                        .getHash());
+    /*
+     * Читаются только деревья на пути к файлу, остальные поддеревья
+     * переносятся в новое дерево по хешу.
+     */
+    public Tree addPathToTree(@NotNull Path path, @NotNull ObjectId hash) throws IOException, ClassNotFoundException {
+        String name = path.getName(0).toString();
+        List<TreeEntry> newChildren = new ArrayList<>();
+        TreeEntry existing = null;
+        for (TreeEntry child : children) {
+            if (child.getName().equals(name)) {
+                existing = child;
             } else {
-                newChildren.add(childHash);
+                newChildren.add(child);
             }
         }
-        if (!foundInTree) {
-            newChildren.add(new Tree(Paths.get(root), directory)
-                    .addPathToTree(path.subpath(1, path.getNameCount()), hash)
-                    .getHash());
+
+        if (path.getNameCount() == 1) {
+            newChildren.add(new TreeEntry(name, Type.BLOB, hash));
+        } else {
+            Tree subtree = existing != null && existing.isTree()
+                    ? (Tree) getChild(existing.getHash())
+                    : new Tree(database, name, new ArrayList<>());
+            Tree newSubtree = subtree.addPathToTree(path.subpath(1, path.getNameCount()), hash);
+            newChildren.add(new TreeEntry(name, Type.TREE, newSubtree.getHash()));
+        }
+        return new Tree(database, directoryName, newChildren);
+    }
+
+    /*
+     * Дерево из записей обоих деревьев. Для одинаковых имен остается запись этого
+     * дерева, различающиеся поддеревья объединяются рекурсивно. Файлы не читаются.
+     */
+    public Tree union(@NotNull Tree other) throws IOException, ClassNotFoundException {
+        List<TreeEntry> newChildren = new ArrayList<>(children);
+        for (TreeEntry otherChild : other.children) {
+            TreeEntry child = findChild(otherChild.getName());
+            if (child == null) {
+                newChildren.add(otherChild);
+            } else if (child.isTree() && otherChild.isTree() && !child.getHash().equals(otherChild.getHash())) {
+                newChildren.remove(child);
+                Tree merged = ((Tree) getChild(child.getHash())).union((Tree) other.getChild(otherChild.getHash()));
+                newChildren.add(new TreeEntry(child.getName(), Type.TREE, merged.getHash()));
+            }
         }
-        return new Tree(Paths.get(root), directoryName, newChildren);
+        return new Tree(database, directoryName, newChildren);
     }
 
     public List<Pair> checkoutTree(@NotNull Path currentPath) throws IOException, ClassNotFoundException {
+        return checkoutTree(currentPath, null);
+    }
+
+    // поддеревья, исключенные sparse, не читаются и не выгружаются; объекты читаются заранее
+    public List<Pair> checkoutTree(@NotNull Path currentPath, @Nullable SparseCheckout sparse) throws IOException, ClassNotFoundException {
         List<Pair> files = new ArrayList<>();
-        for (String childHash : children) {
-            GitObject child = getChild(childHash);
-            if (child.getType().equals(Type.BLOB)) {
-                Path filePath = currentPath.resolve(((Blob) child).getFileName());
+        try (TreeWalker walker = new TreeWalker(this, sparse, true)) {
+            while (walker.hasNext()) {
+                TreeWalker.Item item = walker.next();
+                Path path = currentPath.resolve(item.getPath());
+                if (item.getEntry().isTree()) {
+                    if (Files.notExists(path)) {
+                        try {
+                            Files.createDirectory(path);
+                        } catch (IOException e) {
+                            throw new IOException("IOException occurred while creating a directory " + path.toString());
+                        }
+                    }
+                    continue;
+                }
                 try {
-                    OutputStream outputStream = Files.newOutputStream(filePath);
-                    outputStream.write(((Blob) child).getContent());
+                    OutputStream outputStream = Files.newOutputStream(path);
+                    outputStream.write(item.getBlob().getContent());
                     outputStream.close();
-                    files.add(new Pair(filePath, childHash));
+                    files.add(new Pair(path, item.getEntry().getHash()));
                 } catch (IOException e) {
-                    throw new IOException("IOException occurred while writing a file" + filePath.toString());
-                }
-            } else {
-                Path nextDirectory = currentPath.resolve(((Tree) child).getDirectoryName());
-                if (Files.notExists(nextDirectory)) {
-                    try {
-                        Files.createDirectory(nextDirectory);
-                    } catch (IOException e) {
-                        throw new IOException("IOException occurred while creating a directory " + nextDirectory.toString());
-                    }
+                    throw new IOException("IOException occurred while writing a file" + path.toString());
                 }
-                files.addAll(((Tree) child).checkoutTree(nextDirectory));
             }
         }
         return files;
     }
 
-    public Blob getBlob(@NotNull String name) throws IOException, ClassNotFoundException {
-        for (String childHash : children) {
-            GitObject child = getChild(childHash);
-            if (child.getType().equals(Type.BLOB)) {
-                Blob blob = (Blob) child;
-                if (blob.getFileName().equals(name)) {
-                    return blob;
-                }
-            } else {
-                return ((Tree) child).getBlob(name);
-            }
+    // relativePath -- путь файла относительно этого дерева
+    public @Nullable Blob getBlob(@NotNull Path relativePath) throws IOException, ClassNotFoundException {
+        ObjectId blobHash = getBlobHash(relativePath);
+        return blobHash == null ? null : (Blob) getChild(blobHash);
+    }
+
+    // читаются только деревья на пути к файлу
+    public @Nullable ObjectId getBlobHash(@NotNull Path relativePath) throws IOException, ClassNotFoundException {
+        TreeEntry entry = getEntry(relativePath);
+        return entry == null || entry.isTree() ? null : entry.getHash();
+    }
+
+    // запись файла или папки по пути относительно этого дерева, читаются только деревья на пути
+    @Nullable TreeEntry getEntry(@NotNull Path relativePath) throws IOException, ClassNotFoundException {
+        TreeEntry child = findChild(relativePath.getName(0).toString());
+        if (child == null || relativePath.getNameCount() == 1) {
+            return child;
         }
-        return null;
+        if (!child.isTree()) {
+            return null;
+        }
+        return ((Tree) getChild(child.getHash())).getEntry(relativePath.subpath(1, relativePath.getNameCount()));
     }
 
     public List<Pair> getPairs(@NotNull Path currentPath) throws IOException, ClassNotFoundException {
+        return getPairs(currentPath, null);
+    }
+
+    // читаются только деревья, исключенные sparse поддеревья пропускаются
+    public List<Pair> getPairs(@NotNull Path currentPath, @Nullable SparseCheckout sparse) throws IOException, ClassNotFoundException {
         List<Pair> files = new ArrayList<>();
-        for (String childHash : children) {
-            GitObject child = getChild(childHash);
-            if (child.getType().equals(Type.BLOB)) {
-                files.add(new Pair(currentPath.resolve(((Blob) child).getFileName()), childHash));
-            } else {
-                Path nextDirectory = currentPath.resolve(((Tree) child).getDirectoryName());
-                if (Files.notExists(nextDirectory)) {
-                    try {
-                        Files.createDirectory(nextDirectory);
-                    } catch (IOException e) {
-                        throw new IOException("IOException occurred while creating a directory " + nextDirectory.toString());
-                    }
+        try (TreeWalker walker = new TreeWalker(this, sparse, false)) {
+            while (walker.hasNext()) {
+                TreeWalker.Item item = walker.next();
+                if (!item.getEntry().isTree()) {
+                    files.add(new Pair(currentPath.resolve(item.getPath()), item.getEntry().getHash()));
                 }
-                files.addAll(((Tree) child).getPairs(nextDirectory));
             }
         }
         return files;
     }
 
-    private GitObject getChild(String childHash) throws IOException, ClassNotFoundException {
-        return GitObject.read(Paths.get(root).resolve(objectsDirectory).resolve(childHash));
+    private @Nullable TreeEntry findChild(@NotNull String name) {
+        for (TreeEntry child : children) {
+            if (child.getName().equals(name)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    GitObject getChild(ObjectId childHash) throws IOException, ClassNotFoundException {
+        return database.read(childHash);
     }
 }
@@ -0,0 +1,42 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+
+/*
+ * Запись дерева: имя, тип и хеш потомка. По записям дерево можно обойти,
+ * не читая объекты потомков.
+ */
+public final class TreeEntry implements Serializable, Comparable<TreeEntry> {
+    private final String name;
+    private final GitObject.Type type;
+    private final ObjectId hash;
+
+    TreeEntry(@NotNull String name, @NotNull GitObject.Type type, @NotNull ObjectId hash) {
+        this.name = name;
+        this.type = type;
+        this.hash = hash;
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+
+    public @NotNull GitObject.Type getType() {
+        return type;
+    }
+
+    public @NotNull ObjectId getHash() {
+        return hash;
+    }
+
+    public boolean isTree() {
+        return type == GitObject.Type.TREE;
+    }
+
+    @Override
+    public int compareTo(@NotNull TreeEntry other) {
+        return name.compareTo(other.name);
+    }
+}
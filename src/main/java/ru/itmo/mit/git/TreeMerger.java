@@ -0,0 +1,143 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/*
+ * Трехстороннее слияние деревьев в памяти: изменения base -> theirs переносятся на ours.
+ * Запись, измененная только одной стороной, берется с этой стороны; папки, измененные
+ * обеими, сливаются рекурсивно; файл, по-разному измененный обеими сторонами, -- конфликт.
+ * Читаются только поддеревья с разными хешами, файлы не читаются совсем.
+ */
+final class TreeMerger {
+    private final ObjectDatabase objects;
+    private final List<Path> conflicts = new ArrayList<>();
+
+    TreeMerger(@NotNull ObjectDatabase objects) {
+        this.objects = objects;
+    }
+
+    // null, если есть конфликты; тогда их пути в getConflicts
+    @Nullable Tree merge(@Nullable Tree base, @NotNull Tree ours, @NotNull Tree theirs) throws IOException, ClassNotFoundException {
+        conflicts.clear();
+        Tree result = merge(ours.getDirectoryName(), base, ours, theirs, Paths.get(""));
+        if (!conflicts.isEmpty()) {
+            return null;
+        }
+        return result == null ? new Tree(objects, ours.getDirectoryName(), new ArrayList<>()) : result;
+    }
+
+    @NotNull List<Path> getConflicts() {
+        return conflicts;
+    }
+
+    // null, если папка стала пустой
+    private @Nullable Tree merge(@NotNull String name, @Nullable Tree base, @Nullable Tree ours, @Nullable Tree theirs,
+                                 @NotNull Path path) throws IOException, ClassNotFoundException {
+        List<TreeEntry> children = new ArrayList<>();
+        for (String childName : names(base, ours, theirs)) {
+            TreeEntry baseEntry = find(base, childName);
+            TreeEntry ourEntry = find(ours, childName);
+            TreeEntry theirEntry = find(theirs, childName);
+            TreeEntry merged;
+            if (same(ourEntry, theirEntry) || same(baseEntry, theirEntry)) {
+                merged = ourEntry;
+            } else if (same(baseEntry, ourEntry)) {
+                merged = theirEntry;
+            } else if (isTreeOrAbsent(baseEntry) && isTreeOrAbsent(ourEntry) && isTreeOrAbsent(theirEntry)) {
+                Tree subtree = merge(childName, readTree(baseEntry), readTree(ourEntry), readTree(theirEntry), path.resolve(childName));
+                merged = subtree == null ? null : new TreeEntry(childName, GitObject.Type.TREE, subtree.getHash());
+            } else {
+                conflicts.add(path.resolve(childName));
+                continue;
+            }
+            if (merged != null) {
+                children.add(merged);
+            }
+        }
+        return children.isEmpty() ? null : new Tree(objects, name, children);
+    }
+
+    /*
+     * Измененные файлы: путь относительно корня -> новый хеш или null для удаленного.
+     * Поддеревья, исключенные sparse, пропускаются.
+     */
+    void diff(@Nullable Tree oldTree, @Nullable Tree newTree, @NotNull Path path, @Nullable SparseCheckout sparse,
+              @NotNull Map<Path, ObjectId> changes) throws IOException, ClassNotFoundException {
+        for (String childName : names(null, oldTree, newTree)) {
+            TreeEntry oldEntry = find(oldTree, childName);
+            TreeEntry newEntry = find(newTree, childName);
+            if (same(oldEntry, newEntry)) {
+                continue;
+            }
+            Path childPath = path.resolve(childName);
+            if (oldEntry != null && !oldEntry.isTree()) {
+                changes.put(childPath, null);
+            }
+            if (newEntry != null && !newEntry.isTree()) {
+                changes.put(childPath, newEntry.getHash());
+            }
+            boolean oldIsTree = oldEntry != null && oldEntry.isTree();
+            boolean newIsTree = newEntry != null && newEntry.isTree();
+            if ((oldIsTree || newIsTree) && SparseCheckout.includes(sparse, childPath)) {
+                diff(oldIsTree ? readTree(oldEntry) : null, newIsTree ? readTree(newEntry) : null, childPath, sparse, changes);
+            }
+        }
+    }
+
+    private @Nullable Tree readTree(@Nullable TreeEntry entry) throws IOException, ClassNotFoundException {
+        return entry == null ? null : (Tree) objects.read(entry.getHash());
+    }
+
+    private static @NotNull TreeSet<String> names(@Nullable Tree first, @Nullable Tree second, @Nullable Tree third) {
+        TreeSet<String> names = new TreeSet<>();
+        for (Tree tree : new Tree[]{first, second, third}) {
+            if (tree != null) {
+                tree.getChildren().forEach(entry -> names.add(entry.getName()));
+            }
+        }
+        return names;
+    }
+
+    // записи дерева отсортированы по имени
+    private static @Nullable TreeEntry find(@Nullable Tree tree, @NotNull String name) {
+        if (tree == null) {
+            return null;
+        }
+        List<TreeEntry> children = tree.getChildren();
+        int low = 0;
+        int high = children.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = children.get(middle).getName().compareTo(name);
+            if (comparison == 0) {
+                return children.get(middle);
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return null;
+    }
+
+    private static boolean same(@Nullable TreeEntry first, @Nullable TreeEntry second) {
+        if (first == null || second == null) {
+            return first == second;
+        }
+        return first.getType() == second.getType() && first.getHash().equals(second.getHash());
+    }
+
+    private static boolean isTreeOrAbsent(@Nullable TreeEntry entry) {
+        return entry == null || entry.isTree();
+    }
+}
@@ -0,0 +1,273 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Обход дерева в глубину в том же порядке, что и рекурсия по children: папка отдается
+ * перед своим содержимым. Объекты читаются заранее в пуле потоков: как только дерево
+ * прочитано, запускаются чтения всех его поддеревьев (и блобов, если они нужны), поэтому
+ * обход холодного глубокого дерева ждет не каждое чтение по очереди, а в основном только
+ * первое. Чтения запускаются в порядке, в котором объекты понадобятся обходу.
+ *
+ * Заранее прочитанных, но еще не отданных объектов не больше maxObjects, а содержимого
+ * блобов в них -- не больше maxBytes. Объект, чтение которого не успело начаться, читается
+ * в потоке обхода, и место под него освобождается заранее прочитанным объектом, который
+ * понадобится позже всех. Как Iterator, но next бросает исключения чтения.
+ * Объект используется из одного потока; незавершенный обход нужно закрыть.
+ */
+final class TreeWalker implements Closeable {
+    private static final int MAX_OBJECTS = 1024;
+    private static final long MAX_BYTES = 64L << 20;
+    private static final int READERS = Math.max(4, Math.min(16, 2 * Runtime.getRuntime().availableProcessors()));
+    private static final AtomicInteger readerNumber = new AtomicInteger();
+    private static final ExecutorService readers = Executors.newFixedThreadPool(READERS, runnable -> {
+        Thread reader = new Thread(runnable, "mygit-tree-reader-" + readerNumber.incrementAndGet());
+        reader.setDaemon(true);
+        return reader;
+    });
+
+    static final class Item {
+        private final Path path;
+        private final TreeEntry entry;
+        private final @Nullable Blob blob;
+
+        private Item(@NotNull Path path, @NotNull TreeEntry entry, @Nullable Blob blob) {
+            this.path = path;
+            this.entry = entry;
+            this.blob = blob;
+        }
+
+        // путь относительно корня обхода
+        @NotNull Path getPath() {
+            return path;
+        }
+
+        @NotNull TreeEntry getEntry() {
+            return entry;
+        }
+
+        // только для файлов и только если обход читает блобы
+        @Nullable Blob getBlob() {
+            return blob;
+        }
+    }
+
+    // объект, который понадобится обходу
+    private static final class Slot {
+        private final Tree parent;
+        private final ObjectId hash;
+        private @Nullable Future<GitObject> future;
+        private boolean taken;
+
+        private Slot(@NotNull Tree parent, @NotNull ObjectId hash) {
+            this.parent = parent;
+            this.hash = hash;
+        }
+    }
+
+    private static final class Frame {
+        private final Tree tree;
+        private final Path path;
+        // null для записей, которые не читаются
+        private final Slot[] slots;
+        private int index;
+
+        private Frame(@NotNull Tree tree, @NotNull Path path, @NotNull Slot[] slots) {
+            this.tree = tree;
+            this.path = path;
+            this.slots = slots;
+        }
+    }
+
+    private final @Nullable SparseCheckout sparse;
+    private final boolean readBlobs;
+    private final int maxObjects;
+    private final long maxBytes;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    // еще не запущенные чтения в порядке, в котором они понадобятся
+    private final Deque<Slot> waiting = new ArrayDeque<>();
+    private final Set<Slot> running = new LinkedHashSet<>();
+    // содержимое прочитанных, но не отданных блобов
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    // поддеревья, исключенные sparse, не читаются и не обходятся
+    TreeWalker(@NotNull Tree tree, @Nullable SparseCheckout sparse, boolean readBlobs) {
+        this(tree, sparse, readBlobs, MAX_OBJECTS, MAX_BYTES);
+    }
+
+    TreeWalker(@NotNull Tree tree, @Nullable SparseCheckout sparse, boolean readBlobs, int maxObjects, long maxBytes) {
+        this.sparse = sparse;
+        this.readBlobs = readBlobs;
+        this.maxObjects = maxObjects;
+        this.maxBytes = maxBytes;
+        enter(tree, Paths.get(""));
+    }
+
+    boolean hasNext() {
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            List<TreeEntry> children = frame.tree.getChildren();
+            while (frame.index < children.size() && isExcluded(frame, children.get(frame.index))) {
+                frame.index++;
+            }
+            if (frame.index < children.size()) {
+                return true;
+            }
+            stack.pop();
+        }
+        return false;
+    }
+
+    @NotNull Item next() throws IOException, ClassNotFoundException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Frame frame = stack.peek();
+        TreeEntry entry = frame.tree.getChildren().get(frame.index);
+        Slot slot = frame.slots[frame.index];
+        frame.index++;
+        Path path = frame.path.resolve(entry.getName());
+        if (entry.isTree()) {
+            enter((Tree) take(slot), path);
+            return new Item(path, entry, null);
+        }
+        return new Item(path, entry, slot == null ? null : (Blob) take(slot));
+    }
+
+    // отменяет чтения, результаты которых уже не понадобятся
+    @Override
+    public void close() {
+        for (Slot slot : running) {
+            slot.future.cancel(false);
+        }
+        running.clear();
+        waiting.clear();
+        stack.clear();
+    }
+
+    private boolean isExcluded(@NotNull Frame frame, @NotNull TreeEntry entry) {
+        return entry.isTree() && !SparseCheckout.includes(sparse, frame.path.resolve(entry.getName()));
+    }
+
+    // чтения детей нового дерева нужны обходу раньше оставшихся детей его родителей
+    private void enter(@NotNull Tree tree, @NotNull Path path) {
+        List<TreeEntry> children = tree.getChildren();
+        Slot[] slots = new Slot[children.size()];
+        Frame frame = new Frame(tree, path, slots);
+        for (int i = children.size() - 1; i >= 0; i--) {
+            TreeEntry child = children.get(i);
+            if (child.isTree() ? !isExcluded(frame, child) : readBlobs) {
+                slots[i] = new Slot(tree, child.getHash());
+                waiting.addFirst(slots[i]);
+            }
+        }
+        stack.push(frame);
+        startReads();
+    }
+
+    private void startReads() {
+        while (!waiting.isEmpty() && running.size() < maxObjects && bufferedBytes.get() < maxBytes) {
+            Slot slot = waiting.pollFirst();
+            if (slot.taken) {
+                continue;
+            }
+            slot.future = readers.submit(() -> {
+                GitObject object = slot.parent.getChild(slot.hash);
+                if (object instanceof Blob) {
+                    bufferedBytes.addAndGet(((Blob) object).getContent().length);
+                }
+                return object;
+            });
+            running.add(slot);
+        }
+    }
+
+    private @NotNull GitObject take(@NotNull Slot slot) throws IOException, ClassNotFoundException {
+        slot.taken = true;
+        if (slot.future == null) {
+            // чтение еще не запущено из-за ограничений: оно тоже считается, поэтому место освобождается
+            while (!running.isEmpty() && (running.size() >= maxObjects || bufferedBytes.get() >= maxBytes)) {
+                evictLast();
+            }
+            return slot.parent.getChild(slot.hash);
+        }
+        running.remove(slot);
+        GitObject object;
+        try {
+            object = slot.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading object " + slot.hash);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) e.getCause();
+            }
+            throw new IOException("Failed to read object " + slot.hash, e.getCause());
+        }
+        unbuffer(object);
+        startReads();
+        return object;
+    }
+
+    /*
+     * Последнее запущенное чтение нужно обходу позже остальных. Оно дочитывается, результат
+     * отбрасывается, а объект возвращается в конец очереди и будет прочитан снова.
+     */
+    private void evictLast() throws IOException {
+        Slot last = null;
+        for (Slot slot : running) {
+            last = slot;
+        }
+        running.remove(last);
+        try {
+            unbuffer(last.future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading object " + last.hash);
+        } catch (ExecutionException e) {
+            // ошибку получит повторное чтение
+        }
+        last.future = null;
+        waiting.addLast(last);
+    }
+
+    private void unbuffer(@NotNull GitObject object) {
+        if (object instanceof Blob) {
+            bufferedBytes.addAndGet(-((Blob) object).getContent().length);
+        }
+    }
+
+    // все записи обхода; для тестов и небольших деревьев
+    static @NotNull List<Item> walk(@NotNull Tree tree, @Nullable SparseCheckout sparse, boolean readBlobs)
+            throws IOException, ClassNotFoundException {
+        List<Item> items = new ArrayList<>();
+        try (TreeWalker walker = new TreeWalker(tree, sparse, readBlobs)) {
+            while (walker.hasNext()) {
+                items.add(walker.next());
+            }
+        }
+        return items;
+    }
+}
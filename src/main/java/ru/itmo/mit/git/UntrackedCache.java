@@ -0,0 +1,155 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.itmo.mit.git.GitConstants.untrackedCache;
+
+/*
+ * Содержимое папок рабочей копии для status: путь папки относительно корня -> время ее
+ * изменения, хеш действующих в ней правил игнорирования и записи (имя, папка ли это,
+ * игнорируется ли). Время изменения папки меняется, когда в ней создают, удаляют или
+ * переименовывают файлы, поэтому папку с тем же временем и теми же правилами можно не
+ * перечитывать. Хранится в .mygit/untracked рабочей копии; в файл попадают только
+ * папки, пройденные последним status.
+ */
+final class UntrackedCache {
+    static final class Entry {
+        private final String name;
+        private final boolean directory;
+        private final boolean ignored;
+
+        Entry(@NotNull String name, boolean directory, boolean ignored) {
+            this.name = name;
+            this.directory = directory;
+            this.ignored = ignored;
+        }
+
+        @NotNull String getName() {
+            return name;
+        }
+
+        boolean isDirectory() {
+            return directory;
+        }
+
+        boolean isIgnored() {
+            return ignored;
+        }
+    }
+
+    private static final class Directory {
+        private final long modified;
+        private final int rulesHash;
+        private final List<Entry> entries;
+
+        Directory(long modified, int rulesHash, @NotNull List<Entry> entries) {
+            this.modified = modified;
+            this.rulesHash = rulesHash;
+            this.entries = entries;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Directory> loaded;
+    private final Map<String, Directory> visited = new HashMap<>();
+    private boolean changed;
+
+    private UntrackedCache(@NotNull Path file, @NotNull Map<String, Directory> loaded) {
+        this.file = file;
+        this.loaded = loaded;
+    }
+
+    static @NotNull UntrackedCache load(@NotNull Path root) throws IOException {
+        Path file = root.resolve(untrackedCache);
+        Map<String, Directory> directories = new HashMap<>();
+        if (Files.notExists(file)) {
+            return new UntrackedCache(file, directories);
+        }
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Statistics.add(Statistics.Counter.BYTES_READ, data.length);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                long modified = input.readLong();
+                int rulesHash = input.readInt();
+                int size = input.readInt();
+                List<Entry> entries = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    byte flags = input.readByte();
+                    entries.add(new Entry(input.readUTF(), (flags & 1) != 0, (flags & 2) != 0));
+                }
+                directories.put(path, new Directory(modified, rulesHash, entries));
+            }
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while reading the untracked cache: " + file);
+        }
+        return new UntrackedCache(file, directories);
+    }
+
+    // null, если папка изменилась или правила игнорирования другие
+    @Nullable List<Entry> get(@NotNull String path, long modified, int rulesHash) {
+        Directory directory = loaded.get(path);
+        if (directory == null || directory.modified != modified || directory.rulesHash != rulesHash) {
+            Statistics.increment(Statistics.Counter.CACHE_MISSES);
+            return null;
+        }
+        Statistics.increment(Statistics.Counter.CACHE_HITS);
+        visited.put(path, directory);
+        return directory.entries;
+    }
+
+    /*
+     * listedAt -- время перед чтением папки. Если папка изменилась в ту же секунду, ее
+     * следующее изменение может не поменять время, поэтому такая папка не запоминается.
+     */
+    void put(@NotNull String path, long modified, int rulesHash, @NotNull List<Entry> entries, long listedAt) {
+        changed = true;
+        if (modified / 1000 < listedAt / 1000) {
+            visited.put(path, new Directory(modified, rulesHash, entries));
+        }
+    }
+
+    void write() throws IOException {
+        if (!changed && visited.size() == loaded.size()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(visited.size());
+            for (Map.Entry<String, Directory> directory : visited.entrySet()) {
+                output.writeUTF(directory.getKey());
+                output.writeLong(directory.getValue().modified);
+                output.writeInt(directory.getValue().rulesHash);
+                output.writeInt(directory.getValue().entries.size());
+                for (Entry entry : directory.getValue().entries) {
+                    output.writeByte((entry.directory ? 1 : 0) | (entry.ignored ? 2 : 0));
+                    output.writeUTF(entry.name);
+                }
+            }
+        }
+        try (LockFile lock = LockFile.tryAcquire(file)) {
+            // файл уже пишет status другого процесса
+            if (lock != null) {
+                lock.write(bytes.toByteArray());
+                lock.commit();
+            }
+        } catch (IOException e) {
+            throw new IOException("IOException occurred while writing the untracked cache: " + file);
+        }
+    }
+}
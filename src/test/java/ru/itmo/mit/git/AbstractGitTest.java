@@ -96,6 +96,12 @@ public abstract class AbstractGitTest {
 
     // ------------------------------------ Методы для создания тестовых кейсов -----------------------------------------
 
+    // rm -rf * && git init options
+    protected void init(String... options) throws GitException {
+        cleanPlayground();
+        runCommand(GitConstants.INIT, options);
+    }
+
     // echo content > fileName
     protected void createFile(@NotNull String fileName, @NotNull String content) throws Exception {
         output.println(DASHES);
@@ -165,6 +171,11 @@ public abstract class AbstractGitTest {
         runCommand(GitConstants.LOG);
     }
 
+    // git log -- path
+    protected void logPath(@NotNull String path) throws GitException {
+        runCommand(GitConstants.LOG, "--", path);
+    }
+
     // git branch-create branch
     protected void createBranch(@NotNull String branch) throws GitException {
         runCommand(GitConstants.BRANCH_CREATE, branch);
@@ -190,6 +201,55 @@ public abstract class AbstractGitTest {
         runCommand(GitConstants.MERGE, branch);
     }
 
+    // git cherry-pick revision
+    protected void cherryPick(@NotNull String revision) throws GitException {
+        runCommand(GitConstants.CHERRY_PICK, revision);
+    }
+
+    // git rebase upstream
+    protected void rebase(@NotNull String upstream) throws GitException {
+        runCommand(GitConstants.REBASE, upstream);
+    }
+
+    // git fsck args
+    protected void fsck(String... args) throws GitException {
+        runCommand(GitConstants.FSCK, args);
+    }
+
+    // git clone source destination options
+    protected void cloneRepository(@NotNull String source, @NotNull String destination, String... options) throws GitException {
+        String[] args = new String[options.length + 2];
+        args[0] = source;
+        args[1] = destination;
+        System.arraycopy(options, 0, args, 2, options.length);
+        runCommand(GitConstants.CLONE, args);
+    }
+
+    // git worktree args
+    protected void worktree(String... args) throws GitException {
+        runCommand(GitConstants.WORKTREE, args);
+    }
+
+    // git sparse-checkout args
+    protected void sparseCheckout(String... args) throws GitException {
+        runCommand(GitConstants.SPARSE_CHECKOUT, args);
+    }
+
+    // git blame args
+    protected void blame(String... args) throws GitException {
+        runCommand(GitConstants.BLAME, args);
+    }
+
+    // git pack-refs
+    protected void packRefs() throws GitException {
+        runCommand(GitConstants.PACK_REFS);
+    }
+
+    // git gc
+    protected void gc() throws GitException {
+        runCommand(GitConstants.GC);
+    }
+
     /*
      * echo content > fileName
      * git add fileName
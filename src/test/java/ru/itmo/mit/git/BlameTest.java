@@ -0,0 +1,89 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * blame после новых коммитов берет результаты для старых версий файла из кеша
+ * и не обходит старую историю заново.
+ */
+public class BlameTest {
+    private static final int HISTORY = 60;
+    private static final int NEW_COMMITS = 3;
+
+    private Path root;
+    private Path file;
+    private RepositoryManager repositoryManager;
+    private final StringBuilder content = new StringBuilder();
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("mygit-blame").toAbsolutePath().normalize();
+        RepositoryManager.initRepository(root);
+        repositoryManager = RepositoryManager.getRepositoryManager(root);
+        file = root.resolve("file.txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryGenerator.delete(root);
+    }
+
+    @Test
+    public void blameAfterNewCommitsWalksOnlyNewHistory() throws Exception {
+        for (int i = 0; i < HISTORY; i++) {
+            commitLine("line " + i);
+        }
+        Statistics.reset();
+        List<ObjectId> first = blameHead();
+        assertEquals(HISTORY, first.size());
+        long firstReads = Statistics.get(Statistics.Counter.OBJECTS_READ);
+        long firstMisses = Statistics.get(Statistics.Counter.CACHE_MISSES);
+        assertEquals(HISTORY, countCached());
+        assertTrue(firstReads > HISTORY);
+
+        for (int i = HISTORY; i < HISTORY + NEW_COMMITS; i++) {
+            commitLine("line " + i);
+        }
+        Statistics.reset();
+        List<ObjectId> second = blameHead();
+        assertEquals(HISTORY + NEW_COMMITS, second.size());
+        assertEquals(first, second.subList(0, HISTORY));
+        // новые версии считаются, а обход останавливается на последней старой из кеша
+        assertEquals(HISTORY + NEW_COMMITS, countCached());
+        assertTrue(Statistics.get(Statistics.Counter.CACHE_HITS) >= 1);
+        long secondMisses = Statistics.get(Statistics.Counter.CACHE_MISSES);
+        assertTrue("cache misses: " + secondMisses + " of " + firstMisses, secondMisses < firstMisses / 4);
+        long secondReads = Statistics.get(Statistics.Counter.OBJECTS_READ);
+        assertTrue("objects read: " + secondReads + " of " + firstReads, secondReads < firstReads / 4);
+    }
+
+    // только обход истории, без чтения коммитов строк для вывода
+    private List<ObjectId> blameHead() throws Exception {
+        ObjectDatabase objects = ObjectDatabase.forRepository(root);
+        Commit head = (Commit) objects.read(ObjectId.fromString(repositoryManager.getRelativeRevisionFromHead(0)));
+        return new Blame(root, objects, root.relativize(file)).blame(head);
+    }
+
+    private long countCached() throws Exception {
+        try (Stream<Path> files = Files.list(root.resolve(GitConstants.blameDirectory))) {
+            return files.count();
+        }
+    }
+
+    private void commitLine(String line) throws Exception {
+        content.append(line).append('\n');
+        Files.write(file, content.toString().getBytes());
+        repositoryManager.add(file);
+        repositoryManager.commit(line);
+    }
+}
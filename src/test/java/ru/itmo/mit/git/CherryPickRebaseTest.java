@@ -0,0 +1,159 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * cherry-pick и rebase через слияние деревьев в памяти: рабочая копия пишется один раз
+ * в конце, а при конфликте или локальных правках не меняется совсем.
+ */
+public class CherryPickRebaseTest {
+    private static final int COMMITS = 100;
+
+    private Path root;
+    private RepositoryManager repositoryManager;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("mygit-rebase").toAbsolutePath().normalize();
+        RepositoryManager.initRepository(root);
+        repositoryManager = RepositoryManager.getRepositoryManager(root);
+        commit("shared.txt", "base");
+        commit("unrelated/file.txt", "unrelated");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryGenerator.delete(root);
+    }
+
+    @Test
+    public void rebaseUpdatesOnlyChangedFiles() throws Exception {
+        repositoryManager.createBranch("feature");
+        for (int i = 0; i < COMMITS; i++) {
+            commit("feature/file" + i % 10 + ".txt", "version " + i);
+        }
+        repositoryManager.checkout(GitConstants.MASTER);
+        commit("master.txt", "master");
+        repositoryManager.checkout("feature");
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(root.resolve("unrelated/file.txt"), old);
+
+        assertEquals(COMMITS, repositoryManager.rebase(GitConstants.MASTER));
+        assertEquals(COMMITS + 4, repositoryManager.log().getCommits().size());
+        assertArrayEquals("master".getBytes(), Files.readAllBytes(root.resolve("master.txt")));
+        assertArrayEquals(("version " + (COMMITS - 1)).getBytes(), Files.readAllBytes(root.resolve("feature/file9.txt")));
+        assertEquals(old, Files.getLastModifiedTime(root.resolve("unrelated/file.txt")));
+        assertTrue(repositoryManager.getStatus().getNotStagedFiles().isEmpty());
+    }
+
+    @Test
+    public void conflictLeavesRepositoryUnchanged() throws Exception {
+        repositoryManager.createBranch("feature");
+        commit("new.txt", "new");
+        commit("shared.txt", "feature");
+        repositoryManager.checkout(GitConstants.MASTER);
+        commit("shared.txt", "master");
+        String head = repositoryManager.getRelativeRevisionFromHead(0);
+        repositoryManager.checkout("feature");
+        String featureHead = repositoryManager.getRelativeRevisionFromHead(0);
+
+        try {
+            repositoryManager.rebase(GitConstants.MASTER);
+            fail();
+        } catch (GitException e) {
+            assertTrue(e.getMessage().contains("shared.txt"));
+        }
+        // объекты неудачного переноса дописаны до возврата из команды
+        assertTrue(ObjectInserter.getPendingHashes(root).isEmpty());
+        assertEquals(featureHead, repositoryManager.getRelativeRevisionFromHead(0));
+        assertArrayEquals("feature".getBytes(), Files.readAllBytes(root.resolve("shared.txt")));
+
+        repositoryManager.checkout(GitConstants.MASTER);
+        try {
+            repositoryManager.cherryPick("feature");
+            fail();
+        } catch (GitException e) {
+            assertTrue(e.getMessage().contains("shared.txt"));
+        }
+        assertTrue(ObjectInserter.getPendingHashes(root).isEmpty());
+        assertEquals(head, repositoryManager.getRelativeRevisionFromHead(0));
+        assertFalse(Files.exists(root.resolve("new.txt")));
+    }
+
+    @Test
+    public void rebaseLinearizesMergedBranches() throws Exception {
+        repositoryManager.createBranch("feature");
+        commit("feature.txt", "feature");
+        repositoryManager.createBranch("dev");
+        commit("dev.txt", "dev");
+        repositoryManager.checkout("feature");
+        repositoryManager.merge("dev");
+        repositoryManager.checkout(GitConstants.MASTER);
+        commit("master.txt", "master");
+        repositoryManager.checkout("feature");
+
+        assertEquals(2, repositoryManager.rebase(GitConstants.MASTER));
+        assertEquals(6, repositoryManager.log().getCommits().size());
+        assertTrue(Files.exists(root.resolve("dev.txt")));
+        assertTrue(Files.exists(root.resolve("master.txt")));
+    }
+
+    @Test
+    public void localChangesAreNotOverwritten() throws Exception {
+        repositoryManager.createBranch("feature");
+        commit("shared.txt", "feature");
+        repositoryManager.checkout(GitConstants.MASTER);
+        String head = repositoryManager.getRelativeRevisionFromHead(0);
+        Files.write(root.resolve("shared.txt"), "local".getBytes());
+
+        try {
+            repositoryManager.cherryPick("feature");
+            fail();
+        } catch (GitException e) {
+            assertTrue(e.getMessage().contains("shared.txt"));
+        }
+        assertEquals(head, repositoryManager.getRelativeRevisionFromHead(0));
+        assertArrayEquals("local".getBytes(), Files.readAllBytes(root.resolve("shared.txt")));
+    }
+
+    @Test
+    public void cherryPickReplacesFileWithDirectory() throws Exception {
+        commit("node", "file");
+        repositoryManager.createBranch("feature");
+        Files.delete(root.resolve("node"));
+        commit("node/child.txt", "child");
+        repositoryManager.checkout(GitConstants.MASTER);
+        commit("master.txt", "master");
+
+        repositoryManager.cherryPick("feature");
+        assertArrayEquals("child".getBytes(), Files.readAllBytes(root.resolve("node/child.txt")));
+        assertTrue(Files.exists(root.resolve("master.txt")));
+        assertTrue(repositoryManager.getStatus().getNotTrackedFiles().isEmpty());
+        try {
+            repositoryManager.cherryPick("feature");
+            fail();
+        } catch (GitException e) {
+            assertTrue(e.getMessage().contains("empty"));
+        }
+    }
+
+    private void commit(String path, String content) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes());
+        repositoryManager.add(file);
+        repositoryManager.commit(path);
+    }
+}
@@ -0,0 +1,191 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * Несколько RepositoryManager на одном репозитории ведут себя как отдельные процессы:
+ * общего у них только файлы в .mygit, поэтому изменения не должны теряться.
+ */
+public class ConcurrentAccessTest {
+    private static final int WRITERS = 4;
+    private static final int FILES_PER_WRITER = 10;
+
+    private Path root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("mygit-concurrent").toAbsolutePath().normalize();
+        RepositoryManager.initRepository(root);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryGenerator.delete(root);
+    }
+
+    @Test
+    public void concurrentAddsKeepAllEntries() throws Exception {
+        runConcurrently(writer -> {
+            RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+            for (int i = 0; i < FILES_PER_WRITER; i++) {
+                Path file = root.resolve("writer" + writer + "_" + i + ".txt");
+                Files.write(file, ("content " + writer + " " + i).getBytes());
+                repositoryManager.add(file);
+                // читатели не берут блокировку и не должны видеть недописанный индекс
+                repositoryManager.getStatus();
+            }
+            return null;
+        });
+
+        Status status = RepositoryManager.getRepositoryManager(root).getStatus();
+        assertEquals(WRITERS * FILES_PER_WRITER, status.getStagedFiles().size());
+        assertFalse(Files.exists(LockFile.getLockPath(root.resolve(GitConstants.index))));
+    }
+
+    @Test
+    public void concurrentCommitsKeepAllCommits() throws Exception {
+        runConcurrently(writer -> {
+            RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+            for (int i = 0; i < FILES_PER_WRITER; i++) {
+                Path file = root.resolve("writer" + writer + ".txt");
+                Files.write(file, ("content " + i).getBytes());
+                repositoryManager.add(file);
+                repositoryManager.commit("Commit " + writer + " " + i);
+            }
+            return null;
+        });
+
+        RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+        // плюс начальный коммит; коммит может забрать файлы, добавленные другим писателем
+        assertEquals(WRITERS * FILES_PER_WRITER + 1, repositoryManager.log().getCommits().size());
+        Status status = repositoryManager.getStatus();
+        assertTrue(status.getStagedFiles().isEmpty());
+        assertTrue(status.getNotStagedFiles().isEmpty());
+        assertTrue(status.getNotTrackedFiles().isEmpty());
+    }
+
+    @Test
+    public void concurrentInsertsOfOneObjectWriteItOnce() throws Exception {
+        Statistics.reset();
+        runConcurrently(writer -> {
+            ObjectDatabase objects = ObjectDatabase.forRepository(root);
+            for (int i = 0; i < FILES_PER_WRITER; i++) {
+                Blob blob = new Blob(objects, "same content".getBytes());
+                // объект читается сразу, даже если еще не записан
+                assertEquals(blob.getHash(), GitObject.read(root.resolve(GitConstants.objectsDirectory)
+                        .resolve(blob.getHash().toString())).getHash());
+            }
+            return null;
+        });
+        ObjectInserter.flush(root);
+        assertEquals(1, Statistics.get(Statistics.Counter.OBJECTS_WRITTEN));
+        try (Stream<Path> objects = Files.list(root.resolve(GitConstants.objectsDirectory))) {
+            assertTrue(objects.noneMatch(object -> object.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void writeFailureIsReportedToEveryFlushOfItsRepository() throws Exception {
+        Path other = Files.createTempDirectory("mygit-concurrent").toAbsolutePath().normalize();
+        try {
+            RepositoryManager.initRepository(other);
+            RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+            Path file = root.resolve("file.txt");
+            Files.write(file, "lost".getBytes());
+            // объекты репозитория некуда записать
+            Path objectsDirectory = root.resolve(GitConstants.objectsDirectory);
+            Path moved = root.resolve("objects.moved");
+            Files.move(objectsDirectory, moved);
+            try {
+                repositoryManager.add(file);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("writing the object"));
+            }
+            // ошибка не достается другому репозиторию и не теряется после первого flush
+            ObjectDatabase otherObjects = ObjectDatabase.forRepository(other);
+            new Blob(otherObjects, "other".getBytes());
+            otherObjects.flush();
+            runConcurrently(writer -> {
+                try {
+                    ObjectDatabase.forRepository(root).flush();
+                    fail();
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().contains("writing the object"));
+                }
+                return null;
+            });
+            Files.move(moved, objectsDirectory);
+            assertTrue(RepositoryManager.getRepositoryManager(root).getStatus().getStagedFiles().isEmpty());
+
+            // повторная вставка записывает объект, и ошибка забывается
+            repositoryManager.add(file);
+            ObjectDatabase.forRepository(root).flush();
+            assertEquals(1, repositoryManager.getStatus().getStagedFiles().size());
+        } finally {
+            RepositoryGenerator.delete(other);
+        }
+    }
+
+    @Test
+    public void commandReadsIndexOnce() throws Exception {
+        RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < FILES_PER_WRITER; i++) {
+            Path file = root.resolve("file" + i + ".txt");
+            Files.write(file, ("content " + i).getBytes());
+            files.add(file);
+        }
+        Statistics.reset();
+        repositoryManager.add(files);
+        assertEquals(1, Statistics.get(Statistics.Counter.INDEX_READS));
+
+        Statistics.reset();
+        repositoryManager.commit("Commit");
+        assertEquals(1, Statistics.get(Statistics.Counter.INDEX_READS));
+
+        // вторая команда того же RepositoryManager снова читает файлы: их мог поменять другой процесс
+        Statistics.reset();
+        repositoryManager.getStatus();
+        repositoryManager.getStatus();
+        assertEquals(2, Statistics.get(Statistics.Counter.INDEX_READS));
+    }
+
+    private interface Writer {
+        Void run(int writer) throws Exception;
+    }
+
+    private static void runConcurrently(Writer writer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                int number = i;
+                futures.add(executor.submit((Callable<Void>) () -> writer.run(number)));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package ru.itmo.mit.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/*
+ * Репозиторий в формате первой версии mygit (см. StringHashFormat). Объекты и ветки
+ * сериализуются классами с теми же полями и serialVersionUID, что были у Blob, Tree, Commit
+ * и Branch первой версии, а в потоке их имена заменяются на имена тех классов. Хеши
+ * считаются так же, как в первой версии; пути в индексе абсолютные.
+ */
+final class FirstVersionRepository {
+    private final Path root;
+
+    FirstVersionRepository(Path root) throws Exception {
+        this.root = root;
+        Files.createDirectories(root.resolve(GitConstants.objectsDirectory));
+        Files.createDirectories(root.resolve(GitConstants.branchesDirectory));
+        Files.write(root.resolve(GitConstants.index), new byte[0]);
+        Files.write(root.resolve(GitConstants.head), new byte[0]);
+    }
+
+    String blob(String fileName, String content) throws Exception {
+        byte[] bytes = content.getBytes();
+        byte[] array = new byte[bytes.length + fileName.getBytes().length];
+        System.arraycopy(bytes, 0, array, 0, bytes.length);
+        System.arraycopy(fileName.getBytes(), 0, array, bytes.length, fileName.getBytes().length);
+        OldBlob blob = new OldBlob(fileName, sha1Hex(array), bytes);
+        write(root.resolve(GitConstants.objectsDirectory).resolve(blob.hash), blob);
+        return blob.hash;
+    }
+
+    // children -- хеши блобов и деревьев
+    OldTree tree(String directoryName, String... children) throws Exception {
+        StringBuilder content = new StringBuilder(directoryName);
+        Arrays.stream(children).forEach(content::append);
+        // в первой версии корень дерева -- отдельная строка, а не ссылка на строку коммита
+        OldTree tree = new OldTree(new ArrayList<>(Arrays.asList(children)), directoryName,
+                sha1Hex(content.toString().getBytes()), new String(root.toString()));
+        write(root.resolve(GitConstants.objectsDirectory).resolve(tree.hash), tree);
+        return tree;
+    }
+
+    String commit(String message, String author, Date date, OldTree tree, String... parents) throws Exception {
+        List<String> parentList = new ArrayList<>(Arrays.asList(parents));
+        StringBuilder content = new StringBuilder().append(message).append(author).append(date).append(parentList).append(tree.hash);
+        parentList.forEach(content::append);
+        OldCommit commit = new OldCommit(root.toString(), message, author, date, parentList, tree, sha1Hex(content.toString().getBytes()));
+        write(root.resolve(GitConstants.objectsDirectory).resolve(commit.hash), commit);
+        return commit.hash;
+    }
+
+    // "~" -- отделенный HEAD
+    void branch(String name, String commit) throws Exception {
+        OldBranch branch = new OldBranch(root.toString(), sha1Hex((name + commit).getBytes()), name, commit);
+        write(root.resolve(GitConstants.branchesDirectory).resolve(name), branch);
+    }
+
+    void head(String name, String commit) throws Exception {
+        Files.write(root.resolve(GitConstants.head), (name + "\n" + commit + "\n").getBytes());
+    }
+
+    void index(Path file, String hash) throws Exception {
+        Files.write(root.resolve(GitConstants.index), (file + " " + hash + "\n").getBytes(), StandardOpenOption.APPEND);
+    }
+
+    private static String sha1Hex(byte[] data) throws Exception {
+        return String.format("%040x", new BigInteger(1, MessageDigest.getInstance("SHA-1").digest(data)));
+    }
+
+    private static void write(Path file, Serializable object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(object);
+        }
+        byte[] data = bytes.toByteArray();
+        for (Class<?> type : Arrays.asList(OldBlob.class, OldTree.class, OldCommit.class, OldBranch.class)) {
+            String name = "ru.itmo.mit.git." + type.getSimpleName().substring("Old".length());
+            data = replace(data, utf(type.getName()), utf(name));
+            data = replace(data, utf("L" + type.getName().replace('.', '/') + ";"), utf("L" + name.replace('.', '/') + ";"));
+        }
+        Files.write(file, data);
+    }
+
+    private static byte[] utf(String name) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(name);
+        }
+        return bytes.toByteArray();
+    }
+
+    // заменяет все вхождения
+    private static byte[] replace(byte[] data, byte[] from, byte[] to) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < data.length) {
+            if (i + from.length <= data.length && Arrays.equals(Arrays.copyOfRange(data, i, i + from.length), from)) {
+                result.write(to, 0, to.length);
+                i += from.length;
+            } else {
+                result.write(data[i++]);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    static final class OldBlob implements Serializable {
+        private static final long serialVersionUID = -1763376399940442622L;
+
+        private final String fileName;
+        private final String hash;
+        private final byte[] content;
+
+        OldBlob(String fileName, String hash, byte[] content) {
+            this.fileName = fileName;
+            this.hash = hash;
+            this.content = content;
+        }
+    }
+
+    static final class OldTree implements Serializable {
+        private static final long serialVersionUID = -6904673934143326774L;
+
+        private final List<String> children;
+        private final String directoryName;
+        private final String hash;
+        private final String root;
+
+        OldTree(List<String> children, String directoryName, String hash, String root) {
+            this.children = children;
+            this.directoryName = directoryName;
+            this.hash = hash;
+            this.root = root;
+        }
+
+        String getHash() {
+            return hash;
+        }
+    }
+
+    static final class OldCommit implements Serializable {
+        private static final long serialVersionUID = 8602455835453127260L;
+
+        private final String root;
+        private final String message;
+        private final String author;
+        private final Date date;
+        private final List<String> parents;
+        private final OldTree tree;
+        private final String hash;
+
+        OldCommit(String root, String message, String author, Date date, List<String> parents, OldTree tree, String hash) {
+            this.root = root;
+            this.message = message;
+            this.author = author;
+            this.date = date;
+            this.parents = parents;
+            this.tree = tree;
+            this.hash = hash;
+        }
+    }
+
+    static final class OldBranch implements Serializable {
+        private static final long serialVersionUID = 5268441053360658462L;
+
+        private final String root;
+        private final String hash;
+        private final String name;
+        private final String commit;
+
+        OldBranch(String root, String hash, String name, String commit) {
+            this.root = root;
+            this.hash = hash;
+            this.name = name;
+            this.commit = commit;
+        }
+    }
+}
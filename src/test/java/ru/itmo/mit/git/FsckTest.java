@@ -0,0 +1,139 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * fsck: хеши объектов пересчитываются по содержимому, ссылки деревьев, коммитов,
+ * веток и индекса проверяются, недостижимые объекты находятся в обоих хранилищах.
+ */
+public class FsckTest {
+    private Path root;
+    private RepositoryManager repositoryManager;
+    private ObjectId draft;
+    private ObjectId file;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("mygit-fsck").toAbsolutePath().normalize();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryGenerator.delete(root);
+    }
+
+    @Test
+    public void fileRepositoryWithUnreachableBlob() throws Exception {
+        checkUnreachableBlob(RepositoryConfig.FILE_OBJECTS);
+    }
+
+    @Test
+    public void logRepositoryWithUnreachableBlob() throws Exception {
+        checkUnreachableBlob(RepositoryConfig.LOG_OBJECTS);
+    }
+
+    @Test
+    public void corruptedObjectsAreReported() throws Exception {
+        createRepository(RepositoryConfig.FILE_OBJECTS);
+        Path objectsDirectory = root.resolve(GitConstants.objectsDirectory);
+        // содержимое другого объекта под именем file и мусор под именем draft
+        Files.copy(objectsDirectory.resolve(draft.toString()), objectsDirectory.resolve(file.toString()),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.write(objectsDirectory.resolve(draft.toString()), new byte[]{1, 2, 3});
+
+        List<String> errors = repositoryManager.fsck().getErrors();
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0).startsWith("corrupt object " + draft));
+        assertTrue(errors.get(1).startsWith("hash mismatch in blob " + file + ": content hashes to " + draft));
+    }
+
+    @Test
+    public void missingObjectsAndBrokenRefsAreReported() throws Exception {
+        createRepository(RepositoryConfig.FILE_OBJECTS);
+        Files.delete(root.resolve(GitConstants.objectsDirectory).resolve(file.toString()));
+        Files.write(root.resolve(GitConstants.branchesDirectory).resolve("broken"), draft.toString().getBytes());
+        String missing = String.join("", Collections.nCopies(draft.toString().length(), "0"));
+        Files.write(root.resolve(GitConstants.branchesDirectory).resolve("lost"), missing.getBytes());
+
+        Fsck fsck = repositoryManager.fsck();
+        List<String> errors = fsck.getErrors();
+        assertEquals(3, errors.size());
+        assertEquals("branch broken refers to " + draft + " as a commit, but it is a blob", errors.get(0));
+        assertTrue(errors.get(1).startsWith("missing blob " + file + " referenced by "));
+        assertEquals("missing commit " + missing + " referenced by branch lost", errors.get(2));
+        // draft теперь достижим из ветки broken
+        assertTrue(fsck.getUnreachable().isEmpty());
+    }
+
+    @Test
+    public void legacyBlobsAfterMigrateAreUnreachable() throws Exception {
+        createRepository(RepositoryConfig.FILE_OBJECTS);
+        List<ObjectId> before = ObjectDatabase.forRepository(root).list();
+        LegacyRepository.rewrite(root);
+        RepositoryManager.migrateRepository(root);
+        repositoryManager = RepositoryManager.getRepositoryManager(root);
+
+        // старые блобы проверяются по старому хешу и остаются недостижимыми до gc
+        Fsck fsck = repositoryManager.fsck();
+        assertEquals(Collections.emptyList(), fsck.getErrors());
+        assertTrue(fsck.getUnreachable().contains(draft));
+        List<ObjectId> legacy = new ArrayList<>(fsck.getUnreachable());
+        legacy.removeAll(before);
+        assertFalse(legacy.isEmpty());
+
+        // подмененный старый блоб по-прежнему находится
+        Path objectsDirectory = root.resolve(GitConstants.objectsDirectory);
+        ObjectId tampered = null;
+        for (ObjectId hash : legacy) {
+            GitObject object = ObjectDatabase.forRepository(root).read(hash);
+            if (object instanceof Blob) {
+                tampered = hash;
+                break;
+            }
+        }
+        Files.copy(objectsDirectory.resolve(file.toString()), objectsDirectory.resolve(String.valueOf(tampered)),
+                StandardCopyOption.REPLACE_EXISTING);
+        List<String> errors = repositoryManager.fsck().getErrors();
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).startsWith("hash mismatch in blob " + tampered + ": content hashes to " + file));
+    }
+
+    private void checkUnreachableBlob(String objectStore) throws Exception {
+        createRepository(objectStore);
+        Fsck fsck = repositoryManager.fsck();
+        assertEquals(Collections.emptyList(), fsck.getErrors());
+        // initial commit, его дерево, коммит, дерево, file и draft
+        assertEquals(6, fsck.getObjectCount());
+        assertEquals(Collections.singletonList(draft), fsck.getUnreachable());
+        assertEquals(Collections.singletonList(draft), fsck.getDangling());
+    }
+
+    // в индексе был draft, потом его заменил file
+    private void createRepository(String objectStore) throws Exception {
+        RepositoryManager.initRepository(root, HashAlgorithm.DEFAULT, objectStore);
+        repositoryManager = RepositoryManager.getRepositoryManager(root);
+        Path path = root.resolve("file.txt");
+        Files.write(path, "draft".getBytes());
+        repositoryManager.add(path);
+        Files.write(path, "file".getBytes());
+        repositoryManager.add(path);
+        repositoryManager.commit("Add file");
+        ObjectDatabase objects = ObjectDatabase.forRepository(root);
+        draft = new Blob(objects, "draft".getBytes()).getHash();
+        file = new Blob(objects, "file".getBytes()).getHash();
+        objects.flush();
+    }
+}
@@ -178,6 +178,249 @@ public class GitTest extends AbstractGitTest {
         check("branchRemove.txt");
     }
 
+    @Test
+    public void testAddDirectoriesAndGlobs() throws Exception {
+        createFile("dir/file1.txt", "aaa");
+        createFile("dir/sub/file2.txt", "bbb");
+        createFile("dir/sub/file3.md", "ccc");
+        createFile("file4.txt", "ddd");
+        add("dir", "file4.txt");
+        status();
+        rm("**.md");
+        status();
+        commit("Add dir");
+        status();
+        createFile("dir/file1.txt", "eee");
+        createFile("file4.txt", "fff");
+        add("*.txt", "dir/*.txt");
+        status();
+
+        check("addDirectoriesAndGlobs.txt");
+    }
+
+    @Test
+    public void testPackRefs() throws Exception {
+        createFileAndCommit("file1.txt", "aaa");
+        createBranch("develop");
+        createBranch("feature");
+        checkoutBranch("master");
+        packRefs();
+        createFileAndCommit("file2.txt", "bbb");
+        createBranch("hotfix");
+        showBranches();
+        checkoutBranch("feature");
+        createFileAndCommit("file3.txt", "ccc");
+        removeBranch("develop");
+        showBranches();
+        checkoutBranch("master");
+        status();
+        log();
+
+        check("packRefs.txt");
+    }
+
+    @Test
+    public void testClone() throws Exception {
+        createFileAndCommit("file1.txt", "aaa");
+        createBranch("develop");
+        createFileAndCommit("file2.txt", "bbb");
+        cloneRepository(".", "copy");
+        fileContent("copy/file1.txt");
+        fileContent("copy/file2.txt");
+        createFileAndCommit("file3.txt", "ccc");
+        cloneRepository(".", "shallow", "--depth", "1");
+        fileContent("shallow/file2.txt");
+        fileContent("shallow/file3.txt");
+        cloneRepository(".", "copy");
+        cloneRepository(".", "other", "--depth", "0");
+
+        check("clone.txt");
+    }
+
+    @Test
+    public void testWorktree() throws Exception {
+        createFileAndCommit("file1.txt", "aaa");
+        createBranch("develop");
+        createFileAndCommit("file2.txt", "bbb");
+        checkoutMaster();
+        worktree("add", "develop-tree", "develop");
+        fileContent("develop-tree/file1.txt");
+        fileContent("develop-tree/file2.txt");
+        worktree("list");
+        checkoutBranch("develop");
+        removeBranch("develop");
+        worktree("add", "master-tree", "master");
+        worktree("list");
+        status();
+        log();
+
+        check("worktree.txt");
+    }
+
+    @Test
+    public void testSparseCheckout() throws Exception {
+        createFile("root.txt", "root");
+        createFile("app/main.txt", "main");
+        createFile("lib/util.txt", "util");
+        createFile("lib/deep/inner.txt", "inner");
+        add("root.txt", "app", "lib");
+        commit("Add project");
+        sparseCheckout("set", "app");
+        sparseCheckout("list");
+        fileContent("root.txt");
+        fileContent("lib/util.txt");
+        status();
+        createFile("app/main.txt", "main v2");
+        add("app/main.txt");
+        commit("Change app");
+        status();
+        sparseCheckout("disable");
+        fileContent("app/main.txt");
+        fileContent("lib/util.txt");
+        fileContent("lib/deep/inner.txt");
+        status();
+
+        check("sparseCheckout.txt");
+    }
+
+    @Test
+    public void testIgnoreFiles() throws Exception {
+        createFile(".mygitignore", "build/\n*.log\n!keep.log\n/secret.txt");
+        createFile("main.txt", "main");
+        createFile("error.log", "error");
+        createFile("keep.log", "keep");
+        createFile("secret.txt", "secret");
+        createFile("build/out.txt", "out");
+        createFile("src/secret.txt", "not secret");
+        createFile("src/.mygitignore", "*.tmp");
+        createFile("src/cache.tmp", "cache");
+        status();
+        add(".");
+        status();
+        add("error.log");
+        add("build/out.txt");
+        commit("Add files");
+        status();
+        createFile("src/.mygitignore", "*.tmp\nsecret.txt");
+        createFile("src/secret.txt", "changed");
+        status();
+
+        check("ignoreFiles.txt");
+    }
+
+    @Test
+    public void testBlame() throws Exception {
+        createFile("file.txt", "first\nsecond\n");
+        add("file.txt");
+        commit("Add file");
+        createFileAndCommit("other.txt", "other");
+        createBranch("feature");
+        createFile("file.txt", "first\nsecond\nfeature\n");
+        add("file.txt");
+        commit("Feature line");
+        checkoutBranch("master");
+        createFile("file.txt", "zero\nfirst\nsecond changed\n");
+        add("file.txt");
+        commit("Change master");
+        blame("file.txt");
+        blame("file.txt", "feature");
+        merge("feature");
+        createFile("file.txt", "zero\nfirst\nsecond changed\nfeature\n");
+        add("file.txt");
+        commit("Resolve merge");
+        blame("file.txt");
+        blame("other.txt");
+        blame("missing.txt");
+
+        check("blame.txt");
+    }
+
+    @Test
+    public void testLogPath() throws Exception {
+        createFileAndCommit("a.txt", "a");
+        createFileAndCommit("dir/b.txt", "b");
+        createFileAndCommit("dir/sub/c.txt", "c");
+        createBranch("feature");
+        createFileAndCommit("dir/sub/c.txt", "c feature");
+        createFileAndCommit("dir/sub/d.txt", "d");
+        checkoutBranch("master");
+        createFileAndCommit("a.txt", "a master");
+        merge("feature");
+        logPath("dir/sub");
+        logPath("a.txt");
+        logPath("dir/b.txt");
+        logPath("missing.txt");
+
+        check("logPath.txt");
+    }
+
+    @Test
+    public void testContentBlobs() throws Exception {
+        createFile("license.txt", "MIT");
+        createFile("lib/license.txt", "MIT");
+        createFile("copy.txt", "MIT");
+        add("license.txt", "lib", "copy.txt");
+        commit("Add licenses");
+        createFile("lib/license.txt", "Apache");
+        status();
+        add("lib/license.txt");
+        commit("Change lib license");
+        createFile("renamed.txt", "MIT");
+        deleteFile("copy.txt");
+        createFile("lib/license.txt", "MIT");
+        status();
+        checkoutRevision(1);
+        fileContent("license.txt");
+        fileContent("lib/license.txt");
+        fileContent("copy.txt");
+        checkoutMaster();
+        logPath("license.txt");
+
+        check("contentBlobs.txt");
+    }
+
+    @Test
+    public void testLogObjectStore() throws Exception {
+        init("--object-store=log");
+        createFileAndCommit("file1.txt", "aaa");
+        createFile("file2.txt", "draft");
+        add("file2.txt");
+        createFile("file2.txt", "bbb");
+        add("file2.txt");
+        commit("Add file2");
+        status();
+        gc();
+        checkoutRevision(1);
+        fileContent("file1.txt");
+        fileContent("file2.txt");
+        checkoutMaster();
+        fileContent("file2.txt");
+        cloneRepository(".", "copy");
+        fileContent("copy/file2.txt");
+        gc();
+
+        check("logObjectStore.txt");
+    }
+
+    @Test
+    public void testSameFileNames() throws Exception {
+        createFile("a/x.txt", "a");
+        createFile("b/x.txt", "b");
+        createFile("b/c/x.txt", "c");
+        add("a", "b");
+        commit("Add files");
+        createFile("b/x.txt", "b changed");
+        deleteFile("b/c/x.txt");
+        status();
+        checkoutFiles("--", "b/x.txt");
+        fileContent("a/x.txt");
+        fileContent("b/x.txt");
+        status();
+        checkoutFiles("--", "c/x.txt");
+
+        check("sameFileNames.txt");
+    }
+
     @Test
     public void testMerge() throws Exception {
         createFileAndCommit("master.txt", "aaa");
@@ -205,6 +448,43 @@ public class GitTest extends AbstractGitTest {
         check("merge.txt");
     }
 
+    @Test
+    public void testCherryPickAndRebase() throws Exception {
+        createFileAndCommit("file.txt", "base");
+        createBranch("feature");
+        createFileAndCommit("dir/feature1.txt", "feature1");
+        createFileAndCommit("dir/feature2.txt", "feature2");
+        checkoutBranch("master");
+        createFileAndCommit("master.txt", "master");
+        cherryPick("feature");
+        status();
+        fileContent("dir/feature2.txt");
+        checkoutBranch("feature");
+        rebase("master");
+        status();
+        log();
+        fileContent("master.txt");
+        fileContent("dir/feature1.txt");
+
+        check("cherryPickAndRebase.txt");
+    }
+
+    @Test
+    public void testFsck() throws Exception {
+        createFileAndCommit("file1.txt", "aaa");
+        createFile("file2.txt", "draft");
+        add("file2.txt");
+        createFile("file2.txt", "bbb");
+        add("file2.txt");
+        commit("Add file2");
+        fsck();
+        createBranch("feature");
+        createFileAndCommit("dir/file3.txt", "ccc");
+        fsck();
+
+        check("fsck.txt");
+    }
+
     @Test
     public void testLog() throws Exception {
         createFileAndCommit("file1.txt", "file1");
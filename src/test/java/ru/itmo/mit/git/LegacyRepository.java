@@ -0,0 +1,159 @@
+package ru.itmo.mit.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Переписывает репозиторий в старый формат: хеш блоба считается по содержимому и имени
+ * файла, как до перехода на блобы по содержимому. Деревья, коммиты, ветки, HEAD, индексы,
+ * shallow и фильтры путей переводятся на новые хеши, из настроек убирается blobFormat.
+ */
+final class LegacyRepository {
+    private final Path common;
+    private final FileObjectDatabase objects;
+    private final HashAlgorithm hashAlgorithm;
+    private final Map<ObjectId, ObjectId> commits = new HashMap<>();
+
+    private LegacyRepository(Path common) throws Exception {
+        this.common = common;
+        objects = new FileObjectDatabase(common);
+        hashAlgorithm = objects.getHashAlgorithm();
+    }
+
+    // common -- корень репозитория, worktrees -- рабочие копии, у которых переписываются HEAD и индекс
+    static void rewrite(Path common, Path... worktrees) throws Exception {
+        new LegacyRepository(common).rewriteRefs(worktrees);
+    }
+
+    private void rewriteRefs(Path... worktrees) throws Exception {
+        BranchRegistry branches = new BranchRegistry(common, common);
+        for (Map.Entry<String, ObjectId> ref : branches.getAll().entrySet()) {
+            branches.put(new Branch(ref.getKey(), commit(ref.getValue())));
+        }
+        for (Path worktree : worktrees) {
+            BranchRegistry refs = new BranchRegistry(common, worktree);
+            Branch head = refs.getHead();
+            refs.setHead(new Branch(head.getName(), commit(head.getCommitHash())));
+            FileIndexStore index = new FileIndexStore(worktree);
+            List<Pair> entries = new ArrayList<>();
+            for (Pair pair : index.read()) {
+                entries.add(new Pair(pair.getPath(), blob(pair.getHash(), pair.getPath().getFileName().toString())));
+            }
+            index.write(entries);
+        }
+        Path shallowFile = common.resolve(GitConstants.shallow);
+        if (Files.exists(shallowFile)) {
+            StringBuilder content = new StringBuilder();
+            for (String line : Files.readAllLines(shallowFile)) {
+                content.append(commits.get(ObjectId.fromString(line))).append('\n');
+            }
+            Files.write(shallowFile, content.toString().getBytes());
+        }
+        Path bloom = common.resolve(GitConstants.bloomDirectory);
+        for (Map.Entry<ObjectId, ObjectId> commit : commits.entrySet()) {
+            Path filter = bloom.resolve(commit.getKey().toString());
+            if (Files.exists(filter) && !commit.getKey().equals(commit.getValue())) {
+                Files.move(filter, bloom.resolve(commit.getValue().toString()));
+            }
+        }
+        objects.flush();
+        Map<String, String> config = new TreeMap<>();
+        config.put(RepositoryConfig.OBJECT_FORMAT, RepositoryConfig.forRepository(common).get(RepositoryConfig.OBJECT_FORMAT));
+        RepositoryConfig.create(common, config);
+        // список объектов появился позже
+        Files.delete(common.resolve(GitConstants.objectList));
+    }
+
+    // родителей, которых нет в неглубоком клоне, старый формат не меняет
+    private ObjectId commit(ObjectId hash) throws Exception {
+        ObjectId legacy = commits.get(hash);
+        if (legacy != null) {
+            return legacy;
+        }
+        if (!objects.contains(hash)) {
+            commits.put(hash, hash);
+            return hash;
+        }
+        Commit commit = (Commit) objects.read(hash);
+        List<ObjectId> parents = new ArrayList<>();
+        for (ObjectId parent : commit.getParents()) {
+            parents.add(commit(parent));
+        }
+        legacy = commit.rewrite(objects, parents, tree(commit.getTree())).getHash();
+        commits.put(hash, legacy);
+        return legacy;
+    }
+
+    private Tree tree(Tree tree) throws Exception {
+        List<TreeEntry> children = new ArrayList<>();
+        for (TreeEntry child : tree.getChildren()) {
+            ObjectId hash = child.isTree()
+                    ? tree((Tree) objects.read(child.getHash())).getHash()
+                    : blob(child.getHash(), child.getName());
+            children.add(new TreeEntry(child.getName(), child.getType(), hash));
+        }
+        return new Tree(objects, tree.getDirectoryName(), children);
+    }
+
+    private ObjectId blob(ObjectId hash, String fileName) throws Exception {
+        byte[] content = ((Blob) objects.read(hash)).getContent();
+        ObjectId legacy = hashAlgorithm.newHasher().update(content).update(fileName).digest();
+        Files.write(common.resolve(GitConstants.objectsDirectory).resolve(legacy.toString()),
+                serialize(new LegacyBlob(fileName, legacy, content)));
+        return legacy;
+    }
+
+    // байты блоба прошлых версий: тот же класс Blob, но с полем fileName
+    private static byte[] serialize(LegacyBlob blob) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(blob);
+        }
+        return replace(bytes.toByteArray(), utf(LegacyBlob.class.getName()), utf(Blob.class.getName()));
+    }
+
+    private static byte[] utf(String name) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(name);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] replace(byte[] data, byte[] from, byte[] to) {
+        for (int i = 0; i + from.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + from.length), from)) {
+                byte[] result = new byte[data.length - from.length + to.length];
+                System.arraycopy(data, 0, result, 0, i);
+                System.arraycopy(to, 0, result, i, to.length);
+                System.arraycopy(data, i + from.length, result, i + to.length, data.length - i - from.length);
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Class name is not found in the serialized blob");
+    }
+
+    static final class LegacyBlob implements Serializable {
+        private static final long serialVersionUID = -3850016679732708321L;
+
+        private final String fileName;
+        private final ObjectId hash;
+        private final byte[] content;
+
+        LegacyBlob(String fileName, ObjectId hash, byte[] content) {
+            this.fileName = fileName;
+            this.hash = hash;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Сегменты objectStore=log: подсказки закрытых сегментов, недописанный хвост,
+ * запись из двух объектов-хранилищ и compact.
+ */
+public class LogObjectDatabaseTest {
+    // маленькие сегменты, чтобы несколько объектов закрывали сегмент
+    private static final long SEGMENT_SIZE = 256;
+    private static final int BLOBS = 50;
+
+    private Path root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("mygit-log").toAbsolutePath().normalize();
+        RepositoryManager.initRepository(root, HashAlgorithm.DEFAULT, RepositoryConfig.LOG_OBJECTS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryGenerator.delete(root);
+    }
+
+    @Test
+    public void reopenedDatabaseReadsSealedSegmentsFromHints() throws Exception {
+        List<ObjectId> hashes = writeBlobs(LogObjectDatabase.open(root, SEGMENT_SIZE), "blob");
+        List<Path> segments = listFiles(".seg");
+        assertTrue(segments.size() > 1);
+        assertEquals(segments.size() - 1, listFiles(".hint").size());
+
+        Statistics.reset();
+        LogObjectDatabase database = LogObjectDatabase.open(root, SEGMENT_SIZE);
+        // прочитан только последний сегмент и подсказки
+        assertTrue(Statistics.get(Statistics.Counter.BYTES_READ) < Files.size(segments.get(0)) * segments.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            assertArrayEquals(("blob" + i).getBytes(), ((Blob) database.read(hashes.get(i))).getContent());
+        }
+    }
+
+    @Test
+    public void incompleteRecordIsIgnoredAndOverwritten() throws Exception {
+        ObjectId first = new Blob(LogObjectDatabase.open(root), "first".getBytes()).getHash();
+        Path segment = listFiles(".seg").get(0);
+        long size = Files.size(segment);
+        // запись, которую процесс не успел дописать
+        Files.write(segment, new byte[]{0, 0, 1, 0, 42, 42, 42}, StandardOpenOption.APPEND);
+
+        LogObjectDatabase database = LogObjectDatabase.open(root);
+        assertTrue(database.contains(first));
+        ObjectId second = new Blob(database, "second".getBytes()).getHash();
+        assertTrue(Files.size(segment) > size);
+
+        LogObjectDatabase reopened = LogObjectDatabase.open(root);
+        assertArrayEquals("first".getBytes(), ((Blob) reopened.read(first)).getContent());
+        assertArrayEquals("second".getBytes(), ((Blob) reopened.read(second)).getContent());
+    }
+
+    @Test
+    public void objectsWrittenByAnotherDatabaseAreVisible() throws Exception {
+        LogObjectDatabase first = LogObjectDatabase.open(root, SEGMENT_SIZE);
+        LogObjectDatabase second = LogObjectDatabase.open(root, SEGMENT_SIZE);
+        List<ObjectId> firstHashes = writeBlobs(first, "first");
+        List<ObjectId> secondHashes = writeBlobs(second, "second");
+        for (int i = 0; i < BLOBS; i++) {
+            assertArrayEquals(("first" + i).getBytes(), ((Blob) second.read(firstHashes.get(i))).getContent());
+            assertArrayEquals(("second" + i).getBytes(), ((Blob) first.read(secondHashes.get(i))).getContent());
+        }
+    }
+
+    @Test
+    public void compactKeepsOnlyLiveObjects() throws Exception {
+        LogObjectDatabase database = LogObjectDatabase.open(root, SEGMENT_SIZE);
+        List<ObjectId> hashes = writeBlobs(database, "blob");
+        Commit initialCommit = Repository.open(root).log(null).get(0);
+        Set<ObjectId> live = new HashSet<>();
+        live.add(initialCommit.getHash());
+        live.add(initialCommit.getTree().getHash());
+        for (int i = 0; i < hashes.size(); i += 2) {
+            live.add(hashes.get(i));
+        }
+        LogObjectDatabase other = LogObjectDatabase.open(root, SEGMENT_SIZE);
+
+        assertEquals(hashes.size() / 2, database.compact(live));
+        for (int i = 0; i < hashes.size(); i++) {
+            assertEquals(live.contains(hashes.get(i)), database.contains(hashes.get(i)));
+        }
+        // другой объект-хранилище перечитывает сегменты, удаленные compact
+        for (ObjectId hash : live) {
+            assertEquals(hash, other.read(hash).getHash());
+        }
+        assertFalse(LogObjectDatabase.open(root, SEGMENT_SIZE).contains(hashes.get(1)));
+    }
+
+    @Test
+    public void gcKeepsHistoryAndIndex() throws Exception {
+        RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+        Files.write(root.resolve("file.txt"), "draft".getBytes());
+        repositoryManager.add(root.resolve("file.txt"));
+        Files.write(root.resolve("file.txt"), "first".getBytes());
+        repositoryManager.add(root.resolve("file.txt"));
+        repositoryManager.commit("First");
+        Files.write(root.resolve("file.txt"), "staged".getBytes());
+        repositoryManager.add(root.resolve("file.txt"));
+
+        assertEquals(1, repositoryManager.gc());
+        assertEquals(0, repositoryManager.gc());
+        repositoryManager.commit("Second");
+        assertEquals(3, repositoryManager.log().getCommits().size());
+        repositoryManager.checkout(repositoryManager.getRelativeRevisionFromHead(1));
+        assertArrayEquals("first".getBytes(), Files.readAllBytes(root.resolve("file.txt")));
+    }
+
+    private static List<ObjectId> writeBlobs(ObjectDatabase database, String prefix) {
+        List<ObjectId> hashes = new ArrayList<>();
+        for (int i = 0; i < BLOBS; i++) {
+            hashes.add(new Blob(database, (prefix + i).getBytes()).getHash());
+        }
+        return hashes;
+    }
+
+    private List<Path> listFiles(String suffix) throws Exception {
+        try (Stream<Path> files = Files.list(root.resolve(GitConstants.segmentsDirectory))) {
+            return files.filter(file -> file.toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * migrate: репозиторий, в котором хеш блоба зависел от имени файла, строится переписыванием
+ * обычного в старый формат (LegacyRepository). Коммиты сохраняют автора, дату и сообщение, поэтому после
+ * migrate история, ветки, HEAD и индексы должны вернуться к исходным хешам.
+ * Репозиторий первой версии пишет FirstVersionRepository.
+ */
+public class MigrateTest {
+    private Path root;
+    private Path worktree;
+    private Path clone;
+
+    @Before
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("mygit-migrate").toAbsolutePath().normalize();
+        root = directory.resolve("repository");
+        worktree = directory.resolve("worktree");
+        clone = directory.resolve("clone");
+        Files.createDirectories(root);
+        RepositoryManager.initRepository(root);
+        RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+        commit(repositoryManager, root, "a.txt", "same");
+        commit(repositoryManager, root, "dir/b.txt", "same");
+        repositoryManager.createBranch("feature");
+        commit(repositoryManager, root, "dir/c.txt", "feature");
+        repositoryManager.checkout(GitConstants.MASTER);
+        commit(repositoryManager, root, "a.txt", "master");
+        repositoryManager.blame(root.resolve("a.txt"), null);
+        Files.write(root.resolve("staged.txt"), "staged".getBytes());
+        repositoryManager.add(root.resolve("staged.txt"));
+
+        repositoryManager.addWorktree(worktree, "feature");
+        RepositoryManager worktreeManager = RepositoryManager.getRepositoryManager(worktree);
+        commit(worktreeManager, worktree, "worktree.txt", "worktree");
+        Files.write(worktree.resolve("a.txt"), "changed in worktree".getBytes());
+        worktreeManager.add(worktree.resolve("a.txt"));
+
+        RepositoryManager.cloneRepository(root, clone, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryGenerator.delete(root.getParent());
+    }
+
+    @Test
+    public void migrateRestoresHistoryRefsAndIndexes() throws Exception {
+        State expected = State.read(root, worktree);
+        LegacyRepository.rewrite(root, worktree);
+        State legacy = State.read(root, worktree);
+        assertNotEquals(expected.branches, legacy.branches);
+        assertNotEquals(expected.indexes, legacy.indexes);
+        try {
+            RepositoryManager.getRepositoryManager(root);
+            fail();
+        } catch (GitException e) {
+            assertTrue(e.getMessage().contains("migrate"));
+        }
+
+        RepositoryManager.migrateRepository(worktree);
+        assertEquals(RepositoryConfig.CONTENT_BLOBS, RepositoryConfig.forRepository(root).get(RepositoryConfig.BLOB_FORMAT));
+        State migrated = State.read(root, worktree);
+        assertEquals(expected.branches, migrated.branches);
+        assertEquals(expected.heads, migrated.heads);
+        assertEquals(expected.indexes, migrated.indexes);
+        assertEquals(expected.log, migrated.log);
+        // фильтры старых коммитов остаются рядом с новыми, как и сами объекты
+        assertTrue(migrated.filters.containsAll(expected.filters));
+        try (Stream<Path> files = Files.list(root.resolve(GitConstants.blameDirectory))) {
+            assertEquals(0, files.count());
+        }
+        Status status = RepositoryManager.getRepositoryManager(root).getStatus();
+        assertEquals(1, status.getStagedFiles().size());
+        assertTrue(status.getNotStagedFiles().isEmpty());
+
+        // второй migrate ничего не меняет
+        try {
+            RepositoryManager.migrateRepository(root);
+            fail();
+        } catch (GitException e) {
+            assertTrue(e.getMessage().contains("already"));
+        }
+        State again = State.read(root, worktree);
+        assertEquals(migrated.branches, again.branches);
+        assertEquals(migrated.heads, again.heads);
+        assertEquals(migrated.indexes, again.indexes);
+    }
+
+    @Test
+    public void migrateRewritesShallowClone() throws Exception {
+        List<String> shallow = Files.readAllLines(clone.resolve(GitConstants.shallow));
+        State expected = State.read(clone);
+        LegacyRepository.rewrite(clone);
+        assertNotEquals(shallow, Files.readAllLines(clone.resolve(GitConstants.shallow)));
+
+        RepositoryManager.migrateRepository(clone);
+        assertEquals(shallow, Files.readAllLines(clone.resolve(GitConstants.shallow)));
+        State migrated = State.read(clone);
+        assertEquals(expected.branches, migrated.branches);
+        assertEquals(expected.heads, migrated.heads);
+        assertEquals(expected.log, migrated.log);
+    }
+
+    @Test
+    public void firstVersionObjectsAreRead() throws Exception {
+        Path first = writeFirstVersion();
+        Path objects = first.resolve(GitConstants.objectsDirectory);
+        String master = Files.readAllLines(first.resolve(GitConstants.head)).get(1);
+        StringHashFormat.Commit commit = (StringHashFormat.Commit) StringHashFormat.read(objects.resolve(master));
+        assertEquals("Master", commit.getMessage());
+        assertEquals(master, commit.getHash());
+        assertEquals(1, commit.getParents().size());
+        assertEquals(2, commit.getTree().getChildren().size());
+        StringHashFormat.Blob blob = (StringHashFormat.Blob) StringHashFormat.read(objects.resolve(commit.getTree().getChildren().get(0)));
+        assertEquals("a.txt", blob.getFileName());
+        assertEquals("changed", new String(blob.getContent()));
+        StringHashFormat.Tree tree = (StringHashFormat.Tree) StringHashFormat.read(objects.resolve(commit.getTree().getChildren().get(1)));
+        assertEquals("dir", tree.getDirectoryName());
+        StringHashFormat.Branch feature = (StringHashFormat.Branch) StringHashFormat.read(first.resolve(GitConstants.branchesDirectory).resolve("feature"));
+        StringHashFormat.Commit featureCommit = (StringHashFormat.Commit) StringHashFormat.read(objects.resolve(feature.getCommitHash()));
+        assertEquals("Feature", featureCommit.getMessage());
+        assertEquals(commit.getParents(), featureCommit.getParents());
+
+        try {
+            RepositoryManager.getRepositoryManager(first);
+            fail();
+        } catch (GitException e) {
+            assertTrue(e.getMessage().contains("first version"));
+            assertTrue(e.getMessage().contains("migrate"));
+        }
+    }
+
+    @Test
+    public void migrateConvertsFirstVersionRepository() throws Exception {
+        Path first = writeFirstVersion();
+        RepositoryManager.migrateRepository(first);
+        assertTrue(Files.notExists(first.resolve(GitConstants.oldObjectsDirectory)));
+        assertTrue(Files.exists(first.resolve(GitConstants.objectList)));
+
+        RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(first);
+        assertEquals(Arrays.asList("feature", GitConstants.MASTER), repositoryManager.getBranches());
+        assertEquals(GitConstants.MASTER, repositoryManager.getCurrentBranchesName());
+        List<String> log = new ArrayList<>();
+        for (CommitInfo commit : repositoryManager.log().getCommits()) {
+            log.add(commit.getMessage() + " " + commit.getAuthor() + " " + commit.getDate());
+        }
+        assertEquals(Arrays.asList(
+                "Master author " + new Date(1600000003000L),
+                "First author " + new Date(1600000001000L),
+                "Initial commit author " + new Date(1600000000000L)), log);
+        Status status = repositoryManager.getStatus();
+        assertEquals(1, status.getStagedFiles().size());
+        assertTrue(status.getNotStagedFiles().isEmpty());
+        assertTrue(status.getNotTrackedFiles().isEmpty());
+        assertEquals(Collections.emptyList(), repositoryManager.fsck().getErrors());
+
+        repositoryManager.commit("Staged");
+        repositoryManager.checkout("feature");
+        assertEquals("gamma", new String(Files.readAllBytes(first.resolve("dir/c.txt"))));
+        assertEquals("alpha", new String(Files.readAllBytes(first.resolve("a.txt"))));
+
+        try {
+            RepositoryManager.migrateRepository(first);
+            fail();
+        } catch (GitException e) {
+            assertTrue(e.getMessage().contains("already"));
+        }
+    }
+
+    /*
+     * Репозиторий первой версии рядом с остальными: master и feature расходятся после коммита
+     * "First", HEAD на master, staged.txt добавлен в индекс.
+     */
+    private Path writeFirstVersion() throws Exception {
+        Path first = root.getParent().resolve("first");
+        FirstVersionRepository repository = new FirstVersionRepository(first);
+        String author = "author";
+        String initial = repository.commit("Initial commit", author, new Date(1600000000000L), repository.tree("first"));
+        String a = repository.blob("a.txt", "alpha");
+        String b = repository.blob("b.txt", "beta");
+        FirstVersionRepository.OldTree directory = repository.tree("dir", b);
+        String base = repository.commit("First", author, new Date(1600000001000L),
+                repository.tree("first", a, directory.getHash()), initial);
+        FirstVersionRepository.OldTree featureDirectory = repository.tree("dir", b, repository.blob("c.txt", "gamma"));
+        String feature = repository.commit("Feature", author, new Date(1600000002000L),
+                repository.tree("first", a, featureDirectory.getHash()), base);
+        String master = repository.commit("Master", author, new Date(1600000003000L),
+                repository.tree("first", repository.blob("a.txt", "changed"), directory.getHash()), base);
+        repository.branch(GitConstants.MASTER, master);
+        repository.branch("feature", feature);
+        // первая версия оставляет ветку "~" после checkout коммита
+        repository.branch(Branch.DETACHED, base);
+        repository.head(GitConstants.MASTER, master);
+        Files.createDirectories(first.resolve("dir"));
+        Files.write(first.resolve("a.txt"), "changed".getBytes());
+        Files.write(first.resolve("dir/b.txt"), "beta".getBytes());
+        Files.write(first.resolve("staged.txt"), "staged".getBytes());
+        repository.index(first.resolve("staged.txt"), repository.blob("staged.txt", "staged"));
+        return first;
+    }
+
+    private static void commit(RepositoryManager repositoryManager, Path directory, String path, String content) throws Exception {
+        Path file = directory.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes());
+        repositoryManager.add(file);
+        repositoryManager.commit("Write " + path);
+    }
+
+    // ветки, HEAD и индексы рабочих копий, история HEAD основной копии и фильтры путей
+    private static final class State {
+        private SortedMap<String, ObjectId> branches;
+        private final List<String> heads = new ArrayList<>();
+        private final List<String> indexes = new ArrayList<>();
+        private final List<String> log = new ArrayList<>();
+        private final List<String> filters = new ArrayList<>();
+
+        private static State read(Path common, Path... worktrees) throws Exception {
+            State state = new State();
+            List<Path> all = new ArrayList<>();
+            all.add(common);
+            all.addAll(Arrays.asList(worktrees));
+            for (Path worktree : all) {
+                BranchRegistry refs = new BranchRegistry(common, worktree);
+                state.branches = refs.getAll();
+                Branch head = refs.getHead();
+                state.heads.add(head.getName() + " " + head.getCommitHash());
+                for (Pair pair : new FileIndexStore(worktree).read()) {
+                    state.indexes.add(pair.getPath() + " " + pair.getHash());
+                }
+            }
+            if (RepositoryConfig.forRepository(common).get(RepositoryConfig.BLOB_FORMAT) != null) {
+                for (CommitInfo commit : RepositoryManager.getRepositoryManager(common).log().getCommits()) {
+                    state.log.add(commit.getHash() + " " + commit.getAuthor() + " " + commit.getDate() + " " + commit.getMessage());
+                }
+            }
+            Path bloom = common.resolve(GitConstants.bloomDirectory);
+            if (Files.exists(bloom)) {
+                try (Stream<Path> files = Files.list(bloom)) {
+                    files.map(file -> file.getFileName().toString()).sorted().forEach(state.filters::add);
+                }
+            }
+            return state;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Фильтр Блума хешей объектов: без ложных отрицаний при росте и с редкими ложными
+ * срабатываниями. Хранилище в файлах строит его по списку объектов и в начале каждой
+ * команды дочитывает список; отсутствующие объекты проверяются без обращения к папке.
+ */
+public class ObjectFilterTest {
+    private static final int OBJECTS = 20_000;
+
+    private Path root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("mygit-filter").toAbsolutePath().normalize();
+        RepositoryManager.initRepository(root);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ObjectInserter.flush(root);
+        RepositoryGenerator.delete(root);
+    }
+
+    @Test
+    public void growingFilterHasNoFalseNegatives() {
+        ObjectFilter filter = new ObjectFilter(0);
+        List<ObjectId> added = hashes("added", OBJECTS);
+        added.forEach(filter::add);
+        for (ObjectId hash : added) {
+            assertTrue(filter.mightContain(hash));
+        }
+        int falsePositives = 0;
+        for (ObjectId hash : hashes("missing", OBJECTS)) {
+            if (filter.mightContain(hash)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < OBJECTS / 20);
+    }
+
+    @Test
+    public void negativeAnswerDoesNotTouchObjectsDirectory() throws Exception {
+        FileObjectDatabase objects = new FileObjectDatabase(root);
+        objects.refresh();
+        Statistics.reset();
+        for (ObjectId missing : hashes("missing", 100)) {
+            assertFalse(objects.contains(missing));
+        }
+        assertEquals(0, Statistics.get(Statistics.Counter.OBJECT_FILES_CHECKED));
+
+        // файл, записанный мимо списка, хранилище не видит
+        Blob blob = new Blob(new InMemoryObjectDatabase(HashAlgorithm.DEFAULT), "not listed".getBytes());
+        Files.write(root.resolve(GitConstants.objectsDirectory).resolve(blob.getHash().toString()), GitObject.serialize(blob));
+        objects.refresh();
+        assertFalse(objects.contains(blob.getHash()));
+    }
+
+    @Test
+    public void negativeAnswerInStatusDoesNotTouchObjectsDirectory() throws Exception {
+        RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Path file = root.resolve("file" + i + ".txt");
+            Files.write(file, ("file " + i).getBytes());
+            repositoryManager.add(file);
+            files.add(file);
+        }
+        repositoryManager.commit("Add files");
+        for (Path file : files.subList(0, 3)) {
+            Files.write(file, "changed".getBytes());
+        }
+
+        Statistics.reset();
+        Status status = RepositoryManager.getRepositoryManager(root).getStatus();
+        assertEquals(3, status.getNotStagedFiles().size());
+        // на диске проверен только блоб неизмененного файла
+        assertEquals(1, Statistics.get(Statistics.Counter.OBJECT_FILES_CHECKED));
+    }
+
+    @Test
+    public void objectsOfOtherProcessesAreSeenByNextCommand() throws Exception {
+        FileObjectDatabase objects = new FileObjectDatabase(root);
+        objects.refresh();
+        ObjectId hash = HashAlgorithm.DEFAULT.newHasher().update("other process".getBytes()).digest();
+        assertFalse(objects.contains(hash));
+        writeFromOtherProcess("other process");
+        // список уже прочитан: до начала следующей команды объект не виден
+        assertFalse(objects.contains(hash));
+
+        objects.refresh();
+        Statistics.reset();
+        assertTrue(objects.contains(hash));
+        // дочитан только конец списка
+        assertTrue(Statistics.get(Statistics.Counter.BYTES_READ) < 100);
+    }
+
+    @Test
+    public void recreatedRepositoryIsReadAgain() throws Exception {
+        FileObjectDatabase objects = new FileObjectDatabase(root);
+        objects.refresh();
+        insert(objects, "old", 50);
+        objects.flush();
+        objects.refresh();
+        assertTrue(objects.contains(new Blob(new InMemoryObjectDatabase(HashAlgorithm.DEFAULT), "old0".getBytes()).getHash()));
+
+        RepositoryGenerator.delete(root);
+        Files.createDirectories(root);
+        RepositoryManager.initRepository(root);
+        ObjectId hash = writeFromOtherProcess("new repository");
+        objects.refresh();
+        assertTrue(objects.contains(hash));
+    }
+
+    @Test
+    public void repositoryWithoutListChecksFiles() throws Exception {
+        Files.delete(root.resolve(GitConstants.objectList));
+        FileObjectDatabase objects = new FileObjectDatabase(root);
+        objects.refresh();
+        ObjectId hash = HashAlgorithm.DEFAULT.newHasher().update("other process".getBytes()).digest();
+        assertFalse(objects.contains(hash));
+        writeFromOtherProcess("other process");
+        assertTrue(objects.contains(hash));
+        assertEquals(hash, new Blob(objects, "other process".getBytes()).getHash());
+    }
+
+    @Test
+    public void insertedObjectsAreSeenByAllDatabasesOfRepository() throws Exception {
+        FileObjectDatabase objects = new FileObjectDatabase(root);
+        FileObjectDatabase another = new FileObjectDatabase(root.resolve("."));
+        objects.refresh();
+        assertFalse(another.contains(HashAlgorithm.DEFAULT.newHasher().update("inserted".getBytes()).digest()));
+        ObjectId hash = new Blob(objects, "inserted".getBytes()).getHash();
+        assertTrue(another.contains(hash));
+        objects.flush();
+        assertTrue(another.contains(hash));
+        assertTrue(Files.exists(root.resolve(GitConstants.objectsDirectory).resolve(hash.toString())));
+
+        // записанный объект есть и в списке
+        another.refresh();
+        assertTrue(objects.contains(hash));
+        assertEquals(hash, objects.read(hash).getHash());
+    }
+
+    private static void insert(FileObjectDatabase objects, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            new Blob(objects, (prefix + i).getBytes());
+        }
+    }
+
+    private ObjectId writeFromOtherProcess(String content) throws Exception {
+        Blob blob = new Blob(new InMemoryObjectDatabase(HashAlgorithm.DEFAULT), content.getBytes());
+        GitObject.write(blob, root);
+        return blob.getHash();
+    }
+
+    private static List<ObjectId> hashes(String prefix, int count) {
+        List<ObjectId> hashes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hashes.add(HashAlgorithm.DEFAULT.newHasher().update((prefix + i).getBytes()).digest());
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,172 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/*
+ * Детерминированный генератор репозиториев: при одинаковом seed и параметрах
+ * создаются одинаковые файлы, коммиты и ветки.
+ */
+public class RepositoryGenerator {
+    private static final int FAN_OUT = 4;
+
+    private final Random random;
+    private int fileCount = 1;
+    private int depth = 0;
+    private int fileSize = 64;
+    private int commitCount = 0;
+    private int filesPerCommit = 1;
+    private int branchCount = 0;
+    private int branchCommitCount = 1;
+    private boolean mergeBranches = false;
+
+    public RepositoryGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    public RepositoryGenerator fileCount(int fileCount) {
+        this.fileCount = fileCount;
+        return this;
+    }
+
+    // число уровней каталогов над каждым файлом, в каждом каталоге до FAN_OUT подкаталогов
+    public RepositoryGenerator depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    public RepositoryGenerator fileSize(int fileSize) {
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    // число коммитов в master после коммита со всеми файлами
+    public RepositoryGenerator commitCount(int commitCount) {
+        this.commitCount = commitCount;
+        return this;
+    }
+
+    public RepositoryGenerator filesPerCommit(int filesPerCommit) {
+        this.filesPerCommit = filesPerCommit;
+        return this;
+    }
+
+    // ветки branch-0 ... branch-(branchCount - 1), каждая отходит от текущего master
+    public RepositoryGenerator branches(int branchCount, int branchCommitCount, boolean mergeBranches) {
+        this.branchCount = branchCount;
+        this.branchCommitCount = branchCommitCount;
+        this.mergeBranches = mergeBranches;
+        return this;
+    }
+
+    public @NotNull GeneratedRepository generate(@NotNull Path root) throws IOException, GitException, ClassNotFoundException {
+        Files.createDirectories(root);
+        RepositoryManager.initRepository(root);
+        RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+        GeneratedRepository repository = new GeneratedRepository(root, repositoryManager, createFiles(root));
+
+        repositoryManager.add(repository.getFiles());
+        repositoryManager.commit("Generated files");
+        for (int i = 0; i < commitCount; i++) {
+            commitChanges(repository, "Commit " + i);
+        }
+
+        for (int i = 0; i < branchCount; i++) {
+            String branch = "branch-" + i;
+            repositoryManager.createBranch(branch);
+            for (int j = 0; j < branchCommitCount; j++) {
+                commitChanges(repository, branch + " commit " + j);
+            }
+            repositoryManager.checkout(GitConstants.MASTER);
+            if (mergeBranches) {
+                commitChanges(repository, "Master before merge " + i);
+                repositoryManager.merge(branch);
+            }
+        }
+        return repository;
+    }
+
+    /*
+     * Меняет содержимое filesPerCommit случайных файлов и коммитит их.
+     */
+    public void commitChanges(@NotNull GeneratedRepository repository, @NotNull String message) throws IOException, GitException, ClassNotFoundException {
+        stageChanges(repository);
+        repository.getRepositoryManager().commit(message);
+    }
+
+    public void stageChanges(@NotNull GeneratedRepository repository) throws IOException, GitException, ClassNotFoundException {
+        List<Path> files = repository.getFiles();
+        for (int i = 0; i < filesPerCommit; i++) {
+            Path file = files.get(random.nextInt(files.size()));
+            Files.write(file, content());
+            repository.getRepositoryManager().add(file);
+        }
+    }
+
+    private @NotNull List<Path> createFiles(@NotNull Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < fileCount; i++) {
+            Path directory = root;
+            int bucket = i;
+            for (int level = 0; level < depth; level++) {
+                directory = directory.resolve("dir" + bucket % FAN_OUT);
+                bucket /= FAN_OUT;
+            }
+            Files.createDirectories(directory);
+            Path file = directory.resolve("file" + i + ".txt");
+            Files.write(file, content());
+            files.add(file);
+        }
+        return files;
+    }
+
+    private @NotNull byte[] content() {
+        byte[] content = new byte[fileSize];
+        for (int i = 0; i < fileSize; i++) {
+            content[i] = (byte) ('a' + random.nextInt(26));
+        }
+        return content;
+    }
+
+    public static void delete(@NotNull Path root) throws IOException {
+        if (Files.notExists(root)) {
+            return;
+        }
+        List<Path> paths = Files.walk(root).sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    public static class GeneratedRepository {
+        private final Path root;
+        private final RepositoryManager repositoryManager;
+        private final List<Path> files;
+
+        GeneratedRepository(@NotNull Path root, @NotNull RepositoryManager repositoryManager, @NotNull List<Path> files) {
+            this.root = root;
+            this.repositoryManager = repositoryManager;
+            this.files = files;
+        }
+
+        public Path getRoot() {
+            return root;
+        }
+
+        public RepositoryManager getRepositoryManager() {
+            return repositoryManager;
+        }
+
+        public List<Path> getFiles() {
+            return files;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.fail;
+import static ru.itmo.mit.git.GitConstants.objectsDirectory;
+
+/*
+ * Проверяет асимптотику команд на сгенерированных репозиториях: команда запускается
+ * на маленьком и большом репозитории, и по отношению времени работы и числа
+ * записанных объектов оценивается показатель степени роста. Если он больше
+ * заявленного больше чем на TOLERANCE, тест падает.
+ *
+ * Запускается только отдельной задачей ./gradlew scalingTest, в check не входит:
+ * время работы зависит от загрузки машины.
+ */
+public class RepositoryScalingTest {
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("scaling.tolerance", "0.5"));
+    private static final int REPEATS = Integer.getInteger("scaling.repeats", 7);
+    // прогоны до замеров, чтобы первый размер не измерялся на непрогретой JVM
+    private static final int WARMUP = 5;
+    // более короткие замеры считаются равными этому порогу, чтобы шум не выдавался за рост
+    private static final long MIN_NANOS = 500_000;
+
+    private static final int SMALL_HISTORY = 20;
+    private static final int LARGE_HISTORY = 160;
+    private static final int SMALL_FILES = 50;
+    private static final int LARGE_FILES = 400;
+    private static final int MANY_FILES = 512;
+
+    private enum Complexity {
+        CONSTANT(0, "O(1)"),
+        LINEAR(1, "O(n)");
+
+        private final double exponent;
+        private final String name;
+
+        Complexity(double exponent, String name) {
+            this.exponent = exponent;
+            this.name = name;
+        }
+    }
+
+    private interface Step {
+        void run(@NotNull RepositoryGenerator generator, @NotNull RepositoryGenerator.GeneratedRepository repository) throws Exception;
+    }
+
+    private static class Measurement {
+        private final long nanos;
+        private final long objects;
+
+        Measurement(long nanos, long objects) {
+            this.nanos = nanos;
+            this.objects = objects;
+        }
+    }
+
+    @Test
+    public void commitIsConstantInHistory() throws Exception {
+        assertScaling("commit", Complexity.CONSTANT, SMALL_HISTORY, LARGE_HISTORY, this::history,
+                (generator, repository) -> generator.stageChanges(repository),
+                (generator, repository) -> repository.getRepositoryManager().commit("Measured commit"));
+    }
+
+    @Test
+    public void addIsConstantInHistory() throws Exception {
+        assertScaling("add", Complexity.CONSTANT, SMALL_HISTORY, LARGE_HISTORY, this::history,
+                (generator, repository) -> Files.write(repository.getFiles().get(0), "added".getBytes()),
+                (generator, repository) -> repository.getRepositoryManager().add(repository.getFiles().get(0)));
+    }
+
+    @Test
+    public void statusIsConstantInHistory() throws Exception {
+        assertScaling("status", Complexity.CONSTANT, SMALL_HISTORY, LARGE_HISTORY, this::history,
+                (generator, repository) -> {},
+                (generator, repository) -> repository.getRepositoryManager().getStatus());
+    }
+
+    // проверки блобов многих отслеживаемых файлов не зависят от числа объектов в истории
+    @Test
+    public void statusOfManyFilesIsConstantInHistory() throws Exception {
+        assertScaling("status", Complexity.CONSTANT, SMALL_HISTORY, LARGE_HISTORY,
+                commits -> new RepositoryGenerator(commits).fileCount(MANY_FILES).depth(1).commitCount(commits).filesPerCommit(MANY_FILES / 2),
+                (generator, repository) -> {},
+                (generator, repository) -> repository.getRepositoryManager().getStatus());
+    }
+
+    @Test
+    public void resetIsConstantInHistory() throws Exception {
+        assertScaling("reset HEAD~1", Complexity.CONSTANT, SMALL_HISTORY, LARGE_HISTORY, this::history,
+                (generator, repository) -> generator.commitChanges(repository, "Commit to reset"),
+                (generator, repository) -> {
+                    RepositoryManager repositoryManager = repository.getRepositoryManager();
+                    repositoryManager.reset(repositoryManager.getRelativeRevisionFromHead(1));
+                });
+    }
+
+    @Test
+    public void checkoutIsConstantInHistory() throws Exception {
+        assertScaling("checkout HEAD~1", Complexity.CONSTANT, SMALL_HISTORY, LARGE_HISTORY, this::history,
+                (generator, repository) -> repository.getRepositoryManager().checkout(GitConstants.MASTER),
+                (generator, repository) -> {
+                    RepositoryManager repositoryManager = repository.getRepositoryManager();
+                    repositoryManager.checkout(repositoryManager.getRelativeRevisionFromHead(1));
+                });
+    }
+
+    @Test
+    public void branchCreateIsConstantInHistory() throws Exception {
+        int[] branch = new int[1];
+        assertScaling("branch-create", Complexity.CONSTANT, SMALL_HISTORY, LARGE_HISTORY, this::history,
+                (generator, repository) -> repository.getRepositoryManager().checkout(GitConstants.MASTER),
+                (generator, repository) -> repository.getRepositoryManager().createBranch("measured-" + branch[0]++));
+    }
+
+    @Test
+    public void logIsLinearInHistory() throws Exception {
+        assertScaling("log", Complexity.LINEAR, SMALL_HISTORY, LARGE_HISTORY, this::history,
+                (generator, repository) -> {},
+                (generator, repository) -> repository.getRepositoryManager().log());
+    }
+
+    @Test
+    public void logPathIsLinearInHistory() throws Exception {
+        assertScaling("log -- path", Complexity.LINEAR, SMALL_HISTORY, LARGE_HISTORY, this::history,
+                (generator, repository) -> {},
+                (generator, repository) -> repository.getRepositoryManager().log(repository.getFiles().get(0)));
+    }
+
+    @Test
+    public void statusIsLinearInFiles() throws Exception {
+        assertScaling("status", Complexity.LINEAR, SMALL_FILES, LARGE_FILES,
+                files -> new RepositoryGenerator(files).fileCount(files).depth(2),
+                (generator, repository) -> {},
+                (generator, repository) -> repository.getRepositoryManager().getStatus());
+    }
+
+    private @NotNull RepositoryGenerator history(int commits) {
+        return new RepositoryGenerator(commits).fileCount(8).depth(1).commitCount(commits);
+    }
+
+    private void assertScaling(@NotNull String command, @NotNull Complexity declared, int small, int large,
+                               @NotNull IntFunction<RepositoryGenerator> generators,
+                               @NotNull Step prepare, @NotNull Step measured) throws Exception {
+        Measurement smallMeasurement = measure(generators.apply(small), prepare, measured);
+        Measurement largeMeasurement = measure(generators.apply(large), prepare, measured);
+
+        double time = exponent(Math.max(smallMeasurement.nanos, MIN_NANOS), Math.max(largeMeasurement.nanos, MIN_NANOS), small, large);
+        double objects = exponent(Math.max(smallMeasurement.objects, 1), Math.max(largeMeasurement.objects, 1), small, large);
+        if (time > declared.exponent + TOLERANCE) {
+            fail(String.format("%s is declared %s, but its time grows as n^%.2f (%d us for n = %d, %d us for n = %d)",
+                    command, declared.name, time,
+                    smallMeasurement.nanos / 1000, small, largeMeasurement.nanos / 1000, large));
+        }
+        if (objects > declared.exponent + TOLERANCE) {
+            fail(String.format("%s is declared %s, but the number of written objects grows as n^%.2f (%d for n = %d, %d for n = %d)",
+                    command, declared.name, objects,
+                    smallMeasurement.objects, small, largeMeasurement.objects, large));
+        }
+    }
+
+    private @NotNull Measurement measure(@NotNull RepositoryGenerator generator, @NotNull Step prepare, @NotNull Step measured) throws Exception {
+        Path root = Files.createTempDirectory("mygit-scaling");
+        try {
+            RepositoryGenerator.GeneratedRepository repository = generator.generate(root);
+            for (int i = 0; i < WARMUP; i++) {
+                prepare.run(generator, repository);
+                measured.run(generator, repository);
+            }
+            long bestNanos = Long.MAX_VALUE;
+            long maxObjects = 0;
+            for (int i = 0; i < REPEATS; i++) {
+                prepare.run(generator, repository);
+                long objectsBefore = countObjects(root);
+                long start = System.nanoTime();
+                measured.run(generator, repository);
+                bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+                maxObjects = Math.max(maxObjects, countObjects(root) - objectsBefore);
+            }
+            return new Measurement(bestNanos, maxObjects);
+        } finally {
+            RepositoryGenerator.delete(root);
+        }
+    }
+
+    private static long countObjects(@NotNull Path root) throws IOException {
+        try (Stream<Path> objects = Files.list(root.resolve(objectsDirectory))) {
+            return objects.count();
+        }
+    }
+
+    private static double exponent(long smallValue, long largeValue, int small, int large) {
+        return Math.log((double) largeValue / smallValue) / Math.log((double) large / small);
+    }
+}
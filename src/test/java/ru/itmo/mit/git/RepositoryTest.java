@@ -0,0 +1,94 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/*
+ * Встраиваемый API: одни и те же сценарии на хранилище в памяти и на файлах .mygit,
+ * с которыми параллельно работает RepositoryManager.
+ */
+public class RepositoryTest {
+    private Path root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("mygit-repository").toAbsolutePath().normalize();
+        RepositoryManager.initRepository(root);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryGenerator.delete(root);
+    }
+
+    @Test
+    public void inMemoryRepository() throws Exception {
+        checkCommitsAndBranches(Repository.inMemory());
+    }
+
+    @Test
+    public void fileRepository() throws Exception {
+        checkCommitsAndBranches(Repository.open(root));
+    }
+
+    @Test
+    public void fileRepositorySharesStateWithRepositoryManager() throws Exception {
+        Repository repository = Repository.open(root);
+        repository.add("dir/file.txt", "from repository".getBytes());
+        repository.commit("Commit from repository");
+
+        RepositoryManager repositoryManager = RepositoryManager.getRepositoryManager(root);
+        assertEquals(2, repositoryManager.log().getCommits().size());
+        repositoryManager.checkout(GitConstants.MASTER);
+        assertArrayEquals("from repository".getBytes(), Files.readAllBytes(root.resolve("dir/file.txt")));
+
+        Files.write(root.resolve("file.txt"), "from manager".getBytes());
+        repositoryManager.add(root.resolve("file.txt"));
+        repositoryManager.commit("Commit from manager");
+        assertArrayEquals("from manager".getBytes(), repository.readFile(null, "file.txt"));
+        assertEquals(3, repository.log(null).size());
+    }
+
+    @Test
+    public void inMemoryRepositoryReadsObjectsOnce() throws Exception {
+        Repository repository = Repository.inMemory();
+        Statistics.reset();
+        ObjectId blob = repository.add("file.txt", "content".getBytes());
+        repository.add("copy.txt", "content".getBytes());
+        assertEquals(1, Statistics.get(Statistics.Counter.OBJECTS_WRITTEN));
+        assertEquals(blob, repository.getObjectDatabase().read(blob).getHash());
+    }
+
+    private static void checkCommitsAndBranches(Repository repository) throws Exception {
+        repository.add("a.txt", "a".getBytes());
+        repository.add("dir/b.txt", "b".getBytes());
+        ObjectId first = repository.commit("First");
+        repository.createBranch("feature");
+        repository.add("a.txt", "a2".getBytes());
+        ObjectId second = repository.commit("Second");
+
+        assertEquals(second, repository.getHead().getCommitHash());
+        assertEquals(GitConstants.MASTER, repository.getHead().getName());
+        assertEquals(Arrays.asList("feature", GitConstants.MASTER), repository.getBranches());
+        assertArrayEquals("a2".getBytes(), repository.readFile(null, "a.txt"));
+        assertArrayEquals("a".getBytes(), repository.readFile("feature", "a.txt"));
+        assertArrayEquals("b".getBytes(), repository.readFile(first.toString(), "dir/b.txt"));
+        assertNull(repository.readFile(null, "c.txt"));
+        assertEquals(0, repository.getIndexStore().read().size());
+
+        List<Commit> log = repository.log(null);
+        assertEquals(3, log.size());
+        assertEquals(second, log.get(0).getHash());
+        assertEquals(2, repository.log("feature").size());
+    }
+}
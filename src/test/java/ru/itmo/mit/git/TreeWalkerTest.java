@@ -0,0 +1,176 @@
+package ru.itmo.mit.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * Обход дерева с чтением объектов заранее: порядок как у рекурсивного обхода,
+ * чтения поддеревьев идут одновременно, но не больше заданного числа.
+ */
+public class TreeWalkerTest {
+    private static final int DIRECTORIES = 6;
+    private static final int FILES = 4;
+
+    @Test
+    public void walkKeepsDepthFirstOrder() throws Exception {
+        SlowObjectDatabase objects = new SlowObjectDatabase(0);
+        Tree tree = generate(objects);
+        List<String> expected = new ArrayList<>();
+        walkRecursively(tree, Paths.get(""), expected);
+
+        List<String> actual = new ArrayList<>();
+        for (TreeWalker.Item item : TreeWalker.walk(tree, null, true)) {
+            actual.add(item.getPath().toString());
+            if (!item.getEntry().isTree()) {
+                assertArrayEquals(item.getPath().toString().getBytes(), item.getBlob().getContent());
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void subtreesAreReadConcurrently() throws Exception {
+        SlowObjectDatabase objects = new SlowObjectDatabase(20);
+        Tree tree = generate(objects);
+        assertEquals(DIRECTORIES * DIRECTORIES * FILES, tree.getPairs(Paths.get("")).size());
+        assertTrue(objects.maxConcurrentReads.get() > 1);
+    }
+
+    @Test
+    public void prefetchIsBounded() throws Exception {
+        SlowObjectDatabase objects = new SlowObjectDatabase(5);
+        Tree tree = generate(objects);
+        int count = 0;
+        try (TreeWalker walker = new TreeWalker(tree, null, true, 2, Long.MAX_VALUE)) {
+            while (walker.hasNext()) {
+                walker.next();
+                count++;
+            }
+        }
+        assertEquals(DIRECTORIES + DIRECTORIES * DIRECTORIES + DIRECTORIES * DIRECTORIES * FILES, count);
+        assertTrue(objects.maxConcurrentReads.get() <= 2);
+    }
+
+    @Test
+    public void excludedSubtreesAreNotRead() throws Exception {
+        SlowObjectDatabase objects = new SlowObjectDatabase(0);
+        Tree tree = generate(objects);
+        SparseCheckout sparse = SparseCheckout.parse(Arrays.asList("dir0/dir1"));
+        objects.reads.set(0);
+        List<Pair> files = tree.getPairs(Paths.get(""), sparse);
+        assertEquals(FILES, files.size());
+        for (Pair file : files) {
+            assertTrue(file.getPath().startsWith(Paths.get("dir0/dir1")));
+        }
+        // корень уже в памяти, прочитаны только деревья dir0 и dir0/dir1
+        assertEquals(2, objects.reads.get());
+    }
+
+    @Test
+    public void readErrorIsRethrown() throws Exception {
+        SlowObjectDatabase objects = new SlowObjectDatabase(0);
+        Tree tree = generate(objects);
+        objects.missing.add(((Tree) tree.getChild(tree.getChildren().get(3).getHash())).getChildren().get(2).getHash());
+        try {
+            tree.getPairs(Paths.get(""));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("doesn't exist"));
+        }
+    }
+
+    // DIRECTORIES папок по DIRECTORIES папок по FILES файлов с путем в качестве содержимого
+    private static Tree generate(ObjectDatabase objects) throws Exception {
+        Tree tree = new Tree(objects, "root", new ArrayList<>());
+        for (int i = 0; i < DIRECTORIES; i++) {
+            for (int j = 0; j < DIRECTORIES; j++) {
+                for (int k = 0; k < FILES; k++) {
+                    Path path = Paths.get("dir" + i, "dir" + j, "file" + k + ".txt");
+                    tree = tree.addPathToTree(path, new Blob(objects, path.toString().getBytes()).getHash());
+                }
+            }
+        }
+        return tree;
+    }
+
+    private static void walkRecursively(Tree tree, Path path, List<String> paths) throws Exception {
+        for (TreeEntry child : tree.getChildren()) {
+            paths.add(path.resolve(child.getName()).toString());
+            if (child.isTree()) {
+                walkRecursively((Tree) tree.getChild(child.getHash()), path.resolve(child.getName()), paths);
+            }
+        }
+    }
+
+    // хранилище в памяти с задержкой чтения, как у холодного диска
+    private static final class SlowObjectDatabase implements ObjectDatabase {
+        private final ObjectDatabase objects = new InMemoryObjectDatabase(HashAlgorithm.DEFAULT);
+        private final long delayMillis;
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger concurrentReads = new AtomicInteger();
+        private final AtomicInteger maxConcurrentReads = new AtomicInteger();
+        private final Set<ObjectId> missing = new HashSet<>();
+
+        SlowObjectDatabase(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public @NotNull HashAlgorithm getHashAlgorithm() throws IOException {
+            return objects.getHashAlgorithm();
+        }
+
+        @Override
+        public boolean contains(@NotNull ObjectId hash) throws IOException {
+            return objects.contains(hash);
+        }
+
+        @Override
+        public @NotNull GitObject read(@NotNull ObjectId hash) throws IOException, ClassNotFoundException {
+            reads.incrementAndGet();
+            int concurrent = concurrentReads.incrementAndGet();
+            maxConcurrentReads.accumulateAndGet(concurrent, Math::max);
+            try {
+                Thread.sleep(delayMillis);
+                if (missing.contains(hash)) {
+                    throw new IOException("Object " + hash + " doesn't exist");
+                }
+                return objects.read(hash);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                concurrentReads.decrementAndGet();
+            }
+        }
+
+        @Override
+        public @NotNull List<ObjectId> list() throws IOException {
+            return objects.list();
+        }
+
+        @Override
+        public void insert(@NotNull GitObject gitObject) throws IOException {
+            objects.insert(gitObject);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            objects.flush();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.itmo.mit.git;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * status по кешу содержимого папок: неизмененные папки не перечитываются,
+ * а изменения файлов, индекса и .mygitignore по-прежнему видны.
+ */
+public class UntrackedCacheTest {
+    private Path root;
+    private RepositoryManager repositoryManager;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("mygit-untracked").toAbsolutePath().normalize();
+        RepositoryManager.initRepository(root);
+        repositoryManager = RepositoryManager.getRepositoryManager(root);
+        write("a/tracked.txt", "tracked");
+        repositoryManager.add(root.resolve("a/tracked.txt"));
+        repositoryManager.commit("Add tracked");
+        write("a/b/untracked.txt", "untracked");
+        write("c/untracked.txt", "untracked");
+        write("build/output.txt", "output");
+        write(".mygitignore", "build/\n");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryGenerator.delete(root);
+    }
+
+    @Test
+    public void unchangedDirectoriesAreNotListed() throws Exception {
+        makeDirectoriesOld();
+        Status first = getStatus();
+        assertEquals(4, Statistics.get(Statistics.Counter.DIRECTORIES_LISTED));
+
+        Status second = getStatus();
+        assertEquals(0, Statistics.get(Statistics.Counter.DIRECTORIES_LISTED));
+        assertEquals(first.getNotTrackedFiles(), second.getNotTrackedFiles());
+        assertEquals(first.getCommittedFiles(), second.getCommittedFiles());
+    }
+
+    @Test
+    public void recentlyChangedDirectoryIsListedAgain() throws Exception {
+        // время папок не раньше секунды, в которую их читает status: кеш им не верит
+        setDirectoriesTime(System.currentTimeMillis() + 60_000);
+        getStatus();
+        getStatus();
+        assertEquals(4, Statistics.get(Statistics.Counter.DIRECTORIES_LISTED));
+    }
+
+    @Test
+    public void changesInCachedDirectoriesAreVisible() throws Exception {
+        makeDirectoriesOld();
+        getStatus();
+
+        write("c/new.txt", "new");
+        repositoryManager.add(root.resolve("a/b/untracked.txt"));
+        write("a/tracked.txt", "changed");
+        Status status = getStatus();
+        assertEquals(1, Statistics.get(Statistics.Counter.DIRECTORIES_LISTED));
+        assertTrue(status.getNotTrackedFiles().contains(root.resolve("c/new.txt")));
+        assertTrue(status.getStagedFiles().contains(root.resolve("a/b/untracked.txt")));
+        assertTrue(status.getNotStagedFiles().contains(root.resolve("a/tracked.txt")));
+    }
+
+    @Test
+    public void changedIgnoreRulesInvalidateCache() throws Exception {
+        makeDirectoriesOld();
+        assertFalse(getStatus().getNotTrackedFiles().contains(root.resolve("build/output.txt")));
+
+        // файл правил изменен на месте, время папки прежнее
+        FileTime modified = Files.getLastModifiedTime(root);
+        write(".mygitignore", "c/\n");
+        Files.setLastModifiedTime(root, modified);
+        Status status = getStatus();
+        assertTrue(status.getNotTrackedFiles().contains(root.resolve("build/output.txt")));
+        assertFalse(status.getNotTrackedFiles().contains(root.resolve("c/untracked.txt")));
+    }
+
+    private Status getStatus() throws Exception {
+        Statistics.reset();
+        return repositoryManager.getStatus();
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes());
+    }
+
+    // папки, измененные раньше текущей секунды, кеш запоминает
+    private void makeDirectoriesOld() throws Exception {
+        setDirectoriesTime(System.currentTimeMillis() - 10_000);
+    }
+
+    private void setDirectoriesTime(long millis) throws Exception {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path directory : files.filter(Files::isDirectory).collect(Collectors.toList())) {
+                Files.setLastModifiedTime(directory, FileTime.fromMillis(millis));
+            }
+        }
+    }
+}